@@ -5,10 +5,14 @@ import android.graphics.Canvas;
 import android.graphics.Rect;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay.Graphic;
 
-/** Draw camera image to background. */
+/**
+ * Draw camera image to background. Processors only add it when the camera preview is not already
+ * displayed beneath the overlay, see {@link GraphicOverlay#isCameraPreviewLive()}.
+ */
 public class CameraImageGraphic extends Graphic {
 
     private final Bitmap bitmap;
+    private final Rect destination = new Rect();
 
     public CameraImageGraphic(GraphicOverlay overlay, Bitmap bitmap) {
         super(overlay);
@@ -17,7 +21,7 @@ public class CameraImageGraphic extends Graphic {
 
     @Override
     public void draw(Canvas canvas) {
-        canvas.drawBitmap(bitmap, null, new Rect(0, 0, canvas.getWidth(), canvas.getHeight()), null);
+        destination.set(0, 0, canvas.getWidth(), canvas.getHeight());
+        canvas.drawBitmap(bitmap, null, destination, null);
     }
 }
-
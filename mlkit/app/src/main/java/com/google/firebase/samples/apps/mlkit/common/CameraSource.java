@@ -22,6 +22,9 @@ import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresPermission;
 import android.util.Log;
@@ -30,7 +33,7 @@ import android.view.SurfaceHolder;
 import android.view.WindowManager;
 
 import com.google.android.gms.common.images.Size;
-import com.google.firebase.samples.apps.mlkit.common.preference.PreferenceUtils;
+import com.google.firebase.samples.apps.mlkit.common.preference.PipelineConfigStore;
 
 import java.io.IOException;
 import java.lang.Thread.State;
@@ -125,6 +128,14 @@ public class CameraSource {
    */
   private final Map<byte[], ByteBuffer> bytesToByteBuffer = new IdentityHashMap<>();
 
+  /**
+   * Background thread used to open and configure the camera off the UI thread. Because the camera
+   * is opened from this thread, its preview callbacks are delivered on this thread's looper as well.
+   */
+  private HandlerThread cameraThread;
+
+  private Handler cameraHandler;
+
   public CameraSource(Activity activity, GraphicOverlay overlay) {
     this.activity = activity;
     graphicOverlay = overlay;
@@ -147,6 +158,41 @@ public class CameraSource {
         frameProcessor.stop();
       }
     }
+    synchronized (this) {
+      if (cameraThread != null) {
+        cameraThread.quitSafely();
+        cameraThread = null;
+        cameraHandler = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the handler of the background thread that should be used to call {@link #open()}, so
+   * that opening the camera does not block the UI thread.
+   */
+  public synchronized Handler getCameraHandler() {
+    if (cameraThread == null) {
+      cameraThread = new HandlerThread("CameraSource");
+      cameraThread.start();
+      cameraHandler = new Handler(cameraThread.getLooper());
+    }
+    return cameraHandler;
+  }
+
+  /**
+   * Opens the camera, applies the user settings and allocates the preview buffers without starting
+   * the preview. This is the slow part of starting the camera source and is meant to be called on
+   * the {@link #getCameraHandler() camera thread} while the UI is still being laid out. A later
+   * {@link #start()} or {@link #start(SurfaceHolder)} reuses the opened camera.
+   *
+   * @throws IOException if camera cannot be found or preview cannot be processed
+   */
+  @RequiresPermission(Manifest.permission.CAMERA)
+  public synchronized void open() throws IOException {
+    if (camera == null) {
+      camera = createCamera();
+    }
   }
 
   /**
@@ -158,16 +204,17 @@ public class CameraSource {
   @SuppressLint("MissingPermission")
   @RequiresPermission(Manifest.permission.CAMERA)
   public synchronized CameraSource start() throws IOException {
-    if (camera != null) {
+    if (processingThread != null) {
       return this;
     }
 
-    camera = createCamera();
+    open();
     camera.getParameters().setZoom(camera.getParameters().getMaxZoom());
     dummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
     camera.setPreviewTexture(dummySurfaceTexture);
     usingSurfaceTexture = true;
     camera.startPreview();
+    graphicOverlay.setCameraPreviewLive(false);
 
     processingThread = new Thread(processingRunnable);
     processingRunnable.setActive(true);
@@ -184,19 +231,20 @@ public class CameraSource {
    */
   @RequiresPermission(Manifest.permission.CAMERA)
   public synchronized CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
-    if (camera != null) {
+    if (processingThread != null) {
       return this;
     }
 
-    camera = createCamera();
+    open();
     camera.setPreviewDisplay(surfaceHolder);
     camera.startPreview();
+    usingSurfaceTexture = false;
+    // Set before the first frame is processed, so no frame is converted to a bitmap.
+    graphicOverlay.setCameraPreviewLive(true);
 
     processingThread = new Thread(processingRunnable);
     processingRunnable.setActive(true);
     processingThread.start();
-
-    usingSurfaceTexture = false;
     return this;
   }
 
@@ -238,6 +286,7 @@ public class CameraSource {
       camera.release();
       camera = null;
     }
+    graphicOverlay.setCameraPreviewLive(false);
 
     // Release the reference to any image buffers, since these will no longer be in use.
     bytesToByteBuffer.clear();
@@ -277,7 +326,8 @@ public class CameraSource {
     }
     Camera camera = Camera.open(requestedCameraId);
 
-    SizePair sizePair = PreferenceUtils.getCameraPreviewSizePair(activity, requestedCameraId);
+    SizePair sizePair =
+        PipelineConfigStore.get(activity).getCameraPreviewSizePair(requestedCameraId);
     if (sizePair == null) {
       sizePair =
           selectSizePair(
@@ -618,6 +668,11 @@ public class CameraSource {
 
     // These pending variables hold the state associated with the new frame awaiting processing.
     private ByteBuffer pendingFrameData;
+    private long pendingFrameId;
+    private long pendingTimestampMs;
+
+    // Id of the next frame received from the camera; skipped frames leave gaps.
+    private long nextFrameId;
 
     FrameProcessingRunnable() {}
 
@@ -658,6 +713,8 @@ public class CameraSource {
         }
 
         pendingFrameData = bytesToByteBuffer.get(data);
+        pendingFrameId = nextFrameId++;
+        pendingTimestampMs = SystemClock.elapsedRealtime();
 
         // Notify the processor thread if it is waiting on the next frame (see below).
         lock.notifyAll();
@@ -682,6 +739,8 @@ public class CameraSource {
     @Override
     public void run() {
       ByteBuffer data;
+      long frameId;
+      long timestampMs;
 
       while (true) {
         synchronized (lock) {
@@ -708,6 +767,8 @@ public class CameraSource {
           // below.  We need to clear pendingFrameData to ensure that this buffer isn't
           // recycled back to the camera before we are done using that data.
           data = pendingFrameData;
+          frameId = pendingFrameId;
+          timestampMs = pendingTimestampMs;
           pendingFrameData = null;
         }
 
@@ -717,7 +778,10 @@ public class CameraSource {
 
         try {
           synchronized (processorLock) {
-            //Log.d(TAG, "Process an image");
+            // The processor may still be loading in parallel with the camera during startup.
+            if (frameProcessor == null) {
+              continue;
+            }
             frameProcessor.process(
                 data,
                 new FrameMetadata.Builder()
@@ -725,6 +789,8 @@ public class CameraSource {
                     .setHeight(previewSize.getHeight())
                     .setRotation(rotation)
                     .setCameraFacing(facing)
+                    .setFrameId(frameId)
+                    .setTimestampMs(timestampMs)
                     .build(),
                 graphicOverlay);
           }
@@ -23,7 +23,7 @@ import android.view.SurfaceView;
 import android.view.ViewGroup;
 
 import com.google.android.gms.common.images.Size;
-import com.google.firebase.samples.apps.mlkit.common.preference.PreferenceUtils;
+import com.google.firebase.samples.apps.mlkit.common.preference.PipelineConfigStore;
 
 import java.io.IOException;
 
@@ -85,7 +85,7 @@ public class CameraSourcePreview extends ViewGroup {
   @SuppressLint("MissingPermission")
   private void startIfReady() throws IOException {
     if (startRequested && surfaceAvailable) {
-      if (PreferenceUtils.isCameraLiveViewportEnabled(context)) {
+      if (PipelineConfigStore.get(context).isCameraLiveViewportEnabled()) {
         cameraSource.start(surfaceView.getHolder());
       } else {
         cameraSource.start();
@@ -0,0 +1,48 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.common;
+
+/**
+ * Named detector configurations ordered from cheapest to most expensive. Each processor maps a
+ * profile to the smallest set of detector options that still produces what its graphics draw.
+ */
+public enum CostProfile {
+  /** Bounding boxes only: no tracking, landmarks, classification or contours. */
+  BOXES_ONLY("boxes-only"),
+  /** Bounding boxes with stable tracking ids, needed to attach identities to faces or objects. */
+  TRACKING("tracking"),
+  /** Everything enabled in the detailed detector settings, for debugging or richer overlays. */
+  FULL_ANALYSIS("full-analysis");
+
+  private final String key;
+
+  CostProfile(String key) {
+    this.key = key;
+  }
+
+  /** Value stored in the preferences for this profile. */
+  public String getKey() {
+    return key;
+  }
+
+  /** Returns the profile stored under {@code key}, or {@code defaultProfile} if it is unknown. */
+  public static CostProfile fromKey(String key, CostProfile defaultProfile) {
+    for (CostProfile profile : values()) {
+      if (profile.key.equals(key)) {
+        return profile;
+      }
+    }
+    return defaultProfile;
+  }
+}
@@ -0,0 +1,205 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.common;
+
+import android.os.SystemClock;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes detection results of one processor to any number of subscribers.
+ *
+ * <p>There is a single publisher, so the latest result is published with one volatile write and
+ * read back by {@link #getLatest()} without locking. Each subscriber has its own bounded queue:
+ * when a slow subscriber falls behind, its oldest results are dropped (conflated) so the publisher
+ * never waits and memory stays bounded. Every result carries the id and capture time of the frame
+ * it was computed from.
+ *
+ * @param <T> The type of the detected feature.
+ */
+public class DetectionStream<T> {
+
+  /** A result and the frame it belongs to. */
+  public static final class Detection<T> {
+    private final T result;
+    private final long frameId;
+    private final long frameTimestampMs;
+    private final long publishedAtMs;
+
+    Detection(T result, long frameId, long frameTimestampMs, long publishedAtMs) {
+      this.result = result;
+      this.frameId = frameId;
+      this.frameTimestampMs = frameTimestampMs;
+      this.publishedAtMs = publishedAtMs;
+    }
+
+    public T getResult() {
+      return result;
+    }
+
+    /** Id of the source frame, see {@link FrameMetadata#getFrameId()}; -1 for still images. */
+    public long getFrameId() {
+      return frameId;
+    }
+
+    /** Capture time of the source frame, in {@link SystemClock#elapsedRealtime()} time. */
+    public long getFrameTimestampMs() {
+      return frameTimestampMs;
+    }
+
+    /** Time from frame capture to publication. */
+    public long getLatencyMs() {
+      return publishedAtMs - frameTimestampMs;
+    }
+  }
+
+  /** Receives results on the executor given to {@link #subscribe(int, Executor, Listener)}. */
+  public interface Listener<T> {
+    void onDetection(Detection<T> detection);
+  }
+
+  /** A subscriber's queue of results not yet consumed. */
+  public final class Subscription {
+    private final int capacity;
+    @Nullable private final Executor executor;
+    @Nullable private final Listener<T> listener;
+
+    @GuardedBy("this")
+    private final ArrayDeque<Detection<T>> queue;
+
+    @GuardedBy("this")
+    private long conflated;
+
+    @GuardedBy("this")
+    private boolean drainScheduled;
+
+    private final Runnable drain =
+        new Runnable() {
+          @Override
+          public void run() {
+            List<Detection<T>> batch = new ArrayList<>();
+            synchronized (Subscription.this) {
+              drainTo(batch);
+              drainScheduled = false;
+            }
+            for (Detection<T> detection : batch) {
+              listener.onDetection(detection);
+            }
+          }
+        };
+
+    private Subscription(
+        int capacity, @Nullable Executor executor, @Nullable Listener<T> listener) {
+      if (capacity < 1) {
+        throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+      }
+      this.capacity = capacity;
+      this.executor = executor;
+      this.listener = listener;
+      queue = new ArrayDeque<>(capacity);
+    }
+
+    private void offer(Detection<T> detection) {
+      boolean schedule;
+      synchronized (this) {
+        if (queue.size() == capacity) {
+          queue.poll();
+          conflated++;
+        }
+        queue.add(detection);
+        schedule = executor != null && !drainScheduled;
+        drainScheduled |= schedule;
+      }
+      if (schedule) {
+        executor.execute(drain);
+      }
+    }
+
+    /** Takes the oldest queued result, or returns null if there is none. */
+    @Nullable
+    public synchronized Detection<T> poll() {
+      return queue.poll();
+    }
+
+    /** Moves all queued results, oldest first, into {@code out}. */
+    public synchronized void drainTo(List<Detection<T>> out) {
+      out.addAll(queue);
+      queue.clear();
+    }
+
+    /** Number of results dropped because the queue was full. */
+    public synchronized long getConflatedCount() {
+      return conflated;
+    }
+
+    /** Stops delivery; results still queued can be drained. */
+    public void cancel() {
+      subscriptions.remove(this);
+    }
+  }
+
+  private final AtomicReference<Detection<T>> latest = new AtomicReference<>();
+  private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+  /**
+   * Publishes a result. Must always be called from the same thread.
+   *
+   * @param frameMetadata the source frame, or null for a still image
+   */
+  public void publish(T result, @Nullable FrameMetadata frameMetadata) {
+    long nowMs = SystemClock.elapsedRealtime();
+    Detection<T> detection =
+        frameMetadata == null
+            ? new Detection<>(result, -1, nowMs, nowMs)
+            : new Detection<>(
+                result, frameMetadata.getFrameId(), frameMetadata.getTimestampMs(), nowMs);
+    latest.set(detection);
+    for (Subscription subscription : subscriptions) {
+      subscription.offer(detection);
+    }
+  }
+
+  /** Returns the most recent result, or null if none was published yet. */
+  @Nullable
+  public Detection<T> getLatest() {
+    return latest.get();
+  }
+
+  /**
+   * Subscribes for results to {@link Subscription#poll() poll}, keeping at most {@code
+   * capacity}.
+   */
+  public Subscription subscribe(int capacity) {
+    return add(new Subscription(capacity, null, null));
+  }
+
+  /**
+   * Subscribes {@code listener}, called on {@code executor} with results in order. Results that
+   * pile up beyond {@code capacity} while the listener is busy are dropped, oldest first.
+   */
+  public Subscription subscribe(int capacity, Executor executor, Listener<T> listener) {
+    return add(new Subscription(capacity, executor, listener));
+  }
+
+  private Subscription add(Subscription subscription) {
+    subscriptions.add(subscription);
+    return subscription;
+  }
+}
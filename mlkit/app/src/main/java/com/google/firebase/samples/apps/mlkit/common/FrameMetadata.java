@@ -20,6 +20,8 @@ public class FrameMetadata {
   private final int height;
   private final int rotation;
   private final int cameraFacing;
+  private final long frameId;
+  private final long timestampMs;
 
   public int getWidth() {
     return width;
@@ -37,11 +39,24 @@ public class FrameMetadata {
     return cameraFacing;
   }
 
-  private FrameMetadata(int width, int height, int rotation, int facing) {
+  /** Sequence number of the frame from its camera source, or -1 if unknown. */
+  public long getFrameId() {
+    return frameId;
+  }
+
+  /** When the frame was captured, in {@link android.os.SystemClock#elapsedRealtime()} time. */
+  public long getTimestampMs() {
+    return timestampMs;
+  }
+
+  private FrameMetadata(
+      int width, int height, int rotation, int facing, long frameId, long timestampMs) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
     cameraFacing = facing;
+    this.frameId = frameId;
+    this.timestampMs = timestampMs;
   }
 
   /** Builder of {@link FrameMetadata}. */
@@ -51,6 +66,8 @@ public class FrameMetadata {
     private int height;
     private int rotation;
     private int cameraFacing;
+    private long frameId = -1;
+    private long timestampMs;
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -72,8 +89,18 @@ public class FrameMetadata {
       return this;
     }
 
+    public Builder setFrameId(long frameId) {
+      this.frameId = frameId;
+      return this;
+    }
+
+    public Builder setTimestampMs(long timestampMs) {
+      this.timestampMs = timestampMs;
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation, cameraFacing);
+      return new FrameMetadata(width, height, rotation, cameraFacing, frameId, timestampMs);
     }
   }
 }
@@ -15,18 +15,54 @@ package com.google.firebase.samples.apps.mlkit.common;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
 import com.google.android.gms.vision.CameraSource;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A view which renders a series of custom graphics to be overlayed on top of an associated preview
- * (i.e., the camera preview). The creator can add graphics objects, update the objects, and remove
- * them, triggering the appropriate drawing and invalidation within the view.
+ * (i.e., the camera preview). The creator fills a {@link Scene} from {@link #obtainScene()} with
+ * graphics and publishes it with {@link #publish(Scene)}, which replaces the previous scene in one
+ * atomic swap and invalidates the view.
+ *
+ * <p>Scenes cannot change once published, so {@link #onDraw(Canvas)} reads the latest one without
+ * locking and never sees a half-built set of graphics; producers never wait on drawing. A scene
+ * replaced before it was drawn is counted as skipped; that count, the draw time and the delay from
+ * publication to drawing are reported by {@link #toString()}.
+ *
+ * <p>A replaced scene is recycled at the start of the next draw, when the UI thread can no longer
+ * be drawing it: its graphics go back to their {@link GraphicPool} and the scene itself back to
+ * {@link #obtainScene()}. Steady-state frames therefore allocate neither scenes nor graphics.
+ *
+ * <p>Publishing only invalidates the area that changed: the union of the {@link
+ * Graphic#getBounds(RectF) bounds} of the graphics being replaced and of the new ones. If any
+ * graphic cannot tell its bounds, or the area covers most of the view, the whole view is redrawn;
+ * if both scenes are empty nothing is. Note that with hardware acceleration Android redraws the
+ * whole view for any invalidation, so there only the skipped invalidations save work. The
+ * repainted area per second is reported by {@link #toString()}.
+ *
+ * <p>Graphics that follow a tracked object, see {@link Graphic#getTrackingKey()}, move smoothly at
+ * the display rate although results arrive at the detector rate: each is matched with its graphic
+ * in the previous scene and, depending on the {@link Motion}, glides from where it was drawn to its
+ * new position or keeps moving at the speed between the last two results for a limited time. The
+ * view redraws on {@link Choreographer} frames only while such a motion is in progress.
  *
  * <p>Supports scaling and mirroring of the graphics relative the camera's preview properties. The
  * idea is that detection items are expressed in terms of a preview size, but need to be scaled up
@@ -41,28 +77,296 @@ import java.util.List;
  *   <li>{@link Graphic#translateX(float)} and {@link Graphic#translateY(float)} adjust the
  *       coordinate from the preview's coordinate system to the view coordinate system.
  * </ol>
+ *
+ * <p>Graphics with many points map them in one call with the matrix of {@link
+ * Graphic#getTransform()} instead.
  */
 public class GraphicOverlay extends View {
-  private final Object lock = new Object();
-  private int previewWidth;
-  private float widthScaleFactor = 1.0f;
-  private int previewHeight;
-  private float heightScaleFactor = 1.0f;
-  private int facing = CameraSource.CAMERA_FACING_BACK;
-  private final List<Graphic> graphics = new ArrayList<>();
+  private static final String TAG = "GraphicOverlay";
+
+  /** Draw statistics are logged every this many draws. */
+  private static final int STATS_LOG_INTERVAL = 300;
+
+  // Replaced scenes waiting for the next draw, and recycled scenes kept for reuse. Past these
+  // bounds, e.g. while the view is not drawn at all, scenes are left to the garbage collector.
+  private static final int MAX_RETIRED_SCENES = 8;
+  private static final int MAX_FREE_SCENES = 4;
+
+  /** Share of the view above which a change redraws the whole view instead of its dirty area. */
+  private static final float FULL_REDRAW_COVERAGE = 0.5f;
+
+  /** Pixels added around dirty areas to absorb anti-aliasing and rounding. */
+  private static final int DIRTY_MARGIN = 2;
+
+  // A graphic glides to its new position over the time between the two results, but at most this
+  // long, and is extrapolated at most this far past its result.
+  private static final long MAX_INTERPOLATION_NANOS = 250_000_000L;
+  private static final long MAX_EXTRAPOLATION_NANOS = 100_000_000L;
+
+  /** Results further apart than this are not animated: the object may have moved anywhere. */
+  private static final long MAX_MOTION_GAP_NANOS = 1_000_000_000L;
+
+  /** How tracked graphics move between two results, see {@link Graphic#getTrackingKey()}. */
+  public enum Motion {
+    /** Graphics jump to each new result. */
+    NONE,
+    /**
+     * Graphics glide from where they are drawn to the new result over one result interval. Smooth,
+     * but the graphics trail the results.
+     */
+    INTERPOLATE,
+    /**
+     * Graphics continue at the speed between the last two results, for a limited time, then jump
+     * to the next result. Follows fast motion closely, but can overshoot.
+     */
+    EXTRAPOLATE
+  }
+
+  private volatile int previewWidth;
+  // Read when scenes are published, to compute the bounds of their graphics.
+  private volatile float widthScaleFactor = 1.0f;
+  private volatile int previewHeight;
+  private volatile float heightScaleFactor = 1.0f;
+  private volatile int facing = CameraSource.CAMERA_FACING_BACK;
+  // Set while the camera renders its preview on a surface beneath this overlay.
+  private volatile boolean cameraPreviewLive;
+  private final AtomicReference<Scene> scene = new AtomicReference<>(Scene.EMPTY);
+  private volatile Motion motion = Motion.INTERPOLATE;
+  // Serializes publishers, so a scene is matched against the one it actually replaces.
+  private final Object publishLock = new Object();
+  // Notified once, the first time detection graphics actually reach the screen.
+  private final AtomicReference<Runnable> firstGraphicsDrawnListener = new AtomicReference<>();
+
+  @GuardedBy("retiredScenes")
+  private final ArrayDeque<Scene> retiredScenes = new ArrayDeque<>(MAX_RETIRED_SCENES);
+
+  @GuardedBy("freeScenes")
+  private final ArrayDeque<Scene> freeScenes = new ArrayDeque<>(MAX_FREE_SCENES);
+
+  private final AtomicLong publishedScenes = new AtomicLong();
+  private final AtomicLong skippedScenes = new AtomicLong();
+
+  // Invalidations by kind and the area they covered, since the first publication.
+  private final AtomicLong fullInvalidations = new AtomicLong();
+  private final AtomicLong partialInvalidations = new AtomicLong();
+  private final AtomicLong skippedInvalidations = new AtomicLong();
+  private final AtomicLong invalidatedPixels = new AtomicLong();
+  private final AtomicLong animationFrames = new AtomicLong();
+  private final AtomicLong firstPublishNanos = new AtomicLong();
+  // Set when the mapping to view coordinates changes, so bounds computed before are stale.
+  private volatile boolean coordinatesChanged;
+
+  // The mapping to view coordinates as a matrix, updated by onDraw() when stale.
+  private final Matrix transform = new Matrix();
+  private volatile boolean transformStale = true;
+
+  // Animation state, only touched on the UI thread. The frame time is set by a Choreographer frame
+  // for the draw it triggers, and is zero for draws triggered otherwise.
+  private boolean animationFramePosted;
+  private long choreographerFrameNanos;
+  private final RectF animationDirty = new RectF();
+  private final Choreographer.FrameCallback animationFrame =
+      new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+          animationFramePosted = false;
+          choreographerFrameNanos = frameTimeNanos;
+          animationFrames.incrementAndGet();
+          // The bounds of a moving scene cover its graphics along their whole path.
+          Scene current = scene.get();
+          if (current.bounds == null) {
+            invalidateArea(null);
+          } else {
+            animationDirty.set(current.bounds);
+            invalidateArea(animationDirty);
+          }
+        }
+      };
+
+  // Draw statistics, only touched on the UI thread.
+  private long draws;
+  private long totalDrawNanos;
+  private long maxDrawNanos;
+  private long totalPublishToDrawNanos;
+
+  /**
+   * A set of graphics, drawn in the order they were added. Get one from {@link
+   * GraphicOverlay#obtainScene()}, fill it, typically off the UI thread, and hand it to {@link
+   * GraphicOverlay#publish(Scene)}. A published scene belongs to the overlay and must not be
+   * touched again; each graphic belongs to one scene.
+   */
+  public static final class Scene {
+    static final Scene EMPTY = new Scene(true);
+
+    private Graphic[] graphics = new Graphic[8];
+    private int size;
+    private boolean published;
+    private long publishedAtNanos;
+    private volatile boolean drawn;
+
+    // Area covered by the graphics in view coordinates, computed when published; null if unknown.
+    @Nullable private RectF bounds;
+    private final RectF boundsStorage = new RectF();
+    private final RectF graphicBounds = new RectF();
+    private final RectF dirty = new RectF();
+
+    // Motion of the tracked graphics, computed when published. Anchors are (x, y) pairs in view
+    // coordinates. Motions are (x, y) pairs too: the offset at the start of an interpolation, or
+    // the velocity in pixels per nanosecond of an extrapolation; zero for still graphics.
+    private long[] trackingKeys = new long[8];
+    private float[] anchors = new float[16];
+    private float[] motions = new float[16];
+    private final PointF anchor = new PointF();
+    private Motion motion = Motion.NONE;
+    private boolean moving;
+    private long motionStartNanos;
+    private long motionDurationNanos;
+
+    private Scene(boolean published) {
+      this.published = published;
+    }
+
+    public Scene add(Graphic graphic) {
+      if (published) {
+        throw new IllegalStateException("The scene is already published");
+      }
+      if (size == graphics.length) {
+        graphics = Arrays.copyOf(graphics, 2 * size);
+      }
+      graphics[size++] = graphic;
+      return this;
+    }
+
+    public boolean isEmpty() {
+      return size == 0;
+    }
+
+    /**
+     * Computes {@link #bounds} from the bounds of the graphics, including the whole path of the
+     * moving ones.
+     */
+    private void computeBounds() {
+      boundsStorage.setEmpty();
+      bounds = boundsStorage;
+      // The offset of a moving graphic is largest at one end of its path, and zero at the other.
+      float farthest = motion == Motion.INTERPOLATE ? 1 : motionDurationNanos;
+      for (int i = 0; i < size; i++) {
+        graphicBounds.setEmpty();
+        if (!graphics[i].getBounds(graphicBounds)) {
+          bounds = null;
+          return;
+        }
+        boundsStorage.union(graphicBounds);
+        if (moving && (motions[2 * i] != 0 || motions[2 * i + 1] != 0)) {
+          graphicBounds.offset(motions[2 * i] * farthest, motions[2 * i + 1] * farthest);
+          boundsStorage.union(graphicBounds);
+        }
+      }
+    }
+
+    /** Grows the motion arrays to hold every graphic. */
+    private void ensureMotionCapacity() {
+      if (trackingKeys.length < size) {
+        trackingKeys = new long[graphics.length];
+        anchors = new float[2 * graphics.length];
+        motions = new float[2 * graphics.length];
+      }
+    }
+
+    /** Returns the index of the graphic of the class and tracking key given, or -1. */
+    private int indexOf(Class<?> type, long trackingKey) {
+      for (int i = 0; i < size; i++) {
+        if (trackingKeys[i] == trackingKey && graphics[i].getClass() == type) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Returns what the motions are multiplied by to get the offsets of the graphics at {@code
+     * nanos}, in {@link System#nanoTime()} time.
+     */
+    private float motionFactor(long nanos) {
+      if (!moving) {
+        return 0;
+      }
+      long elapsed = Math.max(0, Math.min(nanos - motionStartNanos, motionDurationNanos));
+      return motion == Motion.INTERPOLATE ? 1 - (float) elapsed / motionDurationNanos : elapsed;
+    }
+
+    /** Returns true if the graphics are still moving at {@code nanos}. */
+    private boolean isMoving(long nanos) {
+      return moving && nanos - motionStartNanos < motionDurationNanos;
+    }
+
+    /** Returns the graphics to their pools and empties the scene for reuse. */
+    private void recycle() {
+      for (int i = 0; i < size; i++) {
+        graphics[i].recycle();
+        graphics[i] = null;
+      }
+      size = 0;
+      published = false;
+      drawn = false;
+      moving = false;
+    }
+  }
 
   /**
    * Base class for a custom graphics object to be rendered within the graphic overlay. Subclass
    * this and implement the {@link Graphic#draw(Canvas)} method to define the graphics element. Add
-   * instances to the overlay using {@link GraphicOverlay#add(Graphic)}.
+   * instances to a {@link Scene} and publish the scene.
+   *
+   * <p>Graphics drawn for every frame should come from a {@link GraphicPool}, be rebound to the new
+   * result and draw with shared {@link Paint}s, so that drawing a frame creates no garbage.
    */
   public abstract static class Graphic {
+    /** Returned by {@link #getTrackingKey()} for graphics that follow no tracked object. */
+    public static final long NO_TRACKING_KEY = Long.MIN_VALUE;
+
     private GraphicOverlay overlay;
+    @Nullable private GraphicPool<?> pool;
 
     public Graphic(GraphicOverlay overlay) {
       this.overlay = overlay;
     }
 
+    /**
+     * Returns a paint for outlines. Paints are shared by all instances of a graphic, so they must
+     * not be changed once created.
+     */
+    protected static Paint strokePaint(int color, float strokeWidth) {
+      Paint paint = new Paint();
+      paint.setColor(color);
+      paint.setStyle(Paint.Style.STROKE);
+      paint.setStrokeWidth(strokeWidth);
+      return paint;
+    }
+
+    /** Returns a paint for text, to be shared like {@link #strokePaint}. */
+    protected static Paint textPaint(int color, float textSize) {
+      Paint paint = new Paint();
+      paint.setColor(color);
+      paint.setTextSize(textSize);
+      return paint;
+    }
+
+    /** Adds the area of a rectangle outlined with {@code paint} to {@code bounds}. */
+    protected static void unionStroke(RectF bounds, RectF rect, Paint paint) {
+      float halfStroke = paint.getStrokeWidth() / 2;
+      bounds.union(
+          Math.min(rect.left, rect.right) - halfStroke,
+          Math.min(rect.top, rect.bottom) - halfStroke,
+          Math.max(rect.left, rect.right) + halfStroke,
+          Math.max(rect.top, rect.bottom) + halfStroke);
+    }
+
+    /** Adds the area of {@code text} drawn at ({@code x}, {@code y}) to {@code bounds}. */
+    protected static void unionText(RectF bounds, String text, float x, float y, Paint paint) {
+      bounds.union(x, y + paint.ascent(), x + paint.measureText(text), y + paint.descent());
+    }
+
     /**
      * Draw the graphic on the supplied canvas. Drawing should use the following methods to convert
      * to view coordinates for the graphics that are drawn:
@@ -78,6 +382,34 @@ public class GraphicOverlay extends View {
      */
     public abstract void draw(Canvas canvas);
 
+    /**
+     * Sets {@code bounds}, initially empty, to the area {@link #draw(Canvas)} paints in view
+     * coordinates and returns true, or returns false if the graphic cannot tell; the whole view is
+     * then redrawn when it appears or disappears. Called when the scene is published, on the
+     * publishing thread. The default returns false.
+     */
+    public boolean getBounds(RectF bounds) {
+      return false;
+    }
+
+    /**
+     * Returns a key, e.g. a tracking id, that matches this graphic with the graphic of the same
+     * class and key in the previous scene, so the overlay can animate it between the two results;
+     * see {@link Motion}. Called when the scene is published, like {@link #getBounds}. The default
+     * returns {@link #NO_TRACKING_KEY}: the graphic jumps to each new result.
+     */
+    public long getTrackingKey() {
+      return NO_TRACKING_KEY;
+    }
+
+    /**
+     * Sets {@code anchor} to a point in view coordinates that moves with the tracked object, e.g.
+     * the center of its box. Only called for graphics with a tracking key.
+     */
+    public void getAnchor(PointF anchor) {
+      anchor.set(0, 0);
+    }
+
     /**
      * Adjusts a horizontal value of the supplied value from the preview scale to the view scale.
      */
@@ -90,6 +422,15 @@ public class GraphicOverlay extends View {
       return vertical * overlay.heightScaleFactor;
     }
 
+    /**
+     * Returns the matrix that maps preview coordinates to view coordinates like {@link
+     * #translateX} and {@link #translateY}, to map many points in one {@link Matrix#mapPoints}
+     * call. Only valid during {@link #draw(Canvas)}; must not be modified.
+     */
+    protected Matrix getTransform() {
+      return overlay.transform;
+    }
+
     /** Returns the application context of the app. */
     public Context getApplicationContext() {
       return overlay.getContext().getApplicationContext();
@@ -113,36 +454,218 @@ public class GraphicOverlay extends View {
       return scaleY(y);
     }
 
+    /** Sets {@code out} to {@code box} translated to the view coordinate system. */
+    public void translateRect(Rect box, RectF out) {
+      out.set(
+          translateX(box.left), translateY(box.top), translateX(box.right), translateY(box.bottom));
+    }
+
     public void postInvalidate() {
       overlay.postInvalidate();
     }
+
+    /**
+     * Called on the UI thread once the scene holding this graphic is replaced and no longer drawn.
+     * Pooled graphics drop their references to the detection result here.
+     */
+    protected void onRecycle() {}
+
+    GraphicOverlay getOverlay() {
+      return overlay;
+    }
+
+    void setPool(GraphicPool<?> pool) {
+      this.pool = pool;
+    }
+
+    private void recycle() {
+      onRecycle();
+      if (pool != null) {
+        pool.recycle(this);
+      }
+    }
   }
 
   public GraphicOverlay(Context context, AttributeSet attrs) {
     super(context, attrs);
   }
 
-  /** Removes all graphics from the overlay. */
-  public void clear() {
-    synchronized (lock) {
-      graphics.clear();
+  /** Returns an empty scene to fill and {@link #publish}. Can be called from any thread. */
+  public Scene obtainScene() {
+    Scene free;
+    synchronized (freeScenes) {
+      free = freeScenes.poll();
+    }
+    return free != null ? free : new Scene(false);
+  }
+
+  /**
+   * Replaces the graphics on screen with {@code next} and invalidates the view. Can be called from
+   * any thread.
+   */
+  public void publish(Scene next) {
+    if (next != Scene.EMPTY) {
+      if (next.published) {
+        throw new IllegalStateException("The scene is already published");
+      }
+      next.published = true;
+    }
+    // Statistics only cover scenes with graphics.
+    if (!next.isEmpty()) {
+      next.publishedAtNanos = SystemClock.elapsedRealtimeNanos();
+      publishedScenes.incrementAndGet();
+    }
+    Scene previous;
+    synchronized (publishLock) {
+      // Only publishers replace the current scene, so it is not retired while this reads it.
+      if (next != Scene.EMPTY) {
+        computeMotion(scene.get(), next, System.nanoTime());
+      }
+      next.computeBounds();
+      previous = scene.getAndSet(next);
+    }
+    if (!previous.isEmpty() && !previous.drawn) {
+      skippedScenes.incrementAndGet();
+    }
+    // The previous scene is only recycled once retired, so its bounds are still valid here.
+    invalidateChange(previous, next);
+    if (previous != Scene.EMPTY) {
+      synchronized (retiredScenes) {
+        if (retiredScenes.size() < MAX_RETIRED_SCENES) {
+          retiredScenes.add(previous);
+        }
+      }
     }
-    postInvalidate();
   }
 
-  /** Adds a graphic to the overlay. */
-  public void add(Graphic graphic) {
-    synchronized (lock) {
-      graphics.add(graphic);
+  /**
+   * Matches the tracked graphics of {@code next} with those of {@code previous} and sets up their
+   * motion from {@code nowNanos} on.
+   */
+  @GuardedBy("publishLock")
+  private void computeMotion(Scene previous, Scene next, long nowNanos) {
+    Motion mode = motion;
+    long gapNanos = nowNanos - previous.motionStartNanos;
+    // Anchors of an earlier mapping to view coordinates cannot be compared.
+    boolean animate =
+        mode != Motion.NONE
+            && !coordinatesChanged
+            && !previous.isEmpty()
+            && gapNanos > 0
+            && gapNanos <= MAX_MOTION_GAP_NANOS;
+    next.motion = mode;
+    next.moving = false;
+    next.motionStartNanos = nowNanos;
+    next.motionDurationNanos =
+        mode == Motion.INTERPOLATE
+            ? Math.min(gapNanos, MAX_INTERPOLATION_NANOS)
+            : MAX_EXTRAPOLATION_NANOS;
+    next.ensureMotionCapacity();
+    float previousFactor = previous.motionFactor(nowNanos);
+    for (int i = 0; i < next.size; i++) {
+      Graphic graphic = next.graphics[i];
+      long trackingKey = graphic.getTrackingKey();
+      next.trackingKeys[i] = trackingKey;
+      next.motions[2 * i] = 0;
+      next.motions[2 * i + 1] = 0;
+      if (trackingKey == Graphic.NO_TRACKING_KEY) {
+        continue;
+      }
+      graphic.getAnchor(next.anchor);
+      float x = next.anchor.x;
+      float y = next.anchor.y;
+      next.anchors[2 * i] = x;
+      next.anchors[2 * i + 1] = y;
+      int j = animate ? previous.indexOf(graphic.getClass(), trackingKey) : -1;
+      if (j < 0) {
+        continue;
+      }
+      float dx;
+      float dy;
+      if (mode == Motion.INTERPOLATE) {
+        // Starts where the previous graphic is drawn now, so a graphic never jumps.
+        dx = previous.anchors[2 * j] + previous.motions[2 * j] * previousFactor - x;
+        dy = previous.anchors[2 * j + 1] + previous.motions[2 * j + 1] * previousFactor - y;
+      } else {
+        dx = (x - previous.anchors[2 * j]) / gapNanos;
+        dy = (y - previous.anchors[2 * j + 1]) / gapNanos;
+      }
+      next.motions[2 * i] = dx;
+      next.motions[2 * i + 1] = dy;
+      next.moving |= dx != 0 || dy != 0;
     }
   }
 
-  /** Removes a graphic from the overlay. */
-  public void remove(Graphic graphic) {
-    synchronized (lock) {
-      graphics.remove(graphic);
+  /** Invalidates the area where {@code previous} and {@code next} may differ. */
+  private void invalidateChange(Scene previous, Scene next) {
+    firstPublishNanos.compareAndSet(0, SystemClock.elapsedRealtimeNanos());
+    if (previous.isEmpty() && next.isEmpty()) {
+      skippedInvalidations.incrementAndGet();
+      return;
     }
-    postInvalidate();
+    RectF dirty = next.dirty;
+    dirty.setEmpty();
+    boolean full =
+        coordinatesChanged || !unionBounds(dirty, previous) || !unionBounds(dirty, next);
+    // Scenes published from now on have bounds in the current coordinates.
+    coordinatesChanged = false;
+    invalidateArea(full ? null : dirty);
+  }
+
+  /**
+   * Invalidates {@code area}, which is changed, or the whole view if it is null or covers most of
+   * the view.
+   */
+  private void invalidateArea(@Nullable RectF area) {
+    long viewPixels = (long) getWidth() * getHeight();
+    boolean full = area == null;
+    if (!full) {
+      area.inset(-DIRTY_MARGIN, -DIRTY_MARGIN);
+      if (!area.intersect(0, 0, getWidth(), getHeight())) {
+        // Everything that changed lies outside the view.
+        skippedInvalidations.incrementAndGet();
+        return;
+      }
+      full = area.width() * area.height() > FULL_REDRAW_COVERAGE * viewPixels;
+    }
+    if (full) {
+      fullInvalidations.incrementAndGet();
+      invalidatedPixels.addAndGet(viewPixels);
+      postInvalidate();
+      return;
+    }
+    int left = (int) Math.floor(area.left);
+    int top = (int) Math.floor(area.top);
+    int right = (int) Math.ceil(area.right);
+    int bottom = (int) Math.ceil(area.bottom);
+    partialInvalidations.incrementAndGet();
+    invalidatedPixels.addAndGet((long) (right - left) * (bottom - top));
+    postInvalidate(left, top, right, bottom);
+  }
+
+  /** Adds the bounds of a scene to {@code dirty}, or returns false if they are unknown. */
+  private static boolean unionBounds(RectF dirty, Scene changed) {
+    if (changed.isEmpty()) {
+      return true;
+    }
+    if (changed.bounds == null) {
+      return false;
+    }
+    dirty.union(changed.bounds);
+    return true;
+  }
+
+  /** Removes all graphics from the overlay. */
+  public void clear() {
+    publish(Scene.EMPTY);
+  }
+
+  /**
+   * Sets a listener that runs on the UI thread the first time a non-empty set of graphics is drawn.
+   * Used to measure the time from launch to the first rendered detection result.
+   */
+  public void setOnFirstGraphicsDrawnListener(Runnable listener) {
+    firstGraphicsDrawnListener.set(listener);
   }
 
   /**
@@ -150,28 +673,176 @@ public class GraphicOverlay extends View {
    * coordinates later.
    */
   public void setCameraInfo(int previewWidth, int previewHeight, int facing) {
-    synchronized (lock) {
-      this.previewWidth = previewWidth;
-      this.previewHeight = previewHeight;
-      this.facing = facing;
-    }
+    this.previewWidth = previewWidth;
+    this.previewHeight = previewHeight;
+    this.facing = facing;
+    coordinatesChanged = true;
+    transformStale = true;
     postInvalidate();
   }
 
-  /** Draws the overlay with its associated graphic objects. */
+  /**
+   * Tells whether the camera preview is displayed beneath this overlay. Processors skip drawing the
+   * camera image while it is, since the viewport already shows the frame.
+   */
+  public void setCameraPreviewLive(boolean live) {
+    cameraPreviewLive = live;
+  }
+
+  /** Sets how tracked graphics move between results; takes effect with the next scene. */
+  public void setMotion(Motion motion) {
+    this.motion = motion;
+  }
+
+  /** Returns true while the camera preview is displayed beneath this overlay. */
+  public boolean isCameraPreviewLive() {
+    return cameraPreviewLive;
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    if (animationFramePosted) {
+      Choreographer.getInstance().removeFrameCallback(animationFrame);
+      animationFramePosted = false;
+    }
+  }
+
+  @Override
+  protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+    super.onSizeChanged(width, height, oldWidth, oldHeight);
+    coordinatesChanged = true;
+    transformStale = true;
+  }
+
+  /** Draws the overlay with the latest published scene. */
   @Override
   protected void onDraw(Canvas canvas) {
     super.onDraw(canvas);
+    long startNanos = SystemClock.elapsedRealtimeNanos();
+    // Scenes retired so far were replaced before this read of the current one, so none of them
+    // can be drawn any more.
+    recycleRetiredScenes();
 
-    synchronized (lock) {
-      if ((previewWidth != 0) && (previewHeight != 0)) {
-        widthScaleFactor = (float) getWidth() / previewWidth;
-        heightScaleFactor = (float) getHeight() / previewHeight;
+    int width = previewWidth;
+    int height = previewHeight;
+    if ((width != 0) && (height != 0)) {
+      float widthScale = (float) getWidth() / width;
+      float heightScale = (float) getHeight() / height;
+      if (widthScale != widthScaleFactor || heightScale != heightScaleFactor) {
+        widthScaleFactor = widthScale;
+        heightScaleFactor = heightScale;
+        coordinatesChanged = true;
+        transformStale = true;
       }
+    }
+    if (transformStale) {
+      transformStale = false;
+      updateTransform();
+    }
 
-      for (Graphic graphic : graphics) {
-        graphic.draw(canvas);
+    long frameNanos = choreographerFrameNanos != 0 ? choreographerFrameNanos : System.nanoTime();
+    choreographerFrameNanos = 0;
+    Scene current = scene.get();
+    float motionFactor = current.motionFactor(frameNanos);
+    for (int i = 0; i < current.size; i++) {
+      float dx = current.motions[2 * i] * motionFactor;
+      float dy = current.motions[2 * i + 1] * motionFactor;
+      if (dx == 0 && dy == 0) {
+        current.graphics[i].draw(canvas);
+      } else {
+        int saveCount = canvas.save();
+        canvas.translate(dx, dy);
+        current.graphics[i].draw(canvas);
+        canvas.restoreToCount(saveCount);
       }
     }
+    if (current.isMoving(frameNanos) && !animationFramePosted) {
+      Choreographer.getInstance().postFrameCallback(animationFrame);
+      animationFramePosted = true;
+    }
+    boolean firstDraw = !current.drawn && !current.isEmpty();
+    current.drawn = true;
+
+    if (!current.isEmpty()) {
+      Runnable firstDrawn = firstGraphicsDrawnListener.getAndSet(null);
+      if (firstDrawn != null) {
+        firstDrawn.run();
+      }
+    }
+    long endNanos = SystemClock.elapsedRealtimeNanos();
+    recordDraw(endNanos - startNanos, firstDraw ? endNanos - current.publishedAtNanos : -1);
+  }
+
+  /**
+   * Sets {@link #transform} to scale preview to view coordinates and mirror them for the front
+   * camera. Results are already rotated to the upright preview, which {@link #setCameraInfo}
+   * sizes accordingly, so no rotation is needed.
+   */
+  private void updateTransform() {
+    if (facing == CameraSource.CAMERA_FACING_FRONT) {
+      transform.setScale(-widthScaleFactor, heightScaleFactor);
+      transform.postTranslate(getWidth(), 0);
+    } else {
+      transform.setScale(widthScaleFactor, heightScaleFactor);
+    }
+  }
+
+  private void recycleRetiredScenes() {
+    while (true) {
+      Scene retired;
+      synchronized (retiredScenes) {
+        retired = retiredScenes.poll();
+      }
+      if (retired == null) {
+        return;
+      }
+      retired.recycle();
+      synchronized (freeScenes) {
+        if (freeScenes.size() < MAX_FREE_SCENES) {
+          freeScenes.add(retired);
+        }
+      }
+    }
+  }
+
+  private void recordDraw(long drawNanos, long publishToDrawNanos) {
+    draws++;
+    totalDrawNanos += drawNanos;
+    maxDrawNanos = Math.max(maxDrawNanos, drawNanos);
+    if (publishToDrawNanos >= 0) {
+      totalPublishToDrawNanos += publishToDrawNanos;
+    }
+    if (draws % STATS_LOG_INTERVAL == 0) {
+      Log.i(TAG, toString());
+    }
+  }
+
+  /** Draw, publication and invalidation statistics. Call on the UI thread. */
+  @Override
+  public String toString() {
+    long published = publishedScenes.get();
+    long skipped = skippedScenes.get();
+    long firstPublish = firstPublishNanos.get();
+    double seconds =
+        firstPublish == 0 ? 0 : (SystemClock.elapsedRealtimeNanos() - firstPublish) / 1e9;
+    double repaintedPerSecond = seconds == 0 ? 0 : invalidatedPixels.get() / seconds;
+    long viewPixels = (long) getWidth() * getHeight();
+    return String.format(
+        "draws=%d mean=%.2fms max=%.2fms scenes=%d skipped=%d publishToDraw=%.2fms"
+            + " invalidations full=%d partial=%d none=%d repaint=%.0fpx/s (%.2f views/s)"
+            + " animationFrames=%d",
+        draws,
+        draws == 0 ? 0 : totalDrawNanos / 1e6 / draws,
+        maxDrawNanos / 1e6,
+        published,
+        skipped,
+        published - skipped == 0 ? 0 : totalPublishToDrawNanos / 1e6 / (published - skipped),
+        fullInvalidations.get(),
+        partialInvalidations.get(),
+        skippedInvalidations.get(),
+        repaintedPerSecond,
+        viewPixels == 0 ? 0 : repaintedPerSecond / viewPixels,
+        animationFrames.get());
   }
 }
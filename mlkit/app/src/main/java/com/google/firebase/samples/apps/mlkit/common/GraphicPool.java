@@ -0,0 +1,91 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.common;
+
+import androidx.annotation.GuardedBy;
+import java.util.ArrayDeque;
+
+/**
+ * Recycles the graphics of one type across frames. A processor {@link #obtain obtains} a graphic,
+ * binds the new result to it and adds it to a {@link GraphicOverlay.Scene}; the overlay returns it
+ * here once the scene has been replaced and is no longer drawn.
+ *
+ * <p>The pool keeps at most {@code capacity} idle graphics, which should cover the graphics of a
+ * couple of typical frames; graphics returned beyond that are left to the garbage collector.
+ *
+ * @param <G> The type of the pooled graphics.
+ */
+public final class GraphicPool<G extends GraphicOverlay.Graphic> {
+
+  /** Creates a new graphic when the pool is empty. */
+  public interface Factory<G> {
+    G create(GraphicOverlay overlay);
+  }
+
+  private final int capacity;
+  private final Factory<G> factory;
+
+  @GuardedBy("this")
+  private final ArrayDeque<G> idle;
+
+  @GuardedBy("this")
+  private long obtained;
+
+  @GuardedBy("this")
+  private long created;
+
+  public GraphicPool(int capacity, Factory<G> factory) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+    }
+    this.capacity = capacity;
+    this.factory = factory;
+    idle = new ArrayDeque<>(capacity);
+  }
+
+  /** Returns an idle graphic of {@code overlay}, or a new one. Can be called from any thread. */
+  public G obtain(GraphicOverlay overlay) {
+    synchronized (this) {
+      obtained++;
+      G graphic;
+      while ((graphic = idle.poll()) != null) {
+        // Graphics of an overlay that was replaced, e.g. by a recreated activity, are dropped.
+        if (graphic.getOverlay() == overlay) {
+          return graphic;
+        }
+      }
+      created++;
+    }
+    G graphic = factory.create(overlay);
+    graphic.setPool(this);
+    return graphic;
+  }
+
+  @SuppressWarnings("unchecked")
+  synchronized void recycle(GraphicOverlay.Graphic graphic) {
+    if (idle.size() < capacity) {
+      idle.add((G) graphic);
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "obtained=%d created=%d reused=%.1f%% idle=%d",
+        obtained,
+        created,
+        obtained == 0 ? 0 : 100f * (obtained - created) / obtained,
+        idle.size());
+  }
+}
@@ -0,0 +1,63 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.common;
+
+/** Running latency statistics: sample count, mean, exponential moving average and maximum. */
+public class LatencyStats {
+
+  /** Weight of the newest sample in the moving average. */
+  private static final double SMOOTHING = 0.1;
+
+  private long count;
+  private long totalMs;
+  private long maxMs;
+  private double averageMs;
+
+  public synchronized void record(long latencyMs) {
+    averageMs = count == 0 ? latencyMs : averageMs + SMOOTHING * (latencyMs - averageMs);
+    count++;
+    totalMs += latencyMs;
+    maxMs = Math.max(maxMs, latencyMs);
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  public synchronized double getMeanMs() {
+    return count == 0 ? 0 : (double) totalMs / count;
+  }
+
+  /** Moving average that follows recent changes, e.g. thermal throttling. */
+  public synchronized double getRecentMs() {
+    return averageMs;
+  }
+
+  public synchronized long getMaxMs() {
+    return maxMs;
+  }
+
+  public synchronized void reset() {
+    count = 0;
+    totalMs = 0;
+    maxMs = 0;
+    averageMs = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "n=%d mean=%.1fms recent=%.1fms max=%dms", count, getMeanMs(), averageMs, maxMs);
+  }
+}
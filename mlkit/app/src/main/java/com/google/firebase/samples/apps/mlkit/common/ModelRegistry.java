@@ -0,0 +1,293 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.common;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import com.google.firebase.ml.common.FirebaseMLException;
+import com.google.firebase.ml.vision.FirebaseVision;
+import com.google.firebase.ml.vision.automl.FirebaseAutoMLLocalModel;
+import com.google.firebase.ml.vision.label.FirebaseVisionImageLabeler;
+import com.google.firebase.ml.vision.label.FirebaseVisionOnDeviceAutoMLImageLabelerOptions;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Loads models and label sets once per process and shares them between processors.
+ *
+ * <p>Each model is registered under a key, usually its asset path. The first {@link #acquire} of
+ * a key loads it; later ones get the same instance, and the model is closed when the last {@link
+ * Handle} is released. A key loaded again after being closed gets the next version number, so
+ * logs tell a reload apart from a shared instance. Load time and resident size are recorded per
+ * model and reported by {@link #toString()}.
+ *
+ * <p>TFLite assets are stored uncompressed in the APK ({@code noCompress "tflite"}), so ML Kit
+ * maps them straight from the APK instead of copying them to the heap; the resident size reported
+ * for them is the size of that mapping.
+ */
+public class ModelRegistry {
+  private static final String TAG = "ModelRegistry";
+
+  /** Loads and closes one kind of model. */
+  public interface Loader<T> {
+    T load(Context context) throws IOException, FirebaseMLException;
+
+    /** Bytes the model keeps in memory, or -1 if unknown. */
+    long residentBytes(Context context, T model);
+
+    void close(T model);
+  }
+
+  /** A counted reference to a shared model. */
+  public final class Handle<T> {
+    private final String key;
+    private final T model;
+    private final int version;
+    private boolean released;
+
+    private Handle(String key, T model, int version) {
+      this.key = key;
+      this.model = model;
+      this.version = version;
+    }
+
+    public T get() {
+      return model;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    /** Number of times the key had been loaded when this handle was acquired. */
+    public int getVersion() {
+      return version;
+    }
+
+    /** Drops this reference. Calling this more than once has no effect. */
+    public void release() {
+      synchronized (ModelRegistry.this) {
+        if (released) {
+          return;
+        }
+        released = true;
+        ModelRegistry.this.release(key);
+      }
+    }
+  }
+
+  private static final class Entry {
+    final Object model;
+    final Loader<Object> loader;
+    final int version;
+    final long loadMs;
+    final long residentBytes;
+    int references;
+
+    Entry(Object model, Loader<Object> loader, int version, long loadMs, long residentBytes) {
+      this.model = model;
+      this.loader = loader;
+      this.version = version;
+      this.loadMs = loadMs;
+      this.residentBytes = residentBytes;
+    }
+  }
+
+  @GuardedBy("ModelRegistry.class")
+  private static ModelRegistry instance;
+
+  private final Context context;
+
+  @GuardedBy("this")
+  private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+  /** Last version loaded per key, kept after the model is closed. */
+  @GuardedBy("this")
+  private final Map<String, Integer> versions = new LinkedHashMap<>();
+
+  private ModelRegistry(Context context) {
+    this.context = context;
+  }
+
+  public static synchronized ModelRegistry getInstance(Context context) {
+    if (instance == null) {
+      instance = new ModelRegistry(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * Returns a handle to the model registered under {@code key}, loading it with {@code loader} if
+   * no one holds it. A key must always be used with the same kind of loader. Loading happens on
+   * the calling thread, so loaders should only do quick work and leave downloads to run in the
+   * background.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized <T> Handle<T> acquire(String key, Loader<T> loader)
+      throws IOException, FirebaseMLException {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      long startMs = SystemClock.elapsedRealtime();
+      T model = loader.load(context);
+      long loadMs = SystemClock.elapsedRealtime() - startMs;
+      Integer previous = versions.get(key);
+      int version = previous == null ? 1 : previous + 1;
+      versions.put(key, version);
+      entry =
+          new Entry(
+              model,
+              (Loader<Object>) loader,
+              version,
+              loadMs,
+              loader.residentBytes(context, model));
+      entries.put(key, entry);
+      Log.i(TAG, "Loaded " + describe(key, entry));
+    }
+    entry.references++;
+    return new Handle<>(key, (T) entry.model, entry.version);
+  }
+
+  @GuardedBy("this")
+  private void release(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null || --entry.references > 0) {
+      return;
+    }
+    entries.remove(key);
+    entry.loader.close(entry.model);
+    Log.i(TAG, "Closed " + key + " v" + entry.version);
+  }
+
+  private static String describe(String key, Entry entry) {
+    return String.format(
+        "%s v%d: refs=%d load=%dms size=%s",
+        key,
+        entry.version,
+        entry.references,
+        entry.loadMs,
+        entry.residentBytes < 0 ? "unknown" : entry.residentBytes / 1024 + "KB");
+  }
+
+  @Override
+  public synchronized String toString() {
+    List<String> lines = new ArrayList<>(entries.size());
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      lines.add(describe(entry.getKey(), entry.getValue()));
+    }
+    return lines.isEmpty() ? "no models loaded" : TextUtils.join("; ", lines);
+  }
+
+  /** A loader for a label file in the assets, one label per line. */
+  public static Loader<List<String>> labelList(final String assetPath) {
+    return new Loader<List<String>>() {
+      @Override
+      public List<String> load(Context context) throws IOException {
+        List<String> labels = new ArrayList<>();
+        try (BufferedReader reader =
+            new BufferedReader(new InputStreamReader(context.getAssets().open(assetPath)))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            labels.add(line);
+          }
+        }
+        return Collections.unmodifiableList(labels);
+      }
+
+      @Override
+      public long residentBytes(Context context, List<String> labels) {
+        long chars = 0;
+        for (String label : labels) {
+          chars += label.length();
+        }
+        return 2 * chars;
+      }
+
+      @Override
+      public void close(List<String> labels) {}
+    };
+  }
+
+  /**
+   * A loader for an AutoML image labeler bundled in the assets, described by its {@code
+   * manifest.json}. The labeler reports every label, whatever its confidence.
+   */
+  public static Loader<FirebaseVisionImageLabeler> autoMLLabeler(final String manifestPath) {
+    return new Loader<FirebaseVisionImageLabeler>() {
+      @Override
+      public FirebaseVisionImageLabeler load(Context context) throws FirebaseMLException {
+        FirebaseAutoMLLocalModel localModel =
+            new FirebaseAutoMLLocalModel.Builder().setAssetFilePath(manifestPath).build();
+        return FirebaseVision.getInstance()
+            .getOnDeviceAutoMLImageLabeler(
+                new FirebaseVisionOnDeviceAutoMLImageLabelerOptions.Builder(localModel)
+                    .setConfidenceThreshold(0)
+                    .build());
+      }
+
+      @Override
+      public long residentBytes(Context context, FirebaseVisionImageLabeler labeler) {
+        try {
+          return assetLength(context, modelPath(context, manifestPath));
+        } catch (IOException | JSONException e) {
+          Log.w(TAG, "Could not measure " + manifestPath, e);
+          return -1;
+        }
+      }
+
+      @Override
+      public void close(FirebaseVisionImageLabeler labeler) {
+        try {
+          labeler.close();
+        } catch (IOException e) {
+          Log.e(TAG, "Exception thrown while trying to close the image labeler", e);
+        }
+      }
+    };
+  }
+
+  /** Returns the asset path of the model file named in an AutoML manifest. */
+  private static String modelPath(Context context, String manifestPath)
+      throws IOException, JSONException {
+    StringBuilder manifest = new StringBuilder();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(context.getAssets().open(manifestPath)))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        manifest.append(line);
+      }
+    }
+    String modelFile = new JSONObject(manifest.toString()).getString("modelFile");
+    int slash = manifestPath.lastIndexOf('/');
+    return slash < 0 ? modelFile : manifestPath.substring(0, slash + 1) + modelFile;
+  }
+
+  /** Length of an uncompressed asset, which is what mapping it keeps resident at most. */
+  private static long assetLength(Context context, String assetPath) throws IOException {
+    try (AssetFileDescriptor descriptor = context.getAssets().openFd(assetPath)) {
+      return descriptor.getLength();
+    }
+  }
+}
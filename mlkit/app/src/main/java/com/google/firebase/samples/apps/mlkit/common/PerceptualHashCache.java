@@ -0,0 +1,163 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.common;
+
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches results for camera frames that look alike.
+ *
+ * <p>Frames are keyed by a 64-bit difference hash (dHash) of their luma plane: the frame is reduced
+ * to a 9x8 grid of average brightness, and each bit records whether a cell is brighter than its
+ * right neighbour. A lookup returns the result of the closest cached frame within {@code
+ * maxDistance} differing bits. Entries expire after {@code maxAgeMs}, and the least recently used
+ * entry is evicted when the cache is full.
+ */
+public class PerceptualHashCache<V> {
+
+  private static final int GRID_WIDTH = 9;
+  private static final int GRID_HEIGHT = 8;
+  /** Luma pixels sampled per cell in each direction at most; enough for a stable average. */
+  private static final int SAMPLES_PER_CELL_SIDE = 8;
+
+  private static final class Entry<V> {
+    final V value;
+    final long costMs;
+    final long createdAtMs;
+
+    Entry(V value, long costMs, long createdAtMs) {
+      this.value = value;
+      this.costMs = costMs;
+      this.createdAtMs = createdAtMs;
+    }
+  }
+
+  private final int maxDistance;
+  private final long maxAgeMs;
+  private final LinkedHashMap<Long, Entry<V>> entries;
+
+  private long hits;
+  private long misses;
+  private long savedMs;
+
+  public PerceptualHashCache(final int capacity, int maxDistance, long maxAgeMs) {
+    this.maxDistance = maxDistance;
+    this.maxAgeMs = maxAgeMs;
+    entries =
+        new LinkedHashMap<Long, Entry<V>>(capacity, 0.75f, /* accessOrder= */ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Long, Entry<V>> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  /** Computes the dHash of the luma plane of an NV21 frame. */
+  public static long dHash(byte[] nv21, int width, int height) {
+    int cellWidth = width / GRID_WIDTH;
+    int cellHeight = height / GRID_HEIGHT;
+    int stepX = Math.max(1, cellWidth / SAMPLES_PER_CELL_SIDE);
+    int stepY = Math.max(1, cellHeight / SAMPLES_PER_CELL_SIDE);
+    long hash = 0;
+    for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+      int previous = cellAverage(nv21, width, 0, gy * cellHeight, cellWidth, cellHeight, stepX,
+          stepY);
+      for (int gx = 1; gx < GRID_WIDTH; gx++) {
+        int current = cellAverage(nv21, width, gx * cellWidth, gy * cellHeight, cellWidth,
+            cellHeight, stepX, stepY);
+        hash = (hash << 1) | (previous > current ? 1 : 0);
+        previous = current;
+      }
+    }
+    return hash;
+  }
+
+  private static int cellAverage(
+      byte[] nv21, int width, int left, int top, int cellWidth, int cellHeight, int stepX,
+      int stepY) {
+    int sum = 0;
+    int count = 0;
+    for (int y = top; y < top + cellHeight; y += stepY) {
+      int row = y * width;
+      for (int x = left; x < left + cellWidth; x += stepX) {
+        sum += nv21[row + x] & 0xff;
+        count++;
+      }
+    }
+    return count == 0 ? 0 : sum / count;
+  }
+
+  /** Returns the result of the closest cached frame, or null if none is close enough. */
+  @Nullable
+  public synchronized V get(long hash) {
+    long nowMs = SystemClock.elapsedRealtime();
+    Long bestKey = null;
+    int bestDistance = maxDistance + 1;
+    Iterator<Map.Entry<Long, Entry<V>>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Long, Entry<V>> entry = iterator.next();
+      if (nowMs - entry.getValue().createdAtMs > maxAgeMs) {
+        iterator.remove();
+        continue;
+      }
+      int distance = Long.bitCount(entry.getKey() ^ hash);
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        bestKey = entry.getKey();
+      }
+    }
+    if (bestKey == null) {
+      misses++;
+      return null;
+    }
+    // get() moves the entry to the most recently used end.
+    Entry<V> entry = entries.get(bestKey);
+    hits++;
+    savedMs += entry.costMs;
+    return entry.value;
+  }
+
+  /**
+   * Caches the result for a frame. {@code costMs} is what computing it took, and is counted as
+   * saved on every hit.
+   */
+  public synchronized void put(long hash, V value, long costMs) {
+    entries.put(hash, new Entry<>(value, costMs, SystemClock.elapsedRealtime()));
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized float getHitRate() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0 : (float) hits / lookups;
+  }
+
+  /** Total inference time avoided by hits. */
+  public synchronized long getSavedMs() {
+    return savedMs;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "size=%d hits=%d misses=%d hitRate=%.2f saved=%dms",
+        entries.size(), hits, misses, getHitRate(), savedMs);
+  }
+}
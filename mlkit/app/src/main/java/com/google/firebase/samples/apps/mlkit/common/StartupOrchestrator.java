@@ -0,0 +1,300 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.common;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the startup work of the live preview (camera open, detector model loading, speech channel)
+ * as a small dependency graph, so independent steps run in parallel on their own executors.
+ *
+ * <p>Every step is traced relative to the moment the orchestrator was created, which should be as
+ * early in {@code onCreate} as possible. Steps that finish asynchronously (e.g. a service binding)
+ * are added with {@link #addAsyncStep} and report their completion through {@link #complete}; a
+ * completion reported before its step is added is kept until the step has run.
+ * Plain milestones such as the first rendered detection result are recorded with {@link #mark}.
+ */
+public class StartupOrchestrator {
+  private static final String TAG = "MIDemoApp:Startup";
+
+  /** Number of threads used for steps that are not bound to a specific executor. */
+  private static final int BACKGROUND_THREADS = 2;
+
+  private final Object lock = new Object();
+  private final long launchTimeMs = SystemClock.elapsedRealtime();
+  private final ExecutorService backgroundExecutor =
+      Executors.newFixedThreadPool(BACKGROUND_THREADS);
+  private final Executor mainExecutor = executorFor(new Handler(Looper.getMainLooper()));
+
+  @GuardedBy("lock")
+  private final Map<String, Step> steps = new LinkedHashMap<>();
+
+  @GuardedBy("lock")
+  private final List<String> trace = new ArrayList<>();
+
+  @GuardedBy("lock")
+  private boolean started;
+
+  /** Completions reported before their step was added, e.g. a service bound in onStart. */
+  @GuardedBy("lock")
+  private final Set<String> earlyCompletions = new HashSet<>();
+
+  /** A unit of startup work and the steps it waits for. */
+  private static class Step {
+    final String name;
+    final Executor executor;
+    final Runnable work;
+    final String[] dependencies;
+    final boolean async;
+    boolean scheduled;
+    boolean done;
+    long startMs = -1;
+    long endMs = -1;
+
+    Step(String name, Executor executor, Runnable work, String[] dependencies, boolean async) {
+      this.name = name;
+      this.executor = executor;
+      this.work = work;
+      this.dependencies = dependencies;
+      this.async = async;
+    }
+  }
+
+  /** Returns an {@link Executor} that posts onto the given handler's thread. */
+  public static Executor executorFor(final Handler handler) {
+    return new Executor() {
+      @Override
+      public void execute(@NonNull Runnable command) {
+        handler.post(command);
+      }
+    };
+  }
+
+  /** Executor that runs steps on the main thread. */
+  public Executor getMainExecutor() {
+    return mainExecutor;
+  }
+
+  /** Executor shared by background steps that have no thread affinity. */
+  public Executor getBackgroundExecutor() {
+    return backgroundExecutor;
+  }
+
+  /**
+   * Adds a step that is complete as soon as {@code work} returns.
+   *
+   * @param dependencies names of steps that must complete before this one is scheduled
+   */
+  public void addStep(String name, Executor executor, Runnable work, String... dependencies) {
+    add(new Step(name, executor, work, dependencies, false));
+  }
+
+  /**
+   * Adds a step whose work only kicks off an asynchronous operation. The step stays pending until
+   * {@link #complete(String)} is called with its name.
+   */
+  public void addAsyncStep(String name, Executor executor, Runnable work, String... dependencies) {
+    add(new Step(name, executor, work, dependencies, true));
+  }
+
+  private void add(Step step) {
+    synchronized (lock) {
+      if (started) {
+        throw new IllegalStateException("Cannot add step after start: " + step.name);
+      }
+      if (steps.containsKey(step.name)) {
+        throw new IllegalArgumentException("Duplicate startup step: " + step.name);
+      }
+      steps.put(step.name, step);
+    }
+  }
+
+  /** Schedules every step whose dependencies are already satisfied. */
+  public void start() {
+    synchronized (lock) {
+      for (Step step : steps.values()) {
+        for (String dependency : step.dependencies) {
+          if (!steps.containsKey(dependency)) {
+            throw new IllegalStateException(
+                "Step " + step.name + " depends on unknown step " + dependency);
+          }
+        }
+      }
+      started = true;
+      record("start");
+    }
+    scheduleReadySteps();
+  }
+
+  /**
+   * Marks an asynchronous step as finished and schedules the steps waiting on it. If the step has
+   * not been added yet, it completes as soon as its work has run once it is.
+   */
+  public void complete(String name) {
+    synchronized (lock) {
+      Step step = steps.get(name);
+      if (step == null) {
+        if (earlyCompletions.add(name)) {
+          record(name + " completed before it was added");
+        }
+        return;
+      }
+      if (step.done) {
+        return;
+      }
+      finish(step);
+    }
+    scheduleReadySteps();
+  }
+
+  /** Records a milestone that is not a step, e.g. the first rendered detection result. */
+  public void mark(String milestone) {
+    synchronized (lock) {
+      record(milestone);
+    }
+    Log.i(TAG, milestone + " at +" + elapsed() + "ms");
+  }
+
+  /** Returns true once the named step has completed. */
+  public boolean isDone(String name) {
+    synchronized (lock) {
+      Step step = steps.get(name);
+      return step != null && step.done;
+    }
+  }
+
+  /** Returns a human readable trace of every step and milestone recorded so far. */
+  public String getTrace() {
+    synchronized (lock) {
+      StringBuilder builder = new StringBuilder();
+      for (String line : trace) {
+        builder.append(line).append('\n');
+      }
+      for (Step step : steps.values()) {
+        builder
+            .append(step.name)
+            .append(": start=+")
+            .append(step.startMs)
+            .append("ms end=+")
+            .append(step.endMs)
+            .append("ms\n");
+      }
+      return builder.toString();
+    }
+  }
+
+  /** Stops the background threads. Steps that have not been scheduled yet are dropped. */
+  public void shutdown() {
+    backgroundExecutor.shutdown();
+  }
+
+  private void scheduleReadySteps() {
+    List<Step> ready = new ArrayList<>();
+    synchronized (lock) {
+      if (!started) {
+        return;
+      }
+      for (Step step : steps.values()) {
+        if (!step.scheduled && dependenciesDone(step)) {
+          step.scheduled = true;
+          ready.add(step);
+        }
+      }
+    }
+    for (Step step : ready) {
+      run(step);
+    }
+  }
+
+  private void run(final Step step) {
+    try {
+      step.executor.execute(newStepRunnable(step));
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Startup step dropped after shutdown: " + step.name);
+    }
+  }
+
+  private Runnable newStepRunnable(final Step step) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        synchronized (lock) {
+          step.startMs = elapsed();
+        }
+        try {
+          step.work.run();
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Startup step failed: " + step.name, e);
+        }
+        if (!step.async || takeEarlyCompletion(step.name)) {
+          complete(step.name);
+        }
+      }
+    };
+  }
+
+  private boolean takeEarlyCompletion(String name) {
+    synchronized (lock) {
+      return earlyCompletions.remove(name);
+    }
+  }
+
+  @GuardedBy("lock")
+  private boolean dependenciesDone(Step step) {
+    for (String dependency : step.dependencies) {
+      if (!steps.get(dependency).done) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @GuardedBy("lock")
+  private void finish(Step step) {
+    step.done = true;
+    step.endMs = elapsed();
+    if (step.startMs < 0) {
+      step.startMs = step.endMs;
+    }
+    record(step.name);
+    Log.i(TAG, step.name + " took " + (step.endMs - step.startMs) + "ms, done at +"
+        + step.endMs + "ms");
+  }
+
+  @GuardedBy("lock")
+  private void record(String event) {
+    trace.add("+" + elapsed() + "ms " + event);
+  }
+
+  private long elapsed() {
+    return SystemClock.elapsedRealtime() - launchTimeMs;
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.common;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.text.MeasuredText;
+import android.os.Build;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the layout of overlay text drawn with one paint, so a string seen in earlier frames is
+ * not measured again. On API 29+ the shaped glyph runs are kept as well and drawn with {@link
+ * Canvas#drawTextRun}; older devices draw the string with {@link Canvas#drawText}.
+ *
+ * <p>The paint is the style part of the key and must not be changed once the cache is in use.
+ * The least recently used layout is evicted when the cache is full.
+ */
+public final class TextLayoutCache {
+
+  /** A measured string, immutable and safe to draw from any frame. */
+  public static final class TextLayout {
+    private final String text;
+    private final Paint paint;
+    private final float width;
+    private final float ascent;
+    private final float descent;
+    @Nullable private final MeasuredText measuredText;
+
+    private TextLayout(String text, Paint paint, float ascent, float descent) {
+      this.text = text;
+      this.paint = paint;
+      this.ascent = ascent;
+      this.descent = descent;
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && !hasRightToLeft(text)) {
+        measuredText = Api29Impl.measure(text, paint);
+        width = Api29Impl.getWidth(measuredText);
+      } else {
+        // drawTextRun() does no bidi reordering, so right-to-left text goes through drawText().
+        measuredText = null;
+        width = paint.measureText(text);
+      }
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    public float getWidth() {
+      return width;
+    }
+
+    /** Draws the text with its baseline starting at ({@code x}, {@code y}). */
+    public void draw(Canvas canvas, float x, float y) {
+      if (measuredText != null) {
+        Api29Impl.draw(canvas, measuredText, text.length(), x, y, paint);
+      } else {
+        canvas.drawText(text, x, y, paint);
+      }
+    }
+
+    /** Adds the area {@link #draw} paints at ({@code x}, {@code y}) to {@code bounds}. */
+    public void union(RectF bounds, float x, float y) {
+      bounds.union(x, y + ascent, x + width, y + descent);
+    }
+  }
+
+  @RequiresApi(Build.VERSION_CODES.Q)
+  private static final class Api29Impl {
+    static MeasuredText measure(String text, Paint paint) {
+      return new MeasuredText.Builder(text.toCharArray())
+          .appendStyleRun(paint, text.length(), /* isRtl= */ false)
+          .build();
+    }
+
+    static float getWidth(MeasuredText measuredText) {
+      return measuredText.getWidth(0, measuredText.getTextLength());
+    }
+
+    static void draw(Canvas canvas, MeasuredText measuredText, int length, float x, float y,
+        Paint paint) {
+      canvas.drawTextRun(measuredText, 0, length, 0, length, x, y, /* isRtl= */ false, paint);
+    }
+  }
+
+  private final Paint paint;
+  private final float ascent;
+  private final float descent;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, TextLayout> layouts;
+
+  @GuardedBy("this")
+  private long hits;
+
+  @GuardedBy("this")
+  private long misses;
+
+  @GuardedBy("this")
+  private long measureNanos;
+
+  public TextLayoutCache(Paint paint, final int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+    }
+    this.paint = paint;
+    ascent = paint.ascent();
+    descent = paint.descent();
+    layouts =
+        new LinkedHashMap<String, TextLayout>(capacity, 0.75f, /* accessOrder= */ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, TextLayout> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  /** Returns the layout of {@code text}, measuring it on a miss. Can be called from any thread. */
+  public synchronized TextLayout get(String text) {
+    TextLayout layout = layouts.get(text);
+    if (layout != null) {
+      hits++;
+      return layout;
+    }
+    misses++;
+    long startNanos = System.nanoTime();
+    layout = new TextLayout(text, paint, ascent, descent);
+    measureNanos += System.nanoTime() - startNanos;
+    layouts.put(text, layout);
+    return layout;
+  }
+
+  /** Number of layouts currently cached. */
+  public synchronized int size() {
+    return layouts.size();
+  }
+
+  /** Number of {@link #get} calls answered from the cache. */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /** Number of {@link #get} calls that measured the text. */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  private static boolean hasRightToLeft(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      byte directionality = Character.getDirectionality(text.charAt(i));
+      if (directionality == Character.DIRECTIONALITY_RIGHT_TO_LEFT
+          || directionality == Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized String toString() {
+    long lookups = hits + misses;
+    return String.format(
+        "size=%d hits=%d misses=%d hitRate=%.2f measure=%.1fms (%.1fus/miss)",
+        layouts.size(),
+        hits,
+        misses,
+        lookups == 0 ? 0 : (float) hits / lookups,
+        measureNanos / 1e6,
+        misses == 0 ? 0 : measureNanos / 1e3 / misses);
+  }
+}
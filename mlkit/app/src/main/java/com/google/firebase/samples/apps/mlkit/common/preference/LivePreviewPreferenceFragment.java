@@ -28,6 +28,9 @@ public class LivePreviewPreferenceFragment extends PreferenceFragment {
 
     addPreferencesFromResource(R.xml.preference_live_preview);
     setUpCameraPreferences();
+    setUpListPreference(R.string.pref_key_live_preview_face_cost_profile);
+    setUpListPreference(R.string.pref_key_live_preview_object_cost_profile);
+    setUpListPreference(R.string.pref_key_live_preview_text_cost_profile);
     setUpFaceDetectionPreferences();
     setUpListPreference(R.string.pref_key_live_preview_automl_remote_model_choices);
   }
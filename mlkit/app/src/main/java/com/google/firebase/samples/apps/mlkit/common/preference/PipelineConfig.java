@@ -0,0 +1,381 @@
+package com.google.firebase.samples.apps.mlkit.common.preference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
+
+import com.google.android.gms.common.images.Size;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetectorOptions;
+import com.google.firebase.ml.vision.objects.FirebaseVisionObjectDetectorOptions;
+import com.google.firebase.samples.apps.mlkit.R;
+import com.google.firebase.samples.apps.mlkit.common.CameraSource;
+import com.google.firebase.samples.apps.mlkit.common.CameraSource.SizePair;
+import com.google.firebase.samples.apps.mlkit.common.CostProfile;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of every setting the camera and the frame processors read. A snapshot is
+ * parsed once from {@link SharedPreferences} and then shared; see {@link PipelineConfigStore} for
+ * how new snapshots are published when a preference changes.
+ *
+ * <p>Detector options are built once per snapshot, so the per-frame path only dereferences fields.
+ * The face and object detectors get one set of options per {@link CostProfile}; the detailed face
+ * and object preferences only shape {@link CostProfile#FULL_ANALYSIS}.
+ */
+public final class PipelineConfig {
+
+  static final String DEFAULT_AUTOML_REMOTE_MODEL_NAME = "mlkit_flowers";
+
+  @Nullable private final SizePair rearCameraSizePair;
+  @Nullable private final SizePair frontCameraSizePair;
+  private final boolean cameraLiveViewportEnabled;
+
+  private final CostProfile faceCostProfile;
+  private final CostProfile objectCostProfile;
+  private final CostProfile textCostProfile;
+
+  // Live preview face detector settings.
+  private final int faceLandmarkMode;
+  private final int faceContourMode;
+  private final int faceClassificationMode;
+  private final int facePerformanceMode;
+  private final boolean faceTrackingEnabled;
+  private final float minFaceSize;
+  private final Map<CostProfile, FirebaseVisionFaceDetectorOptions> faceDetectorOptions =
+      new EnumMap<>(CostProfile.class);
+
+  // Object detector settings.
+  private final boolean liveObjectMultipleObjects;
+  private final boolean liveObjectClassification;
+  private final Map<CostProfile, FirebaseVisionObjectDetectorOptions> liveObjectDetectorOptions =
+      new EnumMap<>(CostProfile.class);
+  private final FirebaseVisionObjectDetectorOptions stillObjectDetectorOptions;
+
+  private final String autoMLRemoteModelName;
+
+  private PipelineConfig(Context context, SharedPreferences sharedPreferences) {
+    rearCameraSizePair =
+        readSizePair(
+            context,
+            sharedPreferences,
+            R.string.pref_key_rear_camera_preview_size,
+            R.string.pref_key_rear_camera_picture_size);
+    frontCameraSizePair =
+        readSizePair(
+            context,
+            sharedPreferences,
+            R.string.pref_key_front_camera_preview_size,
+            R.string.pref_key_front_camera_picture_size);
+    cameraLiveViewportEnabled =
+        sharedPreferences.getBoolean(context.getString(R.string.pref_key_camera_live_viewport), false);
+
+    faceCostProfile =
+        readCostProfile(
+            context,
+            sharedPreferences,
+            R.string.pref_key_live_preview_face_cost_profile,
+            CostProfile.TRACKING);
+    objectCostProfile =
+        readCostProfile(
+            context,
+            sharedPreferences,
+            R.string.pref_key_live_preview_object_cost_profile,
+            CostProfile.TRACKING);
+    textCostProfile =
+        readCostProfile(
+            context,
+            sharedPreferences,
+            R.string.pref_key_live_preview_text_cost_profile,
+            CostProfile.BOXES_ONLY);
+
+    faceLandmarkMode =
+        readModeType(
+            context,
+            sharedPreferences,
+            R.string.pref_key_live_preview_face_detection_landmark_mode,
+            FirebaseVisionFaceDetectorOptions.NO_LANDMARKS);
+    faceContourMode =
+        readModeType(
+            context,
+            sharedPreferences,
+            R.string.pref_key_live_preview_face_detection_contour_mode,
+            FirebaseVisionFaceDetectorOptions.NO_CONTOURS);
+    faceClassificationMode =
+        readModeType(
+            context,
+            sharedPreferences,
+            R.string.pref_key_live_preview_face_detection_classification_mode,
+            FirebaseVisionFaceDetectorOptions.NO_CLASSIFICATIONS);
+    facePerformanceMode =
+        readModeType(
+            context,
+            sharedPreferences,
+            R.string.pref_key_live_preview_face_detection_performance_mode,
+            FirebaseVisionFaceDetectorOptions.FAST);
+    // Identities are keyed by tracking id, so tracking is on unless the user turns it off.
+    faceTrackingEnabled =
+        sharedPreferences.getBoolean(
+            context.getString(R.string.pref_key_live_preview_face_detection_face_tracking), true);
+    minFaceSize =
+        readFloat(
+            context,
+            sharedPreferences,
+            R.string.pref_key_live_preview_face_detection_min_face_size,
+            0.1f);
+    // The cheaper profiles turn off everything the overlay does not draw.
+    faceDetectorOptions.put(
+        CostProfile.BOXES_ONLY,
+        buildFaceDetectorOptions(
+            FirebaseVisionFaceDetectorOptions.NO_LANDMARKS,
+            FirebaseVisionFaceDetectorOptions.NO_CONTOURS,
+            FirebaseVisionFaceDetectorOptions.NO_CLASSIFICATIONS,
+            false));
+    faceDetectorOptions.put(
+        CostProfile.TRACKING,
+        buildFaceDetectorOptions(
+            FirebaseVisionFaceDetectorOptions.NO_LANDMARKS,
+            FirebaseVisionFaceDetectorOptions.NO_CONTOURS,
+            FirebaseVisionFaceDetectorOptions.NO_CLASSIFICATIONS,
+            true));
+    faceDetectorOptions.put(
+        CostProfile.FULL_ANALYSIS,
+        buildFaceDetectorOptions(
+            faceLandmarkMode, faceContourMode, faceClassificationMode, faceTrackingEnabled));
+
+    liveObjectMultipleObjects =
+        sharedPreferences.getBoolean(
+            context.getString(
+                R.string.pref_key_live_preview_object_detector_enable_multiple_objects),
+            false);
+    liveObjectClassification =
+        sharedPreferences.getBoolean(
+            context.getString(R.string.pref_key_live_preview_object_detector_enable_classification),
+            true);
+    // Stream mode always assigns tracking ids, so the profiles only differ in what else they do.
+    liveObjectDetectorOptions.put(
+        CostProfile.BOXES_ONLY,
+        buildObjectDetectorOptions(FirebaseVisionObjectDetectorOptions.STREAM_MODE, false, false));
+    liveObjectDetectorOptions.put(
+        CostProfile.TRACKING,
+        buildObjectDetectorOptions(
+            FirebaseVisionObjectDetectorOptions.STREAM_MODE, liveObjectMultipleObjects, false));
+    liveObjectDetectorOptions.put(
+        CostProfile.FULL_ANALYSIS,
+        buildObjectDetectorOptions(
+            FirebaseVisionObjectDetectorOptions.STREAM_MODE,
+            liveObjectMultipleObjects,
+            liveObjectClassification));
+    stillObjectDetectorOptions =
+        buildObjectDetectorOptions(
+            FirebaseVisionObjectDetectorOptions.SINGLE_IMAGE_MODE,
+            sharedPreferences.getBoolean(
+                context.getString(
+                    R.string.pref_key_still_image_object_detector_enable_multiple_objects),
+                false),
+            sharedPreferences.getBoolean(
+                context.getString(
+                    R.string.pref_key_still_image_object_detector_enable_classification),
+                true));
+
+    String remoteModelName =
+        sharedPreferences.getString(
+            context.getString(R.string.pref_key_live_preview_automl_remote_model_name),
+            DEFAULT_AUTOML_REMOTE_MODEL_NAME);
+    autoMLRemoteModelName =
+        remoteModelName == null || remoteModelName.isEmpty()
+            ? DEFAULT_AUTOML_REMOTE_MODEL_NAME
+            : remoteModelName;
+  }
+
+  /** Parses a new snapshot. This is the only place that reads the preferences. */
+  static PipelineConfig fromPreferences(Context context, SharedPreferences sharedPreferences) {
+    return new PipelineConfig(context, sharedPreferences);
+  }
+
+  @Nullable
+  public SizePair getCameraPreviewSizePair(int cameraId) {
+    return cameraId == CameraSource.CAMERA_FACING_BACK ? rearCameraSizePair : frontCameraSizePair;
+  }
+
+  public boolean isCameraLiveViewportEnabled() {
+    return cameraLiveViewportEnabled;
+  }
+
+  public CostProfile getFaceCostProfile() {
+    return faceCostProfile;
+  }
+
+  public CostProfile getObjectCostProfile() {
+    return objectCostProfile;
+  }
+
+  public CostProfile getTextCostProfile() {
+    return textCostProfile;
+  }
+
+  public FirebaseVisionFaceDetectorOptions getFaceDetectorOptions(CostProfile profile) {
+    return faceDetectorOptions.get(profile);
+  }
+
+  /** Returns the live preview face detector options for the selected face profile. */
+  public FirebaseVisionFaceDetectorOptions getFaceDetectorOptionsForLivePreview() {
+    return faceDetectorOptions.get(faceCostProfile);
+  }
+
+  public FirebaseVisionObjectDetectorOptions getObjectDetectorOptions(CostProfile profile) {
+    return liveObjectDetectorOptions.get(profile);
+  }
+
+  /** Returns the live preview object detector options for the selected object profile. */
+  public FirebaseVisionObjectDetectorOptions getObjectDetectorOptionsForLivePreview() {
+    return liveObjectDetectorOptions.get(objectCostProfile);
+  }
+
+  public FirebaseVisionObjectDetectorOptions getObjectDetectorOptionsForStillImage() {
+    return stillObjectDetectorOptions;
+  }
+
+  public String getAutoMLRemoteModelName() {
+    return autoMLRemoteModelName;
+  }
+
+  /** Returns true if the camera would be configured identically under {@code other}. */
+  public boolean hasSameCameraSettings(PipelineConfig other) {
+    return cameraLiveViewportEnabled == other.cameraLiveViewportEnabled
+        && sameSizePair(rearCameraSizePair, other.rearCameraSizePair)
+        && sameSizePair(frontCameraSizePair, other.frontCameraSizePair);
+  }
+
+  /**
+   * Returns true if every selected cost profile is unchanged. A profile change alone does not need
+   * a new processor; see {@code VisionProcessorBase#setCostProfile}.
+   */
+  public boolean hasSameCostProfiles(PipelineConfig other) {
+    return faceCostProfile == other.faceCostProfile
+        && objectCostProfile == other.objectCostProfile
+        && textCostProfile == other.textCostProfile;
+  }
+
+  /**
+   * Returns true if the live preview face detector would be built identically for every profile.
+   */
+  public boolean hasSameFaceSettings(PipelineConfig other) {
+    return faceLandmarkMode == other.faceLandmarkMode
+        && faceContourMode == other.faceContourMode
+        && faceClassificationMode == other.faceClassificationMode
+        && facePerformanceMode == other.facePerformanceMode
+        && faceTrackingEnabled == other.faceTrackingEnabled
+        && minFaceSize == other.minFaceSize;
+  }
+
+  /**
+   * Returns true if the live preview object detector would be built identically for every profile.
+   */
+  public boolean hasSameObjectSettings(PipelineConfig other) {
+    return liveObjectMultipleObjects == other.liveObjectMultipleObjects
+        && liveObjectClassification == other.liveObjectClassification;
+  }
+
+  public boolean hasSameAutoMLSettings(PipelineConfig other) {
+    return autoMLRemoteModelName.equals(other.autoMLRemoteModelName);
+  }
+
+  private FirebaseVisionFaceDetectorOptions buildFaceDetectorOptions(
+      int landmarkMode, int contourMode, int classificationMode, boolean enableTracking) {
+    FirebaseVisionFaceDetectorOptions.Builder builder =
+        new FirebaseVisionFaceDetectorOptions.Builder()
+            .setLandmarkMode(landmarkMode)
+            .setContourMode(contourMode)
+            .setClassificationMode(classificationMode)
+            .setPerformanceMode(facePerformanceMode)
+            .setMinFaceSize(minFaceSize);
+    if (enableTracking) {
+      builder.enableTracking();
+    }
+    return builder.build();
+  }
+
+  private static FirebaseVisionObjectDetectorOptions buildObjectDetectorOptions(
+      int detectorMode, boolean enableMultipleObjects, boolean enableClassification) {
+    FirebaseVisionObjectDetectorOptions.Builder builder =
+        new FirebaseVisionObjectDetectorOptions.Builder().setDetectorMode(detectorMode);
+    if (enableMultipleObjects) {
+      builder.enableMultipleObjects();
+    }
+    if (enableClassification) {
+      builder.enableClassification();
+    }
+    return builder.build();
+  }
+
+  @Nullable
+  private static SizePair readSizePair(
+      Context context,
+      SharedPreferences sharedPreferences,
+      @StringRes int previewSizePrefKeyId,
+      @StringRes int pictureSizePrefKeyId) {
+    try {
+      return new SizePair(
+          Size.parseSize(sharedPreferences.getString(context.getString(previewSizePrefKeyId), null)),
+          Size.parseSize(
+              sharedPreferences.getString(context.getString(pictureSizePrefKeyId), null)));
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Mode type preference is backed by {@link android.preference.ListPreference} which only support
+   * storing its entry value as string type, so we need to retrieve as string and then convert to
+   * integer.
+   */
+  private static int readModeType(
+      Context context,
+      SharedPreferences sharedPreferences,
+      @StringRes int prefKeyResId,
+      int defaultValue) {
+    String value =
+        sharedPreferences.getString(context.getString(prefKeyResId), String.valueOf(defaultValue));
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  private static CostProfile readCostProfile(
+      Context context,
+      SharedPreferences sharedPreferences,
+      @StringRes int prefKeyResId,
+      CostProfile defaultValue) {
+    return CostProfile.fromKey(
+        sharedPreferences.getString(context.getString(prefKeyResId), defaultValue.getKey()),
+        defaultValue);
+  }
+
+  private static float readFloat(
+      Context context,
+      SharedPreferences sharedPreferences,
+      @StringRes int prefKeyResId,
+      float defaultValue) {
+    String value =
+        sharedPreferences.getString(context.getString(prefKeyResId), String.valueOf(defaultValue));
+    try {
+      return Float.parseFloat(value);
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  private static boolean sameSizePair(@Nullable SizePair a, @Nullable SizePair b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    return a.preview.equals(b.preview)
+        && (a.picture == null ? b.picture == null : a.picture.equals(b.picture));
+  }
+}
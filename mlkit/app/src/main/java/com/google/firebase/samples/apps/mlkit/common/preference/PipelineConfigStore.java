@@ -0,0 +1,81 @@
+package com.google.firebase.samples.apps.mlkit.common.preference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.preference.PreferenceManager;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link PipelineConfig} for the app. The snapshot is built once and replaced
+ * atomically whenever a shared preference changes, after which every {@link Listener} is told
+ * which snapshot was replaced by which, so it can rebuild only what actually changed.
+ */
+public final class PipelineConfigStore {
+
+  /** Notified after a new snapshot has been published. */
+  public interface Listener {
+    void onPipelineConfigChanged(PipelineConfig previous, PipelineConfig current);
+  }
+
+  private static volatile PipelineConfigStore instance;
+
+  private final Context context;
+  private final SharedPreferences sharedPreferences;
+  private final AtomicReference<PipelineConfig> config = new AtomicReference<>();
+  private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  // SharedPreferences only keeps a weak reference to its listeners, so hold on to it here.
+  private final OnSharedPreferenceChangeListener preferenceChangeListener =
+      new OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+          publish(PipelineConfig.fromPreferences(context, sharedPreferences));
+        }
+      };
+
+  private PipelineConfigStore(Context context) {
+    this.context = context;
+    sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    config.set(PipelineConfig.fromPreferences(context, sharedPreferences));
+    sharedPreferences.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
+  }
+
+  public static PipelineConfigStore getInstance(Context context) {
+    if (instance == null) {
+      synchronized (PipelineConfigStore.class) {
+        if (instance == null) {
+          instance = new PipelineConfigStore(context.getApplicationContext());
+        }
+      }
+    }
+    return instance;
+  }
+
+  /** Shortcut for {@code getInstance(context).getConfig()}. */
+  public static PipelineConfig get(Context context) {
+    return getInstance(context).getConfig();
+  }
+
+  /** Returns the latest published snapshot. Never touches the preferences. */
+  public PipelineConfig getConfig() {
+    return config.get();
+  }
+
+  public void addListener(Listener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  private void publish(PipelineConfig current) {
+    PipelineConfig previous = config.getAndSet(current);
+    for (Listener listener : listeners) {
+      listener.onPipelineConfigChanged(previous, current);
+    }
+  }
+}
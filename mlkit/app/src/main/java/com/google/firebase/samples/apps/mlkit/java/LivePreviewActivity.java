@@ -46,21 +46,29 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.app.ActivityCompat.OnRequestPermissionsResultCallback;
 import androidx.core.content.ContextCompat;
 import androidx.core.content.res.ResourcesCompat;
+import androidx.lifecycle.Lifecycle;
 
 import com.google.android.gms.common.annotation.KeepName;
-import com.google.firebase.ml.vision.objects.FirebaseVisionObjectDetectorOptions;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.samples.apps.mlkit.R;
 import com.google.firebase.samples.apps.mlkit.common.CameraSource;
 import com.google.firebase.samples.apps.mlkit.common.CameraSourcePreview;
+import com.google.firebase.samples.apps.mlkit.common.CostProfile;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.StartupOrchestrator;
+import com.google.firebase.samples.apps.mlkit.common.VisionImageProcessor;
 import com.google.firebase.samples.apps.mlkit.java.automl.AutoMLImageLabelerProcessor;
 import com.google.firebase.samples.apps.mlkit.java.automl.AutoMLImageLabelerProcessor.Mode;
 import com.google.firebase.samples.apps.mlkit.java.barcodescanning.BarcodeScanningProcessor;
+import com.google.firebase.samples.apps.mlkit.java.custommodel.AutoVariantClassifierProcessor;
 import com.google.firebase.samples.apps.mlkit.java.custommodel.CustomImageClassifierProcessor;
 import com.google.firebase.samples.apps.mlkit.java.facedetection.FaceContourDetectorProcessor;
 import com.google.firebase.samples.apps.mlkit.java.facedetection.FaceDetectionProcessor;
 import com.google.firebase.samples.apps.mlkit.java.imagelabeling.ImageLabelingProcessor;
 import com.google.firebase.samples.apps.mlkit.java.objectdetection.ObjectDetectorProcessor;
+import com.google.firebase.samples.apps.mlkit.common.preference.PipelineConfig;
+import com.google.firebase.samples.apps.mlkit.common.preference.PipelineConfigStore;
 import com.google.firebase.samples.apps.mlkit.common.preference.SettingsActivity;
 import com.google.firebase.samples.apps.mlkit.common.preference.SettingsActivity.LaunchSource;
 import com.google.firebase.samples.apps.mlkit.java.textrecognition.TextRecognitionProcessor;
@@ -68,6 +76,8 @@ import com.google.firebase.samples.apps.mlkit.java.textrecognition.TextRecogniti
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Demo app showing the various features of ML Kit for Firebase. This class is used to
@@ -77,7 +87,8 @@ import java.util.List;
 public final class LivePreviewActivity extends AppCompatActivity
         implements OnRequestPermissionsResultCallback,
         OnItemSelectedListener,
-        CompoundButton.OnCheckedChangeListener {
+        CompoundButton.OnCheckedChangeListener,
+        PipelineConfigStore.Listener {
     private static final String FACE_DETECTION = "Face Detection";
     private static final String OBJECT_DETECTION = "Object Detection";
     private static final String AUTOML_IMAGE_LABELING = "AutoML Vision Edge";
@@ -86,19 +97,35 @@ public final class LivePreviewActivity extends AppCompatActivity
     private static final String IMAGE_LABEL_DETECTION = "Label Detection";
     private static final String CLASSIFICATION_QUANT = "Classification (quantized)";
     private static final String CLASSIFICATION_FLOAT = "Classification (float)";
+    private static final String CLASSIFICATION_AUTO = "Classification (auto)";
     private static final String FACE_CONTOUR = "Face Contour";
     private static final String TAG = "LivePreviewActivity";
     private static final int PERMISSION_REQUESTS = 1;
+    /** Spoken phrase that enrolls the face in view, e.g. "this is Kajal". */
+    private static final Pattern ENROLL_PHRASE =
+            Pattern.compile("this is (.+?)[.!]?", Pattern.CASE_INSENSITIVE);
+
+    // Startup steps, see runStartup().
+    private static final String STEP_CAMERA_OPEN = "camera.open";
+    private static final String STEP_MODELS_LOAD = "models.load";
+    private static final String STEP_SPEECH_BIND = "speech.bind";
+    private static final String STEP_VOICE_START = "voice.start";
+    private static final String MILESTONE_FIRST_RESULT = "first.result";
 
     private CameraSource cameraSource = null;
     private CameraSourcePreview preview;
     private GraphicOverlay graphicOverlay;
     private String selectedModel = FACE_DETECTION;
+    // Processor currently fed by cameraSource, kept to switch its cost profile in place.
+    private volatile VisionImageProcessor currentProcessor;
+    private StartupOrchestrator startup;
+    private boolean startupScheduled;
+    private boolean speechServiceBound;
 
     @Override
     protected void onStart() {
         // Prepare Cloud Speech API
-        getApplicationContext().bindService(new Intent(this, SpeechService.class), mServiceConnection, BIND_AUTO_CREATE);
+        bindSpeechService();
         super.onStart();
 
     }
@@ -106,9 +133,10 @@ public final class LivePreviewActivity extends AppCompatActivity
         @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        startup = new StartupOrchestrator();
         Log.d(TAG, "onCreate");
         setContentView(R.layout.activity_live_preview);
-        getApplicationContext().bindService(new Intent(this, SpeechService.class), mServiceConnection, BIND_AUTO_CREATE);
+        PipelineConfigStore.getInstance(this).addListener(this);
 
         final Resources resources = getResources();
         final Resources.Theme theme = getTheme();
@@ -139,6 +167,7 @@ public final class LivePreviewActivity extends AppCompatActivity
         options.add(IMAGE_LABEL_DETECTION);
         options.add(CLASSIFICATION_QUANT);
         options.add(CLASSIFICATION_FLOAT);
+        options.add(CLASSIFICATION_AUTO);
         // Creating adapter for spinner
 //        ArrayAdapter<String> dataAdapter = new ArrayAdapter<>(this, R.layout.spinner_style,
 //                options);
@@ -156,13 +185,79 @@ public final class LivePreviewActivity extends AppCompatActivity
 //        }
 
         if (allPermissionsGranted()) {
-            createCameraSource(selectedModel);
-            startVoiceRecorder();
+            runStartup();
         } else {
             getRuntimePermissions();
         }
     }
 
+    /**
+     * Starts the camera, the detector models and the speech channel in parallel. The camera is
+     * opened and configured on its own thread, the models are loaded on a background thread and
+     * the speech service is bound from the main thread; only the voice recorder waits for the
+     * speech service. The startup trace is logged once the first detection result is drawn.
+     */
+    private void runStartup() {
+        if (startupScheduled) {
+            return;
+        }
+        startupScheduled = true;
+        if (cameraSource == null) {
+            cameraSource = new CameraSource(this, graphicOverlay);
+        }
+        final CameraSource source = cameraSource;
+        graphicOverlay.setOnFirstGraphicsDrawnListener(new Runnable() {
+            @Override
+            public void run() {
+                startup.mark(MILESTONE_FIRST_RESULT);
+                Log.i(TAG, "Startup trace:\n" + startup.getTrace());
+            }
+        });
+
+        startup.addStep(
+                STEP_CAMERA_OPEN,
+                StartupOrchestrator.executorFor(source.getCameraHandler()),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            source.open();
+                        } catch (IOException e) {
+                            Log.e(TAG, "Unable to open camera source.", e);
+                        }
+                    }
+                });
+        startup.addStep(
+                STEP_MODELS_LOAD,
+                startup.getBackgroundExecutor(),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        createCameraSource(selectedModel);
+                    }
+                });
+        startup.addAsyncStep(
+                STEP_SPEECH_BIND,
+                startup.getMainExecutor(),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        bindSpeechService();
+                    }
+                });
+        startup.addStep(
+                STEP_VOICE_START,
+                startup.getMainExecutor(),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        startVoiceRecorder();
+                    }
+                },
+                STEP_SPEECH_BIND);
+        startup.start();
+    }
+
     @Override
     public synchronized void onItemSelected(AdapterView<?> parent, View view, int pos, long id) {
         // An item was selected. You can retrieve the selected item using
@@ -216,6 +311,10 @@ public final class LivePreviewActivity extends AppCompatActivity
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Creates the processor for {@code model} and installs it on the camera source. May be called
+     * from the startup background thread, so the camera source itself must already exist.
+     */
     private void createCameraSource(String model) {
         // If there's no existing cameraSource, create one.
         if (cameraSource == null) {
@@ -223,57 +322,61 @@ public final class LivePreviewActivity extends AppCompatActivity
         }
 
         try {
-            switch (model) {
-                case CLASSIFICATION_QUANT:
-                    Log.i(TAG, "Using Custom Image Classifier (quant) Processor");
-                    cameraSource.setMachineLearningFrameProcessor(new CustomImageClassifierProcessor(this, true));
-                    break;
-                case CLASSIFICATION_FLOAT:
-                    Log.i(TAG, "Using Custom Image Classifier (float) Processor");
-                    cameraSource.setMachineLearningFrameProcessor(new CustomImageClassifierProcessor(this, false));
-                    break;
-                case TEXT_DETECTION:
-                    Log.i(TAG, "Using Text Detector Processor");
-                    cameraSource.setMachineLearningFrameProcessor(new TextRecognitionProcessor());
-                    break;
-                case FACE_DETECTION:
-                    Log.i(TAG, "Using Face Detector Processor");
-                    cameraSource.setMachineLearningFrameProcessor(new FaceDetectionProcessor(getResources()));
-                    break;
-                case AUTOML_IMAGE_LABELING:
-                    cameraSource.setMachineLearningFrameProcessor(new AutoMLImageLabelerProcessor(this, Mode.LIVE_PREVIEW));
-                    break;
-                case OBJECT_DETECTION:
-                    Log.i(TAG, "Using Object Detector Processor");
-                    FirebaseVisionObjectDetectorOptions objectDetectorOptions =
-                            new FirebaseVisionObjectDetectorOptions.Builder()
-                                    .setDetectorMode(FirebaseVisionObjectDetectorOptions.STREAM_MODE)
-                                    .enableClassification().build();
-                    cameraSource.setMachineLearningFrameProcessor(
-                            new ObjectDetectorProcessor(objectDetectorOptions));
-                    break;
-                case BARCODE_DETECTION:
-                    Log.i(TAG, "Using Barcode Detector Processor");
-                    cameraSource.setMachineLearningFrameProcessor(new BarcodeScanningProcessor());
-                    break;
-                case IMAGE_LABEL_DETECTION:
-                    Log.i(TAG, "Using Image Label Detector Processor");
-                    cameraSource.setMachineLearningFrameProcessor(new ImageLabelingProcessor());
-                    break;
-                case FACE_CONTOUR:
-                    Log.i(TAG, "Using Face Contour Detector Processor");
-                    cameraSource.setMachineLearningFrameProcessor(new FaceContourDetectorProcessor());
-                    break;
-                default:
-                    Log.e(TAG, "Unknown model: " + model);
+            VisionImageProcessor processor = createProcessor(model);
+            if (processor != null) {
+                cameraSource.setMachineLearningFrameProcessor(processor);
+                currentProcessor = processor;
             }
-        } catch (Exception e) {
+        } catch (final Exception e) {
             Log.e(TAG, "Can not create image processor: " + model, e);
-            Toast.makeText(
-                    getApplicationContext(),
-                    "Can not create image processor: " + e.getMessage(),
-                    Toast.LENGTH_LONG)
-                    .show();
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(
+                            getApplicationContext(),
+                            "Can not create image processor: " + e.getMessage(),
+                            Toast.LENGTH_LONG)
+                            .show();
+                }
+            });
+        }
+    }
+
+    private VisionImageProcessor createProcessor(String model) throws Exception {
+        PipelineConfig config = PipelineConfigStore.get(this);
+        switch (model) {
+            case CLASSIFICATION_QUANT:
+                Log.i(TAG, "Using Custom Image Classifier (quant) Processor");
+                return new CustomImageClassifierProcessor(this, true);
+            case CLASSIFICATION_FLOAT:
+                Log.i(TAG, "Using Custom Image Classifier (float) Processor");
+                return new CustomImageClassifierProcessor(this, false);
+            case CLASSIFICATION_AUTO:
+                Log.i(TAG, "Using Custom Image Classifier (auto) Processor");
+                return new AutoVariantClassifierProcessor(this);
+            case TEXT_DETECTION:
+                Log.i(TAG, "Using Text Detector Processor");
+                return new TextRecognitionProcessor(config.getTextCostProfile());
+            case FACE_DETECTION:
+                Log.i(TAG, "Using Face Detector Processor");
+                return new FaceDetectionProcessor(this, config);
+            case AUTOML_IMAGE_LABELING:
+                return new AutoMLImageLabelerProcessor(this, Mode.LIVE_PREVIEW);
+            case OBJECT_DETECTION:
+                Log.i(TAG, "Using Object Detector Processor");
+                return new ObjectDetectorProcessor(config);
+            case BARCODE_DETECTION:
+                Log.i(TAG, "Using Barcode Detector Processor");
+                return new BarcodeScanningProcessor();
+            case IMAGE_LABEL_DETECTION:
+                Log.i(TAG, "Using Image Label Detector Processor");
+                return new ImageLabelingProcessor();
+            case FACE_CONTOUR:
+                Log.i(TAG, "Using Face Contour Detector Processor");
+                return new FaceContourDetectorProcessor();
+            default:
+                Log.e(TAG, "Unknown model: " + model);
+                return null;
         }
     }
 
@@ -314,11 +417,80 @@ public final class LivePreviewActivity extends AppCompatActivity
     protected void onPause() {
         super.onPause();
         preview.stop();
+        Log.i(TAG, "Overlay: " + graphicOverlay);
+    }
+
+    /**
+     * Rebuilds only the part of the pipeline affected by a settings change: the active detector
+     * when its options changed, and the camera when its settings changed while it is running.
+     */
+    @Override
+    public void onPipelineConfigChanged(
+            final PipelineConfig previous, final PipelineConfig current) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (cameraSource == null) {
+                    return;
+                }
+                boolean detectorChanged;
+                switch (selectedModel) {
+                    case FACE_DETECTION:
+                        detectorChanged = !current.hasSameFaceSettings(previous);
+                        break;
+                    case OBJECT_DETECTION:
+                        detectorChanged = !current.hasSameObjectSettings(previous);
+                        break;
+                    case AUTOML_IMAGE_LABELING:
+                        detectorChanged = !current.hasSameAutoMLSettings(previous);
+                        break;
+                    default:
+                        detectorChanged = false;
+                }
+                if (detectorChanged) {
+                    Log.i(TAG, "Detector settings changed, rebuilding " + selectedModel);
+                    createCameraSource(selectedModel);
+                } else if (!current.hasSameCostProfiles(previous)) {
+                    applyCostProfile(current);
+                }
+                // A paused camera picks up new settings when it is reopened in onResume.
+                if (!current.hasSameCameraSettings(previous)
+                        && getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+                    preview.stop();
+                    startCameraSource();
+                }
+            }
+        });
+    }
+
+    /** Switches the running processor to its newly selected profile without rebuilding it. */
+    private void applyCostProfile(PipelineConfig config) {
+        if (!(currentProcessor instanceof VisionProcessorBase)) {
+            return;
+        }
+        CostProfile profile;
+        switch (selectedModel) {
+            case FACE_DETECTION:
+                profile = config.getFaceCostProfile();
+                break;
+            case OBJECT_DETECTION:
+                profile = config.getObjectCostProfile();
+                break;
+            case TEXT_DETECTION:
+                profile = config.getTextCostProfile();
+                break;
+            default:
+                return;
+        }
+        Log.i(TAG, "Switching " + selectedModel + " to cost profile " + profile.getKey());
+        ((VisionProcessorBase<?>) currentProcessor).setCostProfile(profile);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        PipelineConfigStore.getInstance(this).removeListener(this);
+        startup.shutdown();
         if (cameraSource != null) {
             cameraSource.release();
         }
@@ -368,8 +540,7 @@ public final class LivePreviewActivity extends AppCompatActivity
             int requestCode, String[] permissions, @NonNull int[] grantResults) {
         Log.i(TAG, "Permission granted!");
         if (allPermissionsGranted()) {
-            createCameraSource(selectedModel);
-            startVoiceRecorder();
+            runStartup();
         }
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
     }
@@ -392,18 +563,26 @@ public final class LivePreviewActivity extends AppCompatActivity
         stopVoiceRecorder();
 
         // Stop Cloud Speech API
-        try{
+        if (mSpeechService != null) {
             mSpeechService.removeListener(mSpeechServiceListener);
-            unbindService(mServiceConnection);
         }
-        catch (Exception e) {
-
+        if (speechServiceBound) {
+            getApplicationContext().unbindService(mServiceConnection);
+            speechServiceBound = false;
         }
         mSpeechService = null;
 
         super.onStop();
     }
 
+    /** Binds the speech service once; called from both the startup graph and onStart. */
+    private void bindSpeechService() {
+        if (!speechServiceBound) {
+            speechServiceBound = getApplicationContext().bindService(
+                    new Intent(this, SpeechService.class), mServiceConnection, BIND_AUTO_CREATE);
+        }
+    }
+
     private void startVoiceRecorder() {
         if (mVoiceRecorder != null) {
             mVoiceRecorder.stop();
@@ -434,6 +613,7 @@ public final class LivePreviewActivity extends AppCompatActivity
                 public void onSpeechRecognized(final String text, final boolean isFinal) {
                     if (isFinal) {
                         mVoiceRecorder.dismiss();
+                        maybeEnrollFace(text);
                     }
                     if (mText != null && !TextUtils.isEmpty(text)) {
                         runOnUiThread(new Runnable() {
@@ -458,6 +638,33 @@ public final class LivePreviewActivity extends AppCompatActivity
                 }
             };
 
+    /**
+     * Enrolls the face in view when {@code utterance} is "this is <name>" and faces are being
+     * detected.
+     */
+    private void maybeEnrollFace(String utterance) {
+        Matcher matcher = ENROLL_PHRASE.matcher(utterance == null ? "" : utterance.trim());
+        VisionImageProcessor processor = currentProcessor;
+        if (!matcher.matches() || !(processor instanceof FaceDetectionProcessor)) {
+            return;
+        }
+        final String name = matcher.group(1);
+        ((FaceDetectionProcessor) processor)
+                .requestEnrollment(name)
+                .addOnCompleteListener(
+                        new OnCompleteListener<String>() {
+                            @Override
+                            public void onComplete(@NonNull Task<String> task) {
+                                String message = task.isSuccessful()
+                                        ? "Enrolled " + name
+                                        : "Could not enroll " + name + ": "
+                                                + task.getException().getMessage();
+                                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT)
+                                        .show();
+                            }
+                        });
+    }
+
     private final ServiceConnection mServiceConnection = new ServiceConnection() {
 
         @Override
@@ -465,6 +672,7 @@ public final class LivePreviewActivity extends AppCompatActivity
             mSpeechService = SpeechService.from(binder);
             mSpeechService.addListener(mSpeechServiceListener);
             //mStatus.setVisibility(View.VISIBLE);
+            startup.complete(STEP_SPEECH_BIND);
         }
 
         @Override
@@ -14,6 +14,8 @@
 package com.google.firebase.samples.apps.mlkit.java;
 
 import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
@@ -25,11 +27,16 @@ import com.google.android.gms.tasks.Task;
 import com.google.firebase.ml.vision.common.FirebaseVisionImage;
 import com.google.firebase.ml.vision.common.FirebaseVisionImageMetadata;
 import com.google.firebase.samples.apps.mlkit.common.BitmapUtils;
+import com.google.firebase.samples.apps.mlkit.common.CostProfile;
+import com.google.firebase.samples.apps.mlkit.common.DetectionStream;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.LatencyStats;
 import com.google.firebase.samples.apps.mlkit.common.VisionImageProcessor;
 
 import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
 
 /**
  * Abstract base class for ML Kit frame processors. Subclasses need to implement {@link
@@ -37,10 +44,22 @@ import java.nio.ByteBuffer;
  * the detection results and {@link #detectInImage(FirebaseVisionImage)} to specify the detector
  * object.
  *
+ * <p>Processors that support {@link CostProfile}s rebuild their detector in {@link
+ * #onCostProfileChanged(CostProfile)}, which is called between frames after {@link
+ * #setCostProfile(CostProfile)}. Detection latency is recorded per profile.
+ *
+ * <p>Every result is also published on the {@link #getResultStream() result stream}, tagged with
+ * its source frame, for consumers other than the overlay.
+ *
  * @param <T> The type of the detected feature.
  */
 public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
+    private static final String TAG = "VisionProcessorBase";
+
+    /** Latency statistics are logged every this many detections. */
+    private static final int LATENCY_LOG_INTERVAL = 100;
+
     // To keep the latest images and its metadata.
     @GuardedBy("this")
     private ByteBuffer latestImage;
@@ -56,7 +75,73 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
     private FrameMetadata processingMetaData;
 
+    // Profile requested by the caller; applied between frames.
+    private volatile CostProfile requestedProfile;
+
+    @GuardedBy("this")
+    private CostProfile activeProfile;
+
+    private final Map<CostProfile, LatencyStats> latencyByProfile =
+            new EnumMap<>(CostProfile.class);
+
+    // Published from the main thread, where detection tasks deliver their results.
+    private final DetectionStream<T> resultStream = new DetectionStream<>();
+
     public VisionProcessorBase() {
+        this(CostProfile.FULL_ANALYSIS);
+    }
+
+    protected VisionProcessorBase(CostProfile initialProfile) {
+        requestedProfile = initialProfile;
+        activeProfile = initialProfile;
+        for (CostProfile profile : CostProfile.values()) {
+            latencyByProfile.put(profile, new LatencyStats());
+        }
+    }
+
+    /**
+     * Requests a different detector cost profile. The switch happens before the next frame is
+     * sent to the detector, never while a detection is in flight.
+     */
+    public void setCostProfile(CostProfile profile) {
+        requestedProfile = profile;
+    }
+
+    public synchronized CostProfile getCostProfile() {
+        return activeProfile;
+    }
+
+    /** Returns the measured detection latency while running under {@code profile}. */
+    public LatencyStats getLatencyStats(CostProfile profile) {
+        return latencyByProfile.get(profile);
+    }
+
+    /** Results of this processor, for subscribers that are not part of the overlay. */
+    public DetectionStream<T> getResultStream() {
+        return resultStream;
+    }
+
+    /**
+     * Called with every camera frame right before it is sent to the detector. The buffer is handed
+     * back to the camera soon after, so copy whatever is needed once the detection completes.
+     */
+    protected void onFrameCaptured(ByteBuffer data, FrameMetadata frameMetadata) {
+    }
+
+    /**
+     * Called between frames when the requested cost profile differs from the active one.
+     * Processors that support profiles rebuild their detector here.
+     */
+    protected void onCostProfileChanged(CostProfile profile) {
+    }
+
+    private synchronized CostProfile applyRequestedProfile() {
+        CostProfile requested = requestedProfile;
+        if (requested != activeProfile) {
+            onCostProfileChanged(requested);
+            activeProfile = requested;
+        }
+        return activeProfile;
     }
 
     @Override
@@ -99,7 +184,10 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                         .setRotation(frameMetadata.getRotation())
                         .build();
 
-        Bitmap bitmap = BitmapUtils.getBitmap(data, frameMetadata);
+        // The camera image is only drawn when the preview does not show it already.
+        Bitmap bitmap = graphicOverlay.isCameraPreviewLive()
+                ? null : BitmapUtils.getBitmap(data, frameMetadata);
+        onFrameCaptured(data, frameMetadata);
         detectInVisionImage(
                 bitmap, FirebaseVisionImage.fromByteBuffer(data, metadata), frameMetadata,
                 graphicOverlay);
@@ -110,11 +198,22 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             FirebaseVisionImage image,
             final FrameMetadata metadata,
             final GraphicOverlay graphicOverlay) {
-        detectInImage(image)
+        final CostProfile profile = applyRequestedProfile();
+        final long startMs = SystemClock.elapsedRealtime();
+        Task<T> detection = detectInImage(image);
+        // A result that is ready at once, e.g. from a result cache, ran no detector and would skew
+        // the profile's latency.
+        final boolean detected = !detection.isComplete();
+        detection
                 .addOnSuccessListener(
                         new OnSuccessListener<T>() {
                             @Override
                             public void onSuccess(T results) {
+                                if (detected) {
+                                    recordLatency(
+                                            profile, SystemClock.elapsedRealtime() - startMs);
+                                }
+                                resultStream.publish(results, metadata);
                                 VisionProcessorBase.this.onSuccess(originalCameraImage, results,
                                         metadata,
                                         graphicOverlay);
@@ -130,10 +229,22 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                         });
     }
 
+    private void recordLatency(CostProfile profile, long latencyMs) {
+        LatencyStats stats = latencyByProfile.get(profile);
+        stats.record(latencyMs);
+        if (stats.getCount() % LATENCY_LOG_INTERVAL == 0) {
+            Log.i(TAG, getClass().getSimpleName() + " [" + profile.getKey() + "] " + stats);
+        }
+    }
+
     @Override
     public void stop() {
     }
 
+    /**
+     * Starts detection on an image. A task that is already complete when returned, such as a
+     * cached result, is not counted in the latency stats of the cost profile.
+     */
     protected abstract Task<T> detectInImage(FirebaseVisionImage image);
 
     /**
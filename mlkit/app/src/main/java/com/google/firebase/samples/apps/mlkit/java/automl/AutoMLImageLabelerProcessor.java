@@ -8,38 +8,37 @@ import android.util.Log;
 
 import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.Task;
-import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.ml.common.FirebaseMLException;
-import com.google.firebase.ml.common.modeldownload.FirebaseModelDownloadConditions;
-import com.google.firebase.ml.common.modeldownload.FirebaseModelManager;
-import com.google.firebase.ml.vision.FirebaseVision;
-import com.google.firebase.ml.vision.automl.FirebaseAutoMLLocalModel;
-import com.google.firebase.ml.vision.automl.FirebaseAutoMLRemoteModel;
 import com.google.firebase.ml.vision.common.FirebaseVisionImage;
 import com.google.firebase.ml.vision.label.FirebaseVisionImageLabel;
 import com.google.firebase.ml.vision.label.FirebaseVisionImageLabeler;
-import com.google.firebase.ml.vision.label.FirebaseVisionOnDeviceAutoMLImageLabelerOptions;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.ModelRegistry;
 import com.google.firebase.samples.apps.mlkit.java.VisionProcessorBase;
 import com.google.firebase.samples.apps.mlkit.java.labeldetector.LabelGraphic;
 import com.google.firebase.samples.apps.mlkit.common.preference.PreferenceUtils;
 
 import java.io.IOException;
-import java.util.Collections;
 import java.util.List;
 
 /**
- * AutoML image labeler Demo.
+ * AutoML image labeler Demo. Labels come from the model bundled in the assets until the remote
+ * model named in the settings has been downloaded and checked; see {@link HotSwapLabeler}.
  */
 public class AutoMLImageLabelerProcessor
     extends VisionProcessorBase<List<FirebaseVisionImageLabel>> {
 
   private static final String TAG = "ODAutoMLILProcessor";
 
+  /** How long a still image waits for the remote model before the current model labels it. */
+  private static final long STILL_IMAGE_UPDATE_WAIT_MS = 3000;
+
+  /** Manifest of the AutoML model bundled in the assets. */
+  public static final String LOCAL_MODEL_MANIFEST = "automl/manifest.json";
+
   private final Context context;
-  private final FirebaseVisionImageLabeler detector;
-  private final Task<Void> modelDownloadingTask;
+  private final HotSwapLabeler detector;
   private final Mode mode;
 
   /**
@@ -51,77 +50,48 @@ public class AutoMLImageLabelerProcessor
     LIVE_PREVIEW
   }
 
-  public AutoMLImageLabelerProcessor(Context context, Mode mode) throws FirebaseMLException {
+  public AutoMLImageLabelerProcessor(Context context, Mode mode)
+      throws FirebaseMLException, IOException {
     this.context = context;
     this.mode = mode;
-
-    //String modelChoice = PreferenceUtils.getAutoMLRemoteModelChoice(context);
-    if (true) {//(modelChoice.equals(context.getString(R.string.pref_entries_automl_models_local))) {
-      Log.d(TAG, "Local model used.");
-      FirebaseAutoMLLocalModel localModel =
-          new FirebaseAutoMLLocalModel.Builder().setAssetFilePath("automl/manifest.json").build();
-      detector =
-          FirebaseVision.getInstance()
-              .getOnDeviceAutoMLImageLabeler(
-                  new FirebaseVisionOnDeviceAutoMLImageLabelerOptions.Builder(localModel)
-                      .setConfidenceThreshold(0)
-                      .build());
-      modelDownloadingTask = null;
-
-    } else {
-      Log.d(TAG, "Remote model used.");
-      String remoteModelName = PreferenceUtils.getAutoMLRemoteModelName(context);
-      FirebaseAutoMLRemoteModel remoteModel =
-          new FirebaseAutoMLRemoteModel.Builder(remoteModelName).build();
-
-      FirebaseModelDownloadConditions downloadConditions =
-          new FirebaseModelDownloadConditions.Builder().requireWifi().build();
-      modelDownloadingTask =
-          FirebaseModelManager.getInstance().download(remoteModel, downloadConditions);
-      detector =
-          FirebaseVision.getInstance()
-              .getOnDeviceAutoMLImageLabeler(
-                  new FirebaseVisionOnDeviceAutoMLImageLabelerOptions.Builder(remoteModel)
-                      .setConfidenceThreshold(0)
-                      .build());
-    }
+    ModelRegistry.Handle<FirebaseVisionImageLabeler> localLabeler =
+        ModelRegistry.getInstance(context)
+            .acquire(LOCAL_MODEL_MANIFEST, ModelRegistry.autoMLLabeler(LOCAL_MODEL_MANIFEST));
+    detector =
+        new HotSwapLabeler(localLabeler, PreferenceUtils.getAutoMLRemoteModelName(context));
   }
 
-  public List<FirebaseVisionImageLabel> getLabels()
-  {
-      return labels;
+  /** Version of the model labeling the next frame, for telemetry. */
+  public String getModelVersion() {
+    return detector.getModelVersion();
   }
 
   @Override
   public void stop() {
-    try {
-      detector.close();
-    } catch (IOException e) {
-      Log.e(TAG, "Exception thrown while trying to close the image labeler", e);
-    }
+    Log.i(TAG, "Model " + detector.getModelVersion() + "; " + ModelRegistry.getInstance(context));
+    detector.close();
   }
 
   @Override
   protected Task<List<FirebaseVisionImageLabel>> detectInImage(final FirebaseVisionImage image) {
-    if (modelDownloadingTask == null) {
-      // No download task means only the locally bundled model is used. Model can be used directly.
-      return detector.processImage(image);
-    } else if (!modelDownloadingTask.isComplete()) {
-      if (mode == Mode.LIVE_PREVIEW) {
-        Log.i(TAG, "Model download is in progress. Skip detecting image.");
-        return Tasks.forResult(Collections.<FirebaseVisionImageLabel>emptyList());
-      } else {
-        Log.i(TAG, "Model download is in progress. Waiting...");
-        return modelDownloadingTask.continueWithTask(new Continuation<Void, Task<List<FirebaseVisionImageLabel>>>() {
-          @Override
-          public Task<List<FirebaseVisionImageLabel>> then(@NonNull Task<Void> task) {
-            return processImageOnDownloadComplete(image);
-          }
-        });
+    if (mode == Mode.STILL_IMAGE) {
+      // Off Wi-Fi the download never starts, so the wait is bounded; then the current model runs.
+      Task<Void> updateSettled = detector.whenUpdateSettled(STILL_IMAGE_UPDATE_WAIT_MS);
+      if (updateSettled.isComplete()) {
+        return detector.processImage(image);
       }
-    } else {
-      return processImageOnDownloadComplete(image);
+      Log.i(TAG, "Model download is in progress. Waiting...");
+      return updateSettled
+          .continueWithTask(
+              new Continuation<Void, Task<List<FirebaseVisionImageLabel>>>() {
+                @Override
+                public Task<List<FirebaseVisionImageLabel>> then(@NonNull Task<Void> task) {
+                  return detector.processImage(image);
+                }
+              });
     }
+    // The live preview never waits: frames use the current model until the new one is ready.
+    return detector.processImage(image);
   }
 
   @Override
@@ -130,44 +100,19 @@ public class AutoMLImageLabelerProcessor
       @NonNull List<FirebaseVisionImageLabel> labels,
       @NonNull FrameMetadata frameMetadata,
       @NonNull GraphicOverlay graphicOverlay) {
-//    graphicOverlay.clear();
+    // Labels reach other features through getResultStream().
+//    GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
 //    if (originalCameraImage != null) {
 //      CameraImageGraphic imageGraphic = new CameraImageGraphic(graphicOverlay, originalCameraImage);
-//      graphicOverlay.add(imageGraphic);
+//      scene.add(imageGraphic);
 //    }
-    this.labels = labels;
-    float minConf = 0;
-    String text = "";
-    for (FirebaseVisionImageLabel label : labels) {
-      if (minConf <= label.getConfidence())
-      {
-        minConf = label.getConfidence();
-        text = label.getText();
-      }
-    }
-
     //LabelGraphic labelGraphic = new LabelGraphic(graphicOverlay, text, minConf);
-    //graphicOverlay.add(labelGraphic);
-    //graphicOverlay.postInvalidate();
+    //scene.add(labelGraphic);
+    //graphicOverlay.publish(scene);
   }
 
   @Override
   protected void onFailure(@NonNull Exception e) {
     Log.w(TAG, "Label detection failed.", e);
   }
-
-  private Task<List<FirebaseVisionImageLabel>> processImageOnDownloadComplete(
-      FirebaseVisionImage image) {
-    if (modelDownloadingTask.isSuccessful()) {
-      return detector.processImage(image);
-    } else {
-      String downloadingError = "Error downloading remote model.";
-      Log.e(TAG, downloadingError, modelDownloadingTask.getException());
-      //Toast.makeText(context, downloadingError, Toast.LENGTH_SHORT).show();
-      return Tasks.forException(
-          new Exception("Failed to download remote model.", modelDownloadingTask.getException()));
-    }
-  }
-
-  List<FirebaseVisionImageLabel> labels;
 }
@@ -0,0 +1,332 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.automl;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.ml.common.modeldownload.FirebaseModelDownloadConditions;
+import com.google.firebase.ml.common.modeldownload.FirebaseModelManager;
+import com.google.firebase.ml.vision.FirebaseVision;
+import com.google.firebase.ml.vision.automl.FirebaseAutoMLRemoteModel;
+import com.google.firebase.ml.vision.common.FirebaseVisionImage;
+import com.google.firebase.ml.vision.label.FirebaseVisionImageLabel;
+import com.google.firebase.ml.vision.label.FirebaseVisionImageLabeler;
+import com.google.firebase.ml.vision.label.FirebaseVisionOnDeviceAutoMLImageLabelerOptions;
+import com.google.firebase.samples.apps.mlkit.common.ModelRegistry;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An AutoML image labeler that starts on the model bundled in the assets and moves to the remote
+ * model once it is downloaded, without pausing the caller.
+ *
+ * <p>The remote model is downloaded in the background. Before it is used it must pass an
+ * integrity check: a few warm-up runs on a blank image must succeed and return labels whose
+ * confidences lie in [0, 1]. It then waits as the pending model until the next call to {@link
+ * #processImage}, which switches to it before starting; a request never sees two models. The
+ * previous model is closed once the requests still running on it have finished. If the download
+ * or the check fails, the current model stays in use.
+ */
+class HotSwapLabeler {
+  private static final String TAG = "HotSwapLabeler";
+
+  /** Size of the blank image used to warm up and check a new model. */
+  private static final int WARM_UP_IMAGE_SIZE = 224;
+
+  private static final int WARM_UP_RUNS = 2;
+
+  /** A labeler and the references to it: one held while it is current, plus one per request. */
+  private static final class Slot {
+    final FirebaseVisionImageLabeler labeler;
+    final String version;
+    @Nullable final ModelRegistry.Handle<FirebaseVisionImageLabeler> handle;
+    final AtomicInteger references = new AtomicInteger(1);
+    final AtomicBoolean retired = new AtomicBoolean();
+
+    Slot(
+        FirebaseVisionImageLabeler labeler,
+        String version,
+        @Nullable ModelRegistry.Handle<FirebaseVisionImageLabeler> handle) {
+      this.labeler = labeler;
+      this.version = version;
+      this.handle = handle;
+    }
+
+    /** Takes a reference for a request, unless the labeler is already closed. */
+    boolean tryAcquire() {
+      while (true) {
+        int count = references.get();
+        if (count == 0) {
+          return false;
+        }
+        if (references.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        close();
+      }
+    }
+
+    /** Drops the reference held while current; the labeler closes after its last request. */
+    void retire() {
+      if (retired.compareAndSet(false, true)) {
+        release();
+      }
+    }
+
+    private void close() {
+      if (handle != null) {
+        handle.release();
+        return;
+      }
+      try {
+        labeler.close();
+      } catch (IOException e) {
+        Log.e(TAG, "Exception thrown while trying to close the image labeler", e);
+      }
+      Log.i(TAG, "Closed model " + version);
+    }
+  }
+
+  private final AtomicReference<Slot> active;
+  private final AtomicReference<Slot> pending = new AtomicReference<>();
+  private final Task<Void> updateSettled;
+  private volatile boolean closed;
+
+  /**
+   * Starts serving the local model and downloading {@code remoteModelName} in the background.
+   */
+  HotSwapLabeler(
+      ModelRegistry.Handle<FirebaseVisionImageLabeler> localLabeler, String remoteModelName) {
+    active =
+        new AtomicReference<>(
+            new Slot(
+                localLabeler.get(), "local v" + localLabeler.getVersion(), localLabeler));
+    updateSettled = startRemoteUpdate(remoteModelName);
+  }
+
+  /** Version of the model new requests run on. */
+  String getModelVersion() {
+    Slot next = pending.get();
+    return next != null ? next.version : active.get().version;
+  }
+
+  /**
+   * Completes once the remote model is ready for the next request or has failed to download or
+   * pass its checks, or after {@code timeoutMs} at the latest. The download only runs on Wi-Fi, so
+   * it may not settle at all.
+   */
+  Task<Void> whenUpdateSettled(long timeoutMs) {
+    if (updateSettled.isComplete()) {
+      return updateSettled;
+    }
+    final TaskCompletionSource<Void> settledOrTimedOut = new TaskCompletionSource<>();
+    updateSettled.addOnCompleteListener(
+        new OnCompleteListener<Void>() {
+          @Override
+          public void onComplete(@NonNull Task<Void> ignored) {
+            settledOrTimedOut.trySetResult(null);
+          }
+        });
+    new Handler(Looper.getMainLooper())
+        .postDelayed(
+            new Runnable() {
+              @Override
+              public void run() {
+                if (settledOrTimedOut.trySetResult(null)) {
+                  Log.i(TAG, "Model update still pending, using " + getModelVersion());
+                }
+              }
+            },
+            timeoutMs);
+    return settledOrTimedOut.getTask();
+  }
+
+  /** Labels an image with the current model, switching to a pending model first. */
+  Task<List<FirebaseVisionImageLabel>> processImage(FirebaseVisionImage image) {
+    Slot next = pending.getAndSet(null);
+    if (next != null) {
+      switchTo(next);
+    }
+    Slot slot;
+    do {
+      if (closed) {
+        return Tasks.forException(new IllegalStateException("The labeler is closed"));
+      }
+      slot = active.get();
+      // A failed acquire means the slot was retired meanwhile; the next read sees its successor.
+    } while (!slot.tryAcquire());
+    final Slot used = slot;
+    Task<List<FirebaseVisionImageLabel>> task;
+    try {
+      task = used.labeler.processImage(image);
+    } catch (RuntimeException e) {
+      used.release();
+      throw e;
+    }
+    return task.addOnCompleteListener(
+        new OnCompleteListener<List<FirebaseVisionImageLabel>>() {
+          @Override
+          public void onComplete(@NonNull Task<List<FirebaseVisionImageLabel>> ignored) {
+            used.release();
+          }
+        });
+  }
+
+  private void switchTo(Slot next) {
+    Slot previous = active.getAndSet(next);
+    previous.retire();
+    Log.i(TAG, "Switched from model " + previous.version + " to " + next.version);
+    if (closed) {
+      // close() ran while switching and retired the previous slot only.
+      next.retire();
+    }
+  }
+
+  /**
+   * Closes the labeler. Models are closed once the requests still running on them finish.
+   */
+  void close() {
+    closed = true;
+    Slot next = pending.getAndSet(null);
+    if (next != null) {
+      next.retire();
+    }
+    active.get().retire();
+  }
+
+  private Task<Void> startRemoteUpdate(final String remoteModelName) {
+    final FirebaseAutoMLRemoteModel remoteModel =
+        new FirebaseAutoMLRemoteModel.Builder(remoteModelName).build();
+    FirebaseModelDownloadConditions conditions =
+        new FirebaseModelDownloadConditions.Builder().requireWifi().build();
+    Task<Slot> update =
+        FirebaseModelManager.getInstance()
+            .download(remoteModel, conditions)
+            .continueWithTask(
+                new Continuation<Void, Task<Slot>>() {
+                  @Override
+                  public Task<Slot> then(@NonNull Task<Void> download) throws Exception {
+                    // Rethrows the download failure.
+                    download.getResult(Exception.class);
+                    FirebaseVisionImageLabeler labeler =
+                        FirebaseVision.getInstance()
+                            .getOnDeviceAutoMLImageLabeler(
+                                new FirebaseVisionOnDeviceAutoMLImageLabelerOptions.Builder(
+                                        remoteModel)
+                                    .setConfidenceThreshold(0)
+                                    .build());
+                    return warmUp(new Slot(labeler, "remote " + remoteModelName, null), 0);
+                  }
+                });
+    update.addOnSuccessListener(
+        new OnSuccessListener<Slot>() {
+          @Override
+          public void onSuccess(Slot slot) {
+            offer(slot);
+          }
+        });
+    update.addOnFailureListener(
+        new OnFailureListener() {
+          @Override
+          public void onFailure(@NonNull Exception e) {
+            Log.w(TAG, "Keeping model " + getModelVersion() + ", update failed: " + e);
+          }
+        });
+    return update.continueWith(
+        new Continuation<Slot, Void>() {
+          @Override
+          public Void then(@NonNull Task<Slot> ignored) {
+            return null;
+          }
+        });
+  }
+
+  /** Runs the remaining warm-up rounds and resolves to the slot if every one passes the check. */
+  private Task<Slot> warmUp(final Slot slot, final int run) {
+    if (run == WARM_UP_RUNS) {
+      return Tasks.forResult(slot);
+    }
+    Bitmap blank =
+        Bitmap.createBitmap(WARM_UP_IMAGE_SIZE, WARM_UP_IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+    blank.eraseColor(Color.GRAY);
+    return slot.labeler
+        .processImage(FirebaseVisionImage.fromBitmap(blank))
+        .continueWithTask(
+            new Continuation<List<FirebaseVisionImageLabel>, Task<Slot>>() {
+              @Override
+              public Task<Slot> then(@NonNull Task<List<FirebaseVisionImageLabel>> task) {
+                String problem =
+                    task.isSuccessful()
+                        ? check(task.getResult())
+                        : String.valueOf(task.getException());
+                if (problem != null) {
+                  slot.retire();
+                  return Tasks.forException(
+                      new IllegalStateException(
+                          "Model " + slot.version + " failed its check: " + problem));
+                }
+                return warmUp(slot, run + 1);
+              }
+            });
+  }
+
+  /** Returns what is wrong with a warm-up result, or null if it looks sane. */
+  @Nullable
+  private static String check(List<FirebaseVisionImageLabel> labels) {
+    // The confidence threshold is 0, so every label of the model is reported.
+    if (labels.isEmpty()) {
+      return "no labels";
+    }
+    for (FirebaseVisionImageLabel label : labels) {
+      float confidence = label.getConfidence();
+      if (!(confidence >= 0 && confidence <= 1)) {
+        return "confidence " + confidence + " for " + label.getText();
+      }
+    }
+    return null;
+  }
+
+  private void offer(Slot slot) {
+    Slot previous = pending.getAndSet(slot);
+    if (previous != null) {
+      previous.retire();
+    }
+    if (closed && pending.compareAndSet(slot, null)) {
+      // close() ran before the offer and would not see it.
+      slot.retire();
+      return;
+    }
+    Log.i(TAG, "Model " + slot.version + " is warm and will be used from the next frame");
+  }
+}
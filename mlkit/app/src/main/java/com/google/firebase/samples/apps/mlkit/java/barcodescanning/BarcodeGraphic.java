@@ -21,6 +21,7 @@ import android.graphics.RectF;
 import com.google.firebase.ml.vision.barcode.FirebaseVisionBarcode;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay.Graphic;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
 
 /** Graphic instance for rendering Barcode position and content information in an overlay view. */
 public class BarcodeGraphic extends Graphic {
@@ -29,23 +30,28 @@ public class BarcodeGraphic extends Graphic {
   private static final float TEXT_SIZE = 54.0f;
   private static final float STROKE_WIDTH = 4.0f;
 
-  private final Paint rectPaint;
-  private final Paint barcodePaint;
-  private final FirebaseVisionBarcode barcode;
+  private static final Paint RECT_PAINT = strokePaint(TEXT_COLOR, STROKE_WIDTH);
+  private static final Paint BARCODE_PAINT = textPaint(TEXT_COLOR, TEXT_SIZE);
 
-  BarcodeGraphic(GraphicOverlay overlay, FirebaseVisionBarcode barcode) {
-    super(overlay);
+  static final GraphicPool.Factory<BarcodeGraphic> FACTORY =
+      new GraphicPool.Factory<BarcodeGraphic>() {
+        @Override
+        public BarcodeGraphic create(GraphicOverlay overlay) {
+          return new BarcodeGraphic(overlay);
+        }
+      };
 
-    this.barcode = barcode;
+  private final RectF rect = new RectF();
+  private final RectF boundsRect = new RectF();
+  private FirebaseVisionBarcode barcode;
 
-    rectPaint = new Paint();
-    rectPaint.setColor(TEXT_COLOR);
-    rectPaint.setStyle(Paint.Style.STROKE);
-    rectPaint.setStrokeWidth(STROKE_WIDTH);
+  private BarcodeGraphic(GraphicOverlay overlay) {
+    super(overlay);
+  }
 
-    barcodePaint = new Paint();
-    barcodePaint.setColor(TEXT_COLOR);
-    barcodePaint.setTextSize(TEXT_SIZE);
+  BarcodeGraphic bind(FirebaseVisionBarcode barcode) {
+    this.barcode = barcode;
+    return this;
   }
 
   /**
@@ -58,14 +64,26 @@ public class BarcodeGraphic extends Graphic {
     }
 
     // Draws the bounding box around the BarcodeBlock.
-    RectF rect = new RectF(barcode.getBoundingBox());
-    rect.left = translateX(rect.left);
-    rect.top = translateY(rect.top);
-    rect.right = translateX(rect.right);
-    rect.bottom = translateY(rect.bottom);
-    canvas.drawRect(rect, rectPaint);
+    translateRect(barcode.getBoundingBox(), rect);
+    canvas.drawRect(rect, RECT_PAINT);
 
     // Renders the barcode at the bottom of the box.
-    canvas.drawText(barcode.getRawValue(), rect.left, rect.bottom, barcodePaint);
+    canvas.drawText(barcode.getRawValue(), rect.left, rect.bottom, BARCODE_PAINT);
+  }
+
+  @Override
+  public boolean getBounds(RectF bounds) {
+    if (barcode == null) {
+      return true;
+    }
+    translateRect(barcode.getBoundingBox(), boundsRect);
+    unionStroke(bounds, boundsRect, RECT_PAINT);
+    unionText(bounds, barcode.getRawValue(), boundsRect.left, boundsRect.bottom, BARCODE_PAINT);
+    return true;
+  }
+
+  @Override
+  protected void onRecycle() {
+    barcode = null;
   }
 }
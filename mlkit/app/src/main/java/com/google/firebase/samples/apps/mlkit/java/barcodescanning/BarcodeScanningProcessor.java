@@ -26,6 +26,7 @@ import com.google.firebase.ml.vision.common.FirebaseVisionImage;
 import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
 import com.google.firebase.samples.apps.mlkit.java.VisionProcessorBase;
 
 import java.io.IOException;
@@ -38,8 +39,13 @@ public class BarcodeScanningProcessor extends VisionProcessorBase<List<FirebaseV
 
     private static final String TAG = "BarcodeScanProc";
 
+    private static final int GRAPHIC_POOL_CAPACITY = 16;
+
     private final FirebaseVisionBarcodeDetector detector;
 
+    private final GraphicPool<BarcodeGraphic> barcodeGraphics =
+            new GraphicPool<>(GRAPHIC_POOL_CAPACITY, BarcodeGraphic.FACTORY);
+
     public BarcodeScanningProcessor() {
         // Note that if you know which format of barcode your app is dealing with, detection will be
         // faster to specify the supported barcode formats one by one, e.g.
@@ -51,6 +57,7 @@ public class BarcodeScanningProcessor extends VisionProcessorBase<List<FirebaseV
 
     @Override
     public void stop() {
+        Log.i(TAG, "Barcode graphics: " + barcodeGraphics);
         try {
             detector.close();
         } catch (IOException e) {
@@ -69,17 +76,16 @@ public class BarcodeScanningProcessor extends VisionProcessorBase<List<FirebaseV
             @NonNull List<FirebaseVisionBarcode> barcodes,
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
+        GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
         if (originalCameraImage != null) {
             CameraImageGraphic imageGraphic = new CameraImageGraphic(graphicOverlay, originalCameraImage);
-            graphicOverlay.add(imageGraphic);
+            scene.add(imageGraphic);
         }
         for (int i = 0; i < barcodes.size(); ++i) {
             FirebaseVisionBarcode barcode = barcodes.get(i);
-            BarcodeGraphic barcodeGraphic = new BarcodeGraphic(graphicOverlay, barcode);
-            graphicOverlay.add(barcodeGraphic);
+            scene.add(barcodeGraphics.obtain(graphicOverlay).bind(barcode));
         }
-        graphicOverlay.postInvalidate();
+        graphicOverlay.publish(scene);
     }
 
     @Override
@@ -58,7 +58,7 @@ public class CloudImageLabelingProcessor
             @NonNull List<FirebaseVisionImageLabel> labels,
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
+        GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
         Log.d(TAG, "cloud label size: " + labels.size());
         List<String> labelsStr = new ArrayList<>();
         for (int i = 0; i < labels.size(); ++i) {
@@ -69,8 +69,8 @@ public class CloudImageLabelingProcessor
             }
         }
         CloudLabelGraphic cloudLabelGraphic = new CloudLabelGraphic(graphicOverlay, labelsStr);
-        graphicOverlay.add(cloudLabelGraphic);
-        graphicOverlay.postInvalidate();
+        scene.add(cloudLabelGraphic);
+        graphicOverlay.publish(scene);
     }
 
     @Override
@@ -61,16 +61,16 @@ public class CloudLandmarkRecognitionProcessor
             @NonNull List<FirebaseVisionCloudLandmark> landmarks,
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
+        GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
         Log.d(TAG, "cloud landmark size: " + landmarks.size());
         for (int i = 0; i < landmarks.size(); ++i) {
             FirebaseVisionCloudLandmark landmark = landmarks.get(i);
             Log.d(TAG, "cloud landmark: " + landmark);
             CloudLandmarkGraphic cloudLandmarkGraphic = new CloudLandmarkGraphic(graphicOverlay,
                     landmark);
-            graphicOverlay.add(cloudLandmarkGraphic);
+            scene.add(cloudLandmarkGraphic);
         }
-        graphicOverlay.postInvalidate();
+        graphicOverlay.publish(scene);
     }
 
     @Override
@@ -55,7 +55,7 @@ public class CloudDocumentTextRecognitionProcessor
             @NonNull FirebaseVisionDocumentText text,
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
+        GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
         Log.d(TAG, "detected text is: " + text.getText());
         List<FirebaseVisionDocumentText.Block> blocks = text.getBlocks();
         for (int i = 0; i < blocks.size(); i++) {
@@ -68,12 +68,12 @@ public class CloudDocumentTextRecognitionProcessor
                         CloudDocumentTextGraphic cloudDocumentTextGraphic =
                                 new CloudDocumentTextGraphic(graphicOverlay,
                                 symbols.get(m));
-                        graphicOverlay.add(cloudDocumentTextGraphic);
+                        scene.add(cloudDocumentTextGraphic);
                     }
                 }
             }
         }
-        graphicOverlay.postInvalidate();
+        graphicOverlay.publish(scene);
     }
 
     @Override
@@ -54,10 +54,11 @@ public class CloudTextRecognitionProcessor extends VisionProcessorBase<FirebaseV
             @NonNull FirebaseVisionText text,
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
         if (text == null) {
+            graphicOverlay.clear();
             return; // TODO: investigate why this is needed
         }
+        GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
         List<FirebaseVisionText.TextBlock> blocks = text.getTextBlocks();
         for (int i = 0; i < blocks.size(); i++) {
             List<FirebaseVisionText.Line> lines = blocks.get(i).getLines();
@@ -66,11 +67,11 @@ public class CloudTextRecognitionProcessor extends VisionProcessorBase<FirebaseV
                 for (int l = 0; l < elements.size(); l++) {
                     CloudTextGraphic cloudTextGraphic = new CloudTextGraphic(graphicOverlay,
                             elements.get(l));
-                    graphicOverlay.add(cloudTextGraphic);
+                    scene.add(cloudTextGraphic);
                 }
             }
         }
-        graphicOverlay.postInvalidate();
+        graphicOverlay.publish(scene);
     }
 
     @Override
@@ -0,0 +1,309 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.custommodel;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.ml.common.FirebaseMLException;
+import com.google.firebase.samples.apps.mlkit.common.BitmapUtils;
+import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
+import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
+import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
+import com.google.firebase.samples.apps.mlkit.common.VisionImageProcessor;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Custom Image Classifier Demo that picks the quantized or the float model by itself. While a
+ * {@link ModelVariantSelector} benchmark is due, frames are classified by both variants in turn;
+ * otherwise only by the selected one.
+ */
+public class AutoVariantClassifierProcessor implements VisionImageProcessor {
+
+    private static final String TAG = "AutoVariant";
+
+    // Benchmark: measured rounds, share of rounds whose top labels must agree for the faster
+    // variant to be picked, and how often the choice is revisited.
+    private static final int BENCHMARK_ROUNDS = 10;
+    private static final float MIN_AGREEMENT = 0.8f;
+    private static final long REEVALUATE_INTERVAL_MS = 2 * 60 * 1000;
+
+    /**
+     * Labels of one classification, how long it took and whether the model ran at all.
+     */
+    private static final class Timed {
+        final List<String> labels;
+        final long latencyMs;
+        final boolean fellBack;
+
+        Timed(List<String> labels, long latencyMs, boolean fellBack) {
+            this.labels = labels;
+            this.latencyMs = latencyMs;
+            this.fellBack = fellBack;
+        }
+    }
+
+    private final CustomImageClassifier quantizedClassifier;
+    private final CustomImageClassifier floatClassifier;
+    private final CustomImageClassifier.Session quantizedSession;
+    private final CustomImageClassifier.Session floatSession;
+    private final CustomImageClassifier.Session quantizedBenchmarkSession;
+    private final CustomImageClassifier.Session floatBenchmarkSession;
+    private final CustomImageClassifier.Session stillSession;
+    private final ModelVariantSelector selector =
+            new ModelVariantSelector(BENCHMARK_ROUNDS, MIN_AGREEMENT, REEVALUATE_INTERVAL_MS);
+    private final AtomicBoolean benchmarkInFlight = new AtomicBoolean();
+    // Rounds started, recorded or not; decides which variant goes first.
+    private int startedRounds;
+    private final GraphicPool<LabelGraphic> labelGraphics =
+            new GraphicPool<>(2, LabelGraphic.FACTORY);
+    private final Reference<Activity> activityRef;
+
+    public AutoVariantClassifierProcessor(Activity activity)
+            throws FirebaseMLException, IOException {
+        activityRef = new WeakReference<>(activity);
+        quantizedClassifier = new CustomImageClassifier(activity.getApplicationContext(), true);
+        floatClassifier = new CustomImageClassifier(activity.getApplicationContext(), false);
+        quantizedSession = quantizedClassifier.openSession("quantized live");
+        floatSession = floatClassifier.openSession("float live");
+        // Benchmarks must run the models, so they bypass the result cache.
+        quantizedBenchmarkSession = quantizedClassifier.openUncachedSession("quantized benchmark");
+        floatBenchmarkSession = floatClassifier.openUncachedSession("float benchmark");
+        stillSession = floatClassifier.openSession("still");
+    }
+
+    /**
+     * The selector, for its current decision.
+     */
+    public ModelVariantSelector getSelector() {
+        return selector;
+    }
+
+    @Override
+    public void process(
+            final ByteBuffer data, final FrameMetadata frameMetadata,
+            final GraphicOverlay graphicOverlay)
+            throws FirebaseMLException {
+        final Activity activity = activityRef.get();
+        if (activity == null || benchmarkInFlight.get()) {
+            // Other work would skew the benchmark; the overlay keeps showing its last result.
+            return;
+        }
+        if (selector.needsBenchmark() && quantizedClassifier.isReady()
+                && floatClassifier.isReady()) {
+            runBenchmarkRound(activity, data, frameMetadata, graphicOverlay);
+            return;
+        }
+        boolean useQuantized = selector.getDecision() == ModelVariantSelector.Variant.QUANTIZED;
+        CustomImageClassifier classifier = useQuantized ? quantizedClassifier : floatClassifier;
+        classifier
+                .classifyFrame(useQuantized ? quantizedSession : floatSession, data,
+                        frameMetadata.getWidth(), frameMetadata.getHeight())
+                .addOnSuccessListener(
+                        activity,
+                        new OnSuccessListener<List<String>>() {
+                            @Override
+                            public void onSuccess(List<String> result) {
+                                show(result, data, frameMetadata, graphicOverlay);
+                            }
+                        })
+                .addOnFailureListener(
+                        new OnFailureListener() {
+                            @Override
+                            public void onFailure(@NonNull Exception e) {
+                                Log.d(TAG, "Custom classifier failed: " + e);
+                            }
+                        });
+    }
+
+    /**
+     * Classifies a copy of the frame with both variants, one after the other, alternating which
+     * goes first, and records the round.
+     */
+    private void runBenchmarkRound(
+            Activity activity,
+            ByteBuffer data,
+            final FrameMetadata frameMetadata,
+            final GraphicOverlay graphicOverlay) {
+        benchmarkInFlight.set(true);
+        // The camera reuses its buffer once process() returns, and the second variant runs later.
+        final ByteBuffer frame = ByteBuffer.wrap(data.array().clone());
+        // Discarded rounds do not advance the selector's progress, so alternate on started rounds.
+        final boolean quantizedFirst = startedRounds++ % 2 == 0;
+        final CustomImageClassifier.Session firstSession =
+                quantizedFirst ? quantizedBenchmarkSession : floatBenchmarkSession;
+        final CustomImageClassifier.Session secondSession =
+                quantizedFirst ? floatBenchmarkSession : quantizedBenchmarkSession;
+        final CustomImageClassifier first = quantizedFirst ? quantizedClassifier : floatClassifier;
+        final CustomImageClassifier second = quantizedFirst ? floatClassifier : quantizedClassifier;
+        final Timed[] firstResult = new Timed[1];
+        Task<Timed> firstTask;
+        try {
+            firstTask = classifyTimed(first, firstSession, frame, frameMetadata);
+        } catch (FirebaseMLException e) {
+            Log.d(TAG, "Benchmark round failed: " + e);
+            benchmarkInFlight.set(false);
+            return;
+        }
+        firstTask
+                .continueWithTask(
+                        new Continuation<Timed, Task<Timed>>() {
+                            @Override
+                            public Task<Timed> then(@NonNull Task<Timed> task) throws Exception {
+                                firstResult[0] = task.getResult();
+                                return classifyTimed(second, secondSession, frame, frameMetadata);
+                            }
+                        })
+                .addOnSuccessListener(
+                        activity,
+                        new OnSuccessListener<Timed>() {
+                            @Override
+                            public void onSuccess(Timed secondResult) {
+                                Timed quantized = quantizedFirst ? firstResult[0] : secondResult;
+                                Timed floating = quantizedFirst ? secondResult : firstResult[0];
+                                if (quantized.fellBack || floating.fellBack) {
+                                    // A fallback answer took no time and ran no model.
+                                    Log.d(TAG, "Benchmark round discarded: no interpreter");
+                                    show(floating.labels, frame, frameMetadata, graphicOverlay);
+                                    return;
+                                }
+                                selector.recordRound(quantized.latencyMs, floating.latencyMs,
+                                        topLabel(quantized.labels).equals(
+                                                topLabel(floating.labels)));
+                                show(floating.labels, frame, frameMetadata, graphicOverlay);
+                            }
+                        })
+                .addOnFailureListener(
+                        new OnFailureListener() {
+                            @Override
+                            public void onFailure(@NonNull Exception e) {
+                                Log.d(TAG, "Benchmark round failed: " + e);
+                            }
+                        })
+                .addOnCompleteListener(
+                        new OnCompleteListener<Timed>() {
+                            @Override
+                            public void onComplete(@NonNull Task<Timed> task) {
+                                benchmarkInFlight.set(false);
+                            }
+                        });
+    }
+
+    private static Task<Timed> classifyTimed(
+            CustomImageClassifier classifier,
+            CustomImageClassifier.Session session,
+            ByteBuffer frame,
+            FrameMetadata frameMetadata)
+            throws FirebaseMLException {
+        final long startMs = SystemClock.elapsedRealtime();
+        // Fallbacks are answered and counted before classifyFrame() returns.
+        long fallbacksBefore = session.getFallbackCount();
+        Task<List<String>> classification = classifier
+                .classifyFrame(session, frame, frameMetadata.getWidth(), frameMetadata.getHeight());
+        final boolean fellBack = session.getFallbackCount() != fallbacksBefore;
+        return classification
+                .continueWith(
+                        new Continuation<List<String>, Timed>() {
+                            @Override
+                            public Timed then(@NonNull Task<List<String>> task) {
+                                return new Timed(task.getResult(),
+                                        SystemClock.elapsedRealtime() - startMs, fellBack);
+                            }
+                        });
+    }
+
+    /**
+     * Returns the label of the highest score; the lists put it last.
+     */
+    private static String topLabel(List<String> labels) {
+        if (labels.isEmpty()) {
+            return "";
+        }
+        String top = labels.get(labels.size() - 1);
+        int separator = top.lastIndexOf(':');
+        return separator < 0 ? top : top.substring(0, separator);
+    }
+
+    private void show(
+            List<String> result,
+            ByteBuffer data,
+            FrameMetadata frameMetadata,
+            GraphicOverlay graphicOverlay) {
+        List<String> lines = new ArrayList<>(result);
+        ModelVariantSelector.Variant decision = selector.getDecision();
+        lines.add(selector.needsBenchmark()
+                ? "Auto: benchmarking " + selector.getBenchmarkProgress() + "/"
+                        + selector.getRoundsPerBenchmark()
+                : "Auto: " + decision);
+        GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
+        if (!graphicOverlay.isCameraPreviewLive()) {
+            Bitmap bitmap = BitmapUtils.getBitmap(data, frameMetadata);
+            scene.add(new CameraImageGraphic(graphicOverlay, bitmap));
+        }
+        scene.add(labelGraphics.obtain(graphicOverlay).bind(lines));
+        graphicOverlay.publish(scene);
+    }
+
+    @Override
+    public void process(Bitmap bitmap, final GraphicOverlay graphicOverlay) {
+        Task<List<String>> classification;
+        try {
+            classification = floatClassifier.classifyBitmap(stillSession, bitmap);
+        } catch (FirebaseMLException e) {
+            Log.d(TAG, "Custom classifier failed on still image: " + e);
+            return;
+        }
+        classification
+                .addOnSuccessListener(
+                        new OnSuccessListener<List<String>>() {
+                            @Override
+                            public void onSuccess(List<String> result) {
+                                GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
+                                scene.add(labelGraphics.obtain(graphicOverlay).bind(result));
+                                graphicOverlay.publish(scene);
+                            }
+                        })
+                .addOnFailureListener(
+                        new OnFailureListener() {
+                            @Override
+                            public void onFailure(@NonNull Exception e) {
+                                Log.d(TAG, "Custom classifier failed on still image: " + e);
+                            }
+                        });
+    }
+
+    @Override
+    public void stop() {
+        Log.i(TAG, "Selector: " + selector + "; " + quantizedBenchmarkSession + "; "
+                + floatBenchmarkSession);
+        quantizedClassifier.close();
+        floatClassifier.close();
+    }
+}
@@ -0,0 +1,140 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.custommodel;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Converts NV21 camera frames into the classifier's input tensor in a single pass.
+ *
+ * <p>Each output pixel is sampled from the frame (nearest neighbour), converted from YUV to RGB and
+ * normalized row by row straight into the tensor buffer, with no intermediate JPEG or bitmap.
+ * The quantized model takes RGB bytes in [0, 255], the float model floats in [0, 1]. Not
+ * thread-safe.
+ */
+class ClassifierInputConverter {
+
+    private static final float FLOAT_SCALE = 1 / 255.0f;
+
+    private final int outputWidth;
+    private final int outputHeight;
+    /** Frame column sampled for each output column; depends on the frame width. */
+    private final int[] columns;
+    private final int[] rgbRow;
+    private final byte[] byteRow;
+    private final float[] floatRow;
+    private int columnsForWidth = -1;
+
+    ClassifierInputConverter(int outputWidth, int outputHeight) {
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        columns = new int[outputWidth];
+        rgbRow = new int[outputWidth * 3];
+        byteRow = new byte[outputWidth * 3];
+        floatRow = new float[outputWidth * 3];
+    }
+
+    /** Writes a frame into a quantized input tensor. */
+    void convert(byte[] nv21, int width, int height, ByteBuffer input) {
+        input.rewind();
+        for (int oy = 0; oy < outputHeight; oy++) {
+            sampleRow(nv21, width, height, oy);
+            for (int i = 0; i < rgbRow.length; i++) {
+                byteRow[i] = (byte) rgbRow[i];
+            }
+            input.put(byteRow);
+        }
+        input.rewind();
+    }
+
+    /** Writes a frame into a float input tensor. */
+    void convert(byte[] nv21, int width, int height, FloatBuffer input) {
+        input.rewind();
+        for (int oy = 0; oy < outputHeight; oy++) {
+            sampleRow(nv21, width, height, oy);
+            for (int i = 0; i < rgbRow.length; i++) {
+                floatRow[i] = rgbRow[i] * FLOAT_SCALE;
+            }
+            input.put(floatRow);
+        }
+        input.rewind();
+    }
+
+    /** Writes ARGB pixels of an image already at the output size into a quantized tensor. */
+    void convert(int[] argb, ByteBuffer input) {
+        input.rewind();
+        for (int oy = 0; oy < outputHeight; oy++) {
+            unpackRow(argb, oy);
+            for (int i = 0; i < rgbRow.length; i++) {
+                byteRow[i] = (byte) rgbRow[i];
+            }
+            input.put(byteRow);
+        }
+        input.rewind();
+    }
+
+    /** Writes ARGB pixels of an image already at the output size into a float tensor. */
+    void convert(int[] argb, FloatBuffer input) {
+        input.rewind();
+        for (int oy = 0; oy < outputHeight; oy++) {
+            unpackRow(argb, oy);
+            for (int i = 0; i < rgbRow.length; i++) {
+                floatRow[i] = rgbRow[i] * FLOAT_SCALE;
+            }
+            input.put(floatRow);
+        }
+        input.rewind();
+    }
+
+    /** Fills {@link #rgbRow} with row {@code oy} of an ARGB image of the output size. */
+    private void unpackRow(int[] argb, int oy) {
+        int index = 0;
+        for (int i = oy * outputWidth; i < (oy + 1) * outputWidth; i++) {
+            int pixel = argb[i];
+            rgbRow[index++] = (pixel >> 16) & 0xff;
+            rgbRow[index++] = (pixel >> 8) & 0xff;
+            rgbRow[index++] = pixel & 0xff;
+        }
+    }
+
+    /** Fills {@link #rgbRow} with output row {@code oy}. */
+    private void sampleRow(byte[] nv21, int width, int height, int oy) {
+        if (columnsForWidth != width) {
+            for (int ox = 0; ox < outputWidth; ox++) {
+                columns[ox] = (2 * ox + 1) * width / (2 * outputWidth);
+            }
+            columnsForWidth = width;
+        }
+        int y = (2 * oy + 1) * height / (2 * outputHeight);
+        int lumaRow = y * width;
+        int chromaRow = width * height + (y >> 1) * width;
+        int index = 0;
+        for (int ox = 0; ox < outputWidth; ox++) {
+            int x = columns[ox];
+            int luma = (nv21[lumaRow + x] & 0xff) << 10;
+            int uvIndex = chromaRow + (x & ~1);
+            int cr = (nv21[uvIndex] & 0xff) - 128;
+            int cb = (nv21[uvIndex + 1] & 0xff) - 128;
+            // BT.601 full-range conversion in 10-bit fixed point.
+            rgbRow[index++] = clamp((luma + 1436 * cr) >> 10);
+            rgbRow[index++] = clamp((luma - 352 * cb - 731 * cr) >> 10);
+            rgbRow[index++] = clamp((luma + 1815 * cb) >> 10);
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -15,46 +15,48 @@ package com.google.firebase.samples.apps.mlkit.java.custommodel;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.os.SystemClock;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.ml.common.FirebaseMLException;
-import com.google.firebase.ml.common.modeldownload.FirebaseModelDownloadConditions;
-import com.google.firebase.ml.common.modeldownload.FirebaseModelManager;
-import com.google.firebase.ml.custom.FirebaseCustomRemoteModel;
 import com.google.firebase.ml.custom.FirebaseModelDataType;
 import com.google.firebase.ml.custom.FirebaseModelInputOutputOptions;
 import com.google.firebase.ml.custom.FirebaseModelInputs;
-import com.google.firebase.ml.custom.FirebaseModelInterpreter;
-import com.google.firebase.ml.custom.FirebaseModelInterpreterOptions;
 import com.google.firebase.ml.custom.FirebaseModelOutputs;
+import com.google.firebase.samples.apps.mlkit.common.LatencyStats;
+import com.google.firebase.samples.apps.mlkit.common.ModelRegistry;
+import com.google.firebase.samples.apps.mlkit.common.PerceptualHashCache;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.AbstractMap;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A {@code FirebaseModelInterpreter} based image classifier.
+ *
+ * <p>Interpreters come from a {@link ModelInterpreterPool}, and callers classify through a
+ * {@link Session} each, so the live preview and a still-image job can run at the same time without
+ * waiting on each other. When no interpreter is available the caller gets a fallback result
+ * right away instead.
+ *
+ * <p>Labels of recent camera frames are cached by perceptual hash, so a frame that looks like one
+ * classified moments ago gets its labels without running the model.
  */
 public class CustomImageClassifier {
 
@@ -94,15 +96,117 @@ public class CustomImageClassifier {
     private static final int DIM_IMG_SIZE_Y = 299;
     private static final int QUANT_NUM_OF_BYTES_PER_CHANNEL = 1;
     private static final int FLOAT_NUM_OF_BYTES_PER_CHANNEL = 4;
+
+    /**
+     * Number of interpreters, enough for one live preview and one still-image session.
+     */
+    private static final int INTERPRETER_POOL_SIZE = 2;
+
+    /**
+     * Number of preallocated input tensors, one per interpreter.
+     */
+    private static final int INPUT_BUFFER_COUNT = INTERPRETER_POOL_SIZE;
+
+    /**
+     * Result cache bounds: frames in the cache, differing hash bits still counted as the same
+     * view, and how long labels are reused before the model runs again.
+     */
+    private static final int RESULT_CACHE_CAPACITY = 16;
+    private static final int RESULT_CACHE_MAX_DISTANCE = 4;
+    private static final long RESULT_CACHE_MAX_AGE_MS = 2000;
+
+    /**
+     * Number of classifications between two logs of the timing statistics.
+     */
+    private static final int STATS_LOG_INTERVAL = 100;
+
     private Boolean mUseQuantizedModel;
 
-    /* Preallocated buffers for storing image data in. */
-    private final int[] intValues = new int[DIM_IMG_SIZE_X * DIM_IMG_SIZE_Y];
+    /**
+     * One caller of the classifier, such as the live preview. A session runs one classification
+     * at a time and keeps its own latency statistics.
+     */
+    public static final class Session {
+        private final String name;
+        private final boolean useResultCache;
+        private final LatencyStats preprocessingStats = new LatencyStats();
+        private final LatencyStats inferenceStats = new LatencyStats();
+        private final AtomicBoolean busy = new AtomicBoolean();
+        private final AtomicLong fallbacks = new AtomicLong();
+        private volatile List<String> lastResult;
+
+        private Session(String name, boolean useResultCache) {
+            this.name = name;
+            this.useResultCache = useResultCache;
+        }
+
+        /**
+         * Time spent turning images into input tensors.
+         */
+        public LatencyStats getPreprocessingStats() {
+            return preprocessingStats;
+        }
+
+        /**
+         * Time from handing an input tensor to the interpreter until its output is available.
+         */
+        public LatencyStats getInferenceStats() {
+            return inferenceStats;
+        }
+
+        /**
+         * Number of requests answered with a fallback result instead of running the model.
+         */
+        public long getFallbackCount() {
+            return fallbacks.get();
+        }
+
+        @Override
+        public String toString() {
+            return name + ": preprocessing " + preprocessingStats + ", inference "
+                    + inferenceStats + ", fallbacks=" + fallbacks.get();
+        }
+    }
 
     /**
-     * An instance of the driver class to run model inference with Firebase.
+     * A preallocated input tensor, with a float view of it for the float model.
      */
-    private FirebaseModelInterpreter interpreter;
+    private static final class Input {
+        final ByteBuffer bytes;
+        final FloatBuffer floats;
+
+        Input(int bytesPerChannel) {
+            bytes = ByteBuffer.allocateDirect(bytesPerChannel * DIM_BATCH_SIZE * DIM_IMG_SIZE_X
+                    * DIM_IMG_SIZE_Y * DIM_PIXEL_SIZE);
+            bytes.order(ByteOrder.nativeOrder());
+            floats = bytes.asFloatBuffer();
+        }
+    }
+
+    /**
+     * Input tensors that are not in use by the interpreter.
+     */
+    @GuardedBy("freeInputs")
+    private final ArrayDeque<Input> freeInputs = new ArrayDeque<>(INPUT_BUFFER_COUNT);
+
+    @GuardedBy("converter")
+    private final ClassifierInputConverter converter =
+            new ClassifierInputConverter(DIM_IMG_SIZE_X, DIM_IMG_SIZE_Y);
+
+    /**
+     * Interpreters of the model, shared by all sessions and by other classifiers of the same model.
+     */
+    private final ModelRegistry.Handle<ModelInterpreterPool> interpreterPoolHandle;
+    private final ModelInterpreterPool interpreterPool;
+
+    /**
+     * Set by {@link #close()}; the pool itself may stay open for other classifiers.
+     */
+    private volatile boolean closed;
+
+    private final PerceptualHashCache<List<String>> resultCache =
+            new PerceptualHashCache<>(
+                    RESULT_CACHE_CAPACITY, RESULT_CACHE_MAX_DISTANCE, RESULT_CACHE_MAX_AGE_MS);
 
     /**
      * Data configuration of input & output data of model.
@@ -112,64 +216,36 @@ public class CustomImageClassifier {
     /**
      * Labels corresponding to the output of the vision model.
      */
+    private final ModelRegistry.Handle<List<String>> labelListHandle;
     private final List<String> labelList;
 
-    private final PriorityQueue<Map.Entry<String, Float>> sortedLabels =
-            new PriorityQueue<>(
-                    RESULTS_TO_SHOW,
-                    new Comparator<Map.Entry<String, Float>>() {
-                        @Override
-                        public int compare(Map.Entry<String, Float> o1,
-                                           Map.Entry<String, Float> o2) {
-                            return (o1.getValue()).compareTo(o2.getValue());
-                        }
-                    });
+    /**
+     * Top-K selection results, one per thread so classifications never wait on each other.
+     */
+    private final ThreadLocal<TopKSelector.Result> topLabels =
+            new ThreadLocal<TopKSelector.Result>() {
+                @Override
+                protected TopKSelector.Result initialValue() {
+                    return new TopKSelector.Result(RESULTS_TO_SHOW);
+                }
+            };
 
     /**
      * Initializes an {@code CustomImageClassifier}.
      */
-    CustomImageClassifier(final Context context, boolean useQuantizedModel) throws FirebaseMLException {
+    CustomImageClassifier(final Context context, boolean useQuantizedModel)
+            throws FirebaseMLException, IOException {
         mUseQuantizedModel = useQuantizedModel;
         final String remoteModelName = mUseQuantizedModel ? REMOTE_QUANT_MODEL_NAME :
                 REMOTE_FLOAT_MODEL_NAME;
-        final FirebaseCustomRemoteModel remoteModel =
-                new FirebaseCustomRemoteModel.Builder(remoteModelName).build();
-        final FirebaseModelManager firebaseModelManager = FirebaseModelManager.getInstance();
-        firebaseModelManager
-                .isModelDownloaded(remoteModel)
-                .continueWithTask(
-                        new Continuation<Boolean, Task<Void>>() {
-                            @Override
-                            public Task<Void> then(@NonNull Task<Boolean> task) throws Exception {
-                                // Create update condition if model is already downloaded,
-                                // otherwise create download
-                                // condition.
-                                FirebaseModelDownloadConditions conditions =
-                                        task.getResult()
-                                                ? new FirebaseModelDownloadConditions.Builder()
-                                                .requireWifi()
-                                                .build() // Update condition that requires wifi.
-                                                : new FirebaseModelDownloadConditions.Builder()
-                                                .build(); // Download condition.
-                                return firebaseModelManager.download(remoteModel, conditions);
-                            }
-                        })
-                .addOnSuccessListener(
-                        new OnSuccessListener<Void>() {
-                            @Override
-                            public void onSuccess(Void ignored) {
-                                FirebaseModelInterpreterOptions interpreterOptions =
-                                        new FirebaseModelInterpreterOptions.Builder(
-                                                new FirebaseCustomRemoteModel.Builder(remoteModelName).build())
-                                                .build();
-                                try {
-                                    interpreter =
-                                            FirebaseModelInterpreter.getInstance(interpreterOptions);
-                                } catch (FirebaseMLException e) {
-                                    Log.e(TAG, "Failed to build FirebaseModelInterpreter. ", e);
-                                }
-                            }
-                        })
+        ModelRegistry registry = ModelRegistry.getInstance(context);
+        labelListHandle = registry.acquire(LABEL_PATH, ModelRegistry.labelList(LABEL_PATH));
+        labelList = labelListHandle.get();
+        interpreterPoolHandle =
+                registry.acquire(remoteModelName, interpreterPoolLoader(remoteModelName));
+        interpreterPool = interpreterPoolHandle.get();
+        interpreterPool
+                .whenReady()
                 .addOnFailureListener(
                         new OnFailureListener() {
                             @Override
@@ -183,11 +259,14 @@ public class CustomImageClassifier {
                             }
                         });
 
-        labelList = loadLabelList(context.getApplicationContext());
         Log.d(TAG, "Created a Custom Image Classifier.");
         int[] inputDims = {DIM_BATCH_SIZE, DIM_IMG_SIZE_X, DIM_IMG_SIZE_Y, DIM_PIXEL_SIZE};
         int[] outputDims = {1, labelList.size()};
 
+        for (int i = 0; i < INPUT_BUFFER_COUNT; i++) {
+            freeInputs.add(new Input(bytesPerChannel()));
+        }
+
         int dataType = mUseQuantizedModel ? FirebaseModelDataType.BYTE :
                 FirebaseModelDataType.FLOAT32;
         dataOptions =
@@ -198,24 +277,160 @@ public class CustomImageClassifier {
         Log.d(TAG, "Configured input & output data for the custom image classifier.");
     }
 
+    /**
+     * Opens a session, named for the logs, that shares the frame result cache.
+     */
+    Session openSession(String name) {
+        return new Session(name, true);
+    }
+
+    /**
+     * Opens a session that always runs the model, e.g. to measure it.
+     */
+    Session openUncachedSession(String name) {
+        return new Session(name, false);
+    }
+
+    /**
+     * Returns true once the model is downloaded and interpreters are available.
+     */
+    boolean isReady() {
+        return !closed && interpreterPool.getState() == ModelInterpreterPool.State.READY;
+    }
+
     /**
      * Classifies a frame from the preview stream.
      */
-    Task<List<String>> classifyFrame(ByteBuffer buffer, int width, int height)
+    Task<List<String>> classifyFrame(Session session, ByteBuffer buffer, int width, int height)
             throws FirebaseMLException {
-        if (interpreter == null) {
-            Log.e(TAG, "Image classifier has not been initialized; Skipped.");
-            List<String> uninitialized = new ArrayList<>();
-            uninitialized.add("Uninitialized Classifier.");
-            Tasks.forResult(uninitialized);
+        long frameHash = 0;
+        if (session.useResultCache) {
+            frameHash = PerceptualHashCache.dHash(buffer.array(), width, height);
+            List<String> cached = resultCache.get(frameHash);
+            if (cached != null) {
+                return Tasks.forResult(cached);
+            }
+        }
+        ModelInterpreterPool.Lease lease = tryStart(session);
+        if (lease == null) {
+            return Tasks.forResult(fallbackResult(session));
         }
         // Create input data.
-        ByteBuffer imgData = convertBitmapToByteBuffer(buffer, width, height);
+        Input input = acquireInput();
+        long startTime = SystemClock.elapsedRealtime();
+        synchronized (converter) {
+            if (mUseQuantizedModel) {
+                converter.convert(buffer.array(), width, height, input.bytes);
+            } else {
+                converter.convert(buffer.array(), width, height, input.floats);
+            }
+        }
+        return run(session, lease, input, SystemClock.elapsedRealtime() - startTime,
+                session.useResultCache, frameHash);
+    }
+
+    /**
+     * Classifies a still image.
+     */
+    Task<List<String>> classifyBitmap(Session session, Bitmap bitmap) throws FirebaseMLException {
+        ModelInterpreterPool.Lease lease = tryStart(session);
+        if (lease == null) {
+            return Tasks.forResult(fallbackResult(session));
+        }
+        Input input = acquireInput();
+        long startTime = SystemClock.elapsedRealtime();
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, DIM_IMG_SIZE_X, DIM_IMG_SIZE_Y, true);
+        int[] pixels = new int[DIM_IMG_SIZE_X * DIM_IMG_SIZE_Y];
+        scaled.getPixels(pixels, 0, DIM_IMG_SIZE_X, 0, 0, DIM_IMG_SIZE_X, DIM_IMG_SIZE_Y);
+        synchronized (converter) {
+            if (mUseQuantizedModel) {
+                converter.convert(pixels, input.bytes);
+            } else {
+                converter.convert(pixels, input.floats);
+            }
+        }
+        return run(session, lease, input, SystemClock.elapsedRealtime() - startTime, false, 0);
+    }
+
+    /**
+     * Hit rate and saved inference time of the frame result cache.
+     */
+    PerceptualHashCache<List<String>> getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Releases the interpreters, which are closed unless another classifier still uses them.
+     * Sessions get fallback results from then on.
+     */
+    void close() {
+        closed = true;
+        interpreterPoolHandle.release();
+        labelListHandle.release();
+    }
+
+    /**
+     * Marks the session busy and leases an interpreter, or returns null if either is unavailable.
+     */
+    @Nullable
+    private ModelInterpreterPool.Lease tryStart(Session session) {
+        if (closed || !session.busy.compareAndSet(false, true)) {
+            return null;
+        }
+        ModelInterpreterPool.Lease lease = interpreterPool.tryAcquire();
+        if (lease == null) {
+            session.busy.set(false);
+        }
+        return lease;
+    }
+
+    /**
+     * The result given when the model cannot run: the session's last result while the model is
+     * merely busy, or a status line otherwise.
+     */
+    private List<String> fallbackResult(Session session) {
+        session.fallbacks.incrementAndGet();
+        if (closed) {
+            return Collections.singletonList("Classifier unavailable.");
+        }
+        switch (interpreterPool.getState()) {
+            case DOWNLOADING:
+                return Collections.singletonList("Uninitialized Classifier.");
+            case FAILED:
+                return Collections.singletonList("Classifier unavailable.");
+            default:
+                List<String> last = session.lastResult;
+                return last != null ? last : Collections.<String>emptyList();
+        }
+    }
 
-        FirebaseModelInputs inputs = new FirebaseModelInputs.Builder().add(imgData).build();
-        // Here's where the magic happens!!
-        return interpreter
-                .run(inputs, dataOptions)
+    private Task<List<String>> run(
+            final Session session,
+            final ModelInterpreterPool.Lease lease,
+            final Input input,
+            final long preprocessingMs,
+            final boolean cacheResult,
+            final long frameHash)
+            throws FirebaseMLException {
+        FirebaseModelInputs inputs = new FirebaseModelInputs.Builder().add(input.bytes).build();
+        final long inferenceStartMs = SystemClock.elapsedRealtime();
+        Task<FirebaseModelOutputs> run;
+        try {
+            // Here's where the magic happens!!
+            run = lease.getInterpreter().run(inputs, dataOptions);
+        } catch (FirebaseMLException e) {
+            finish(session, lease, input);
+            throw e;
+        }
+        return run
+                .addOnCompleteListener(new OnCompleteListener<FirebaseModelOutputs>() {
+                    @Override
+                    public void onComplete(@NonNull Task<FirebaseModelOutputs> task) {
+                        finish(session, lease, input);
+                        recordTimes(session, preprocessingMs,
+                                SystemClock.elapsedRealtime() - inferenceStartMs);
+                    }
+                })
                 .addOnFailureListener(new OnFailureListener() {
                     @Override
                     public void onFailure(@NonNull Exception e) {
@@ -227,121 +442,120 @@ public class CustomImageClassifier {
                         new Continuation<FirebaseModelOutputs, List<String>>() {
                             @Override
                             public List<String> then(@NonNull Task<FirebaseModelOutputs> task) throws Exception {
+                                List<String> labels;
                                 if (mUseQuantizedModel) {
                                     byte[][] labelProbArray =
                                             task.getResult().<byte[][]>getOutput(0);
-                                    return getTopLabels(labelProbArray);
+                                    labels = getTopLabels(labelProbArray);
                                 } else {
                                     float[][] labelProbArray =
                                             task.getResult().<float[][]>getOutput(0);
-                                    return getTopLabels(labelProbArray);
-
+                                    labels = getTopLabels(labelProbArray);
+                                }
+                                session.lastResult = labels;
+                                if (cacheResult) {
+                                    resultCache.put(frameHash, labels, preprocessingMs
+                                            + SystemClock.elapsedRealtime() - inferenceStartMs);
                                 }
+                                return labels;
                             }
                         });
     }
 
+    private void finish(Session session, ModelInterpreterPool.Lease lease, Input input) {
+        releaseInput(input);
+        lease.release();
+        session.busy.set(false);
+    }
+
     /**
-     * Reads label list from Assets.
+     * Loads the interpreter pool of a remote model; the download runs in the background.
      */
-    private List<String> loadLabelList(Context context) {
-        List<String> labelList = new ArrayList<>();
-        try (BufferedReader reader =
-                     new BufferedReader(new InputStreamReader(context.getAssets().open(LABEL_PATH)))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                labelList.add(line);
+    private static ModelRegistry.Loader<ModelInterpreterPool> interpreterPoolLoader(
+            final String remoteModelName) {
+        return new ModelRegistry.Loader<ModelInterpreterPool>() {
+            @Override
+            public ModelInterpreterPool load(Context context) {
+                return new ModelInterpreterPool(remoteModelName, INTERPRETER_POOL_SIZE);
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to read label list.", e);
-        }
-        return labelList;
+
+            @Override
+            public long residentBytes(Context context, ModelInterpreterPool pool) {
+                // Downloaded models are managed by ML Kit.
+                return -1;
+            }
+
+            @Override
+            public void close(ModelInterpreterPool pool) {
+                pool.close();
+            }
+        };
     }
 
-    /**
-     * Writes Image data into a {@code ByteBuffer}.
-     */
-    private synchronized ByteBuffer convertBitmapToByteBuffer(
-            ByteBuffer buffer, int width, int height) {
-        int bytesPerChannel = mUseQuantizedModel ? QUANT_NUM_OF_BYTES_PER_CHANNEL :
+    private int bytesPerChannel() {
+        return mUseQuantizedModel ? QUANT_NUM_OF_BYTES_PER_CHANNEL :
                 FLOAT_NUM_OF_BYTES_PER_CHANNEL;
-        ByteBuffer imgData =
-                ByteBuffer.allocateDirect(
-                        bytesPerChannel * DIM_BATCH_SIZE * DIM_IMG_SIZE_X * DIM_IMG_SIZE_Y * DIM_PIXEL_SIZE);
-        imgData.order(ByteOrder.nativeOrder());
-        Bitmap bitmap = createResizedBitmap(buffer, width, height);
-        imgData.rewind();
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(),
-                bitmap.getHeight());
-        // Convert the image to int points.
-        int pixel = 0;
-        long startTime = SystemClock.uptimeMillis();
-        for (int i = 0; i < DIM_IMG_SIZE_X; ++i) {
-            for (int j = 0; j < DIM_IMG_SIZE_Y; ++j) {
-                final int val = intValues[pixel++];
-                // Normalize the values according to the model used:
-                // Quantized model expects a [0, 255] scale while a float model expects [0, 1].
-                if (mUseQuantizedModel) {
-                    imgData.put((byte) ((val >> 16) & 0xFF));
-                    imgData.put((byte) ((val >> 8) & 0xFF));
-                    imgData.put((byte) (val & 0xFF));
-                } else {
-                    imgData.putFloat(((val >> 16) & 0xFF) / 255.0f);
-                    imgData.putFloat(((val >> 8) & 0xFF) / 255.0f);
-                    imgData.putFloat((val & 0xFF) / 255.0f);
-                }
-            }
-        }
-        long endTime = SystemClock.uptimeMillis();
-        Log.d(TAG, "Timecost to put values into ByteBuffer: " + (endTime - startTime));
-        return imgData;
     }
 
     /**
-     * Resizes image data from {@code ByteBuffer}.
+     * Takes a free input tensor. A new one is allocated only if the interpreter still holds all
+     * preallocated ones.
      */
-    private Bitmap createResizedBitmap(ByteBuffer buffer, int width, int height) {
-        YuvImage img = new YuvImage(buffer.array(), ImageFormat.NV21, width, height, null);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        img.compressToJpeg(new Rect(0, 0, img.getWidth(), img.getHeight()), 50, out);
-        byte[] imageBytes = out.toByteArray();
-        Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-        return Bitmap.createScaledBitmap(bitmap, DIM_IMG_SIZE_X, DIM_IMG_SIZE_Y, true);
+    private Input acquireInput() {
+        synchronized (freeInputs) {
+            Input input = freeInputs.poll();
+            if (input != null) {
+                return input;
+            }
+        }
+        Log.d(TAG, "All input buffers in use; allocating another one.");
+        return new Input(bytesPerChannel());
     }
 
-    private synchronized List<String> getTopLabels(byte[][] labelProbArray) {
-        for (int i = 0; i < labelList.size(); ++i) {
-            sortedLabels.add(
-                    new AbstractMap.SimpleEntry<>(labelList.get(i),
-                            (labelProbArray[0][i] & 0xff) / 255.0f));
-            if (sortedLabels.size() > RESULTS_TO_SHOW) {
-                sortedLabels.poll();
+    private void releaseInput(Input input) {
+        synchronized (freeInputs) {
+            if (freeInputs.size() < INPUT_BUFFER_COUNT) {
+                freeInputs.add(input);
             }
         }
-        return getTopKLabels();
     }
 
-    private synchronized List<String> getTopLabels(float[][] labelProbArray) {
-        for (int i = 0; i < labelList.size(); ++i) {
-            sortedLabels.add(
-                    new AbstractMap.SimpleEntry<>(labelList.get(i), labelProbArray[0][i]));
-            if (sortedLabels.size() > RESULTS_TO_SHOW) {
-                sortedLabels.poll();
-            }
+    private void recordTimes(Session session, long preprocessingMs, long inferenceMs) {
+        session.preprocessingStats.record(preprocessingMs);
+        session.inferenceStats.record(inferenceMs);
+        if (session.inferenceStats.getCount() % STATS_LOG_INTERVAL == 0) {
+            Log.i(TAG, session + "; " + interpreterPool + "; result cache " + resultCache);
         }
-        return getTopKLabels();
+    }
+
+    private List<String> getTopLabels(byte[][] labelProbArray) {
+        TopKSelector.Result result = topLabels.get();
+        TopKSelector.select(labelProbArray[0], result);
+        return getTopKLabels(result);
+    }
+
+    private List<String> getTopLabels(float[][] labelProbArray) {
+        TopKSelector.Result result = topLabels.get();
+        TopKSelector.select(labelProbArray[0], result);
+        return getTopKLabels(result);
     }
 
     /**
-     * Gets the top-K labels, to be shown in UI as the results.
+     * Gets the top-K labels, to be shown in UI as the results. The lowest score comes first, as
+     * {@link LabelGraphic} draws the list bottom up.
      */
-    private synchronized List<String> getTopKLabels() {
-        List<String> result = new ArrayList<>();
-        final int size = sortedLabels.size();
-        for (int i = 0; i < size; ++i) {
-            Map.Entry<String, Float> label = sortedLabels.poll();
-            result.add(label.getKey() + ":" + label.getValue());
+    private List<String> getTopKLabels(TopKSelector.Result result) {
+        List<String> labels = new ArrayList<>(result.size());
+        StringBuilder builder = new StringBuilder();
+        for (int rank = result.size() - 1; rank >= 0; --rank) {
+            int index = result.getIndex(rank);
+            if (index >= labelList.size()) {
+                continue;
+            }
+            builder.setLength(0);
+            builder.append(labelList.get(index)).append(':').append(result.getScore(rank));
+            labels.add(builder.toString());
         }
-        return result;
+        return labels;
     }
 }
@@ -20,30 +20,41 @@ import android.util.Log;
 
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.ml.common.FirebaseMLException;
 import com.google.firebase.samples.apps.mlkit.common.BitmapUtils;
 import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
 import com.google.firebase.samples.apps.mlkit.common.VisionImageProcessor;
 
+import java.io.IOException;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
- * Custom Image Classifier Demo.
+ * Custom Image Classifier Demo. Camera frames and still images are classified in separate
+ * sessions, so a still image does not wait for the live preview.
  */
 public class CustomImageClassifierProcessor implements VisionImageProcessor {
 
     private static final String TAG = "Custom";
     private final CustomImageClassifier classifier;
+    private final CustomImageClassifier.Session liveSession;
+    private final CustomImageClassifier.Session stillSession;
     private final Reference<Activity> activityRef;
+    private final GraphicPool<LabelGraphic> labelGraphics =
+            new GraphicPool<>(2, LabelGraphic.FACTORY);
 
-    public CustomImageClassifierProcessor(Activity activity, boolean useQuantizedModel) throws FirebaseMLException {
+    public CustomImageClassifierProcessor(Activity activity, boolean useQuantizedModel)
+            throws FirebaseMLException, IOException {
         activityRef = new WeakReference<>(activity);
         classifier = new CustomImageClassifier(activity.getApplicationContext(), useQuantizedModel);
+        liveSession = classifier.openSession("live");
+        stillSession = classifier.openSession("still");
     }
 
     @Override
@@ -58,21 +69,22 @@ public class CustomImageClassifierProcessor implements VisionImageProcessor {
         }
 
         classifier
-                .classifyFrame(data, frameMetadata.getWidth(), frameMetadata.getHeight())
+                .classifyFrame(liveSession, data, frameMetadata.getWidth(),
+                        frameMetadata.getHeight())
                 .addOnSuccessListener(
                         activity,
                         new OnSuccessListener<List<String>>() {
                             @Override
                             public void onSuccess(List<String> result) {
-                                LabelGraphic labelGraphic = new LabelGraphic(graphicOverlay,
-                                        result);
-                                Bitmap bitmap = BitmapUtils.getBitmap(data, frameMetadata);
-                                CameraImageGraphic imageGraphic =
-                                        new CameraImageGraphic(graphicOverlay, bitmap);
-                                graphicOverlay.clear();
-                                graphicOverlay.add(imageGraphic);
-                                graphicOverlay.add(labelGraphic);
-                                graphicOverlay.postInvalidate();
+                                LabelGraphic labelGraphic =
+                                        labelGraphics.obtain(graphicOverlay).bind(result);
+                                GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
+                                if (!graphicOverlay.isCameraPreviewLive()) {
+                                    Bitmap bitmap = BitmapUtils.getBitmap(data, frameMetadata);
+                                    scene.add(new CameraImageGraphic(graphicOverlay, bitmap));
+                                }
+                                scene.add(labelGraphic);
+                                graphicOverlay.publish(scene);
                             }
                         })
                 .addOnFailureListener(
@@ -86,11 +98,37 @@ public class CustomImageClassifierProcessor implements VisionImageProcessor {
     }
 
     @Override
-    public void process(Bitmap bitmap, GraphicOverlay graphicOverlay) {
-        // nop
+    public void process(Bitmap bitmap, final GraphicOverlay graphicOverlay) {
+        Task<List<String>> classification;
+        try {
+            classification = classifier.classifyBitmap(stillSession, bitmap);
+        } catch (FirebaseMLException e) {
+            Log.d(TAG, "Custom classifier failed on still image: " + e);
+            return;
+        }
+        classification
+                .addOnSuccessListener(
+                        new OnSuccessListener<List<String>>() {
+                            @Override
+                            public void onSuccess(List<String> result) {
+                                GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
+                                scene.add(labelGraphics.obtain(graphicOverlay).bind(result));
+                                graphicOverlay.publish(scene);
+                            }
+                        })
+                .addOnFailureListener(
+                        new OnFailureListener() {
+                            @Override
+                            public void onFailure(@NonNull Exception e) {
+                                Log.d(TAG, "Custom classifier failed on still image: " + e);
+                            }
+                        });
     }
 
     @Override
     public void stop() {
+        Log.i(TAG, liveSession + "; " + stillSession + "; result cache "
+                + classifier.getResultCache() + "; label graphics " + labelGraphics);
+        classifier.close();
     }
 }
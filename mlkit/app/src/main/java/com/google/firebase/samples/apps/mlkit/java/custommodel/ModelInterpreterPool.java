@@ -0,0 +1,246 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.custommodel;
+
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.ml.common.FirebaseMLException;
+import com.google.firebase.ml.common.modeldownload.FirebaseModelDownloadConditions;
+import com.google.firebase.ml.common.modeldownload.FirebaseModelManager;
+import com.google.firebase.ml.custom.FirebaseCustomRemoteModel;
+import com.google.firebase.ml.custom.FirebaseModelInterpreter;
+import com.google.firebase.ml.custom.FirebaseModelInterpreterOptions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small pool of {@code FirebaseModelInterpreter}s for one remote custom model.
+ *
+ * <p>The pool starts in {@link State#DOWNLOADING} and moves to {@link State#READY} once the model
+ * is downloaded and the interpreters are built, or to {@link State#FAILED} if either step fails.
+ * {@link #tryAcquire()} never blocks: it returns null unless the pool is ready and an interpreter
+ * is free, so callers can fall back to another result instead of queueing behind a busy
+ * interpreter.
+ */
+public class ModelInterpreterPool {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "ModelInterpreterPool";
+
+    /**
+     * Readiness of the pool.
+     */
+    public enum State {
+        DOWNLOADING,
+        READY,
+        FAILED
+    }
+
+    /**
+     * Exclusive use of one interpreter until {@link #release()} is called.
+     */
+    public final class Lease {
+        private final FirebaseModelInterpreter interpreter;
+        private boolean released;
+
+        private Lease(FirebaseModelInterpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        public FirebaseModelInterpreter getInterpreter() {
+            return interpreter;
+        }
+
+        /**
+         * Returns the interpreter to the pool. Calling this more than once has no effect.
+         */
+        public void release() {
+            synchronized (ModelInterpreterPool.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                if (state == State.READY) {
+                    free.add(interpreter);
+                }
+            }
+        }
+    }
+
+    private final String remoteModelName;
+    private final int size;
+    private final TaskCompletionSource<Void> ready = new TaskCompletionSource<>();
+
+    @GuardedBy("this")
+    private State state = State.DOWNLOADING;
+
+    @GuardedBy("this")
+    private final List<FirebaseModelInterpreter> interpreters = new ArrayList<>();
+
+    @GuardedBy("this")
+    private final ArrayDeque<FirebaseModelInterpreter> free = new ArrayDeque<>();
+
+    @GuardedBy("this")
+    private long acquired;
+
+    @GuardedBy("this")
+    private long unavailable;
+
+    /**
+     * Creates a pool of {@code size} interpreters and starts downloading the model.
+     */
+    public ModelInterpreterPool(String remoteModelName, int size) {
+        this.remoteModelName = remoteModelName;
+        this.size = size;
+        final FirebaseCustomRemoteModel remoteModel =
+                new FirebaseCustomRemoteModel.Builder(remoteModelName).build();
+        final FirebaseModelManager firebaseModelManager = FirebaseModelManager.getInstance();
+        firebaseModelManager
+                .isModelDownloaded(remoteModel)
+                .continueWithTask(
+                        new Continuation<Boolean, Task<Void>>() {
+                            @Override
+                            public Task<Void> then(@NonNull Task<Boolean> task) throws Exception {
+                                // Create update condition if model is already downloaded,
+                                // otherwise create download condition.
+                                FirebaseModelDownloadConditions conditions =
+                                        task.getResult()
+                                                ? new FirebaseModelDownloadConditions.Builder()
+                                                .requireWifi()
+                                                .build() // Update condition that requires wifi.
+                                                : new FirebaseModelDownloadConditions.Builder()
+                                                .build(); // Download condition.
+                                return firebaseModelManager.download(remoteModel, conditions);
+                            }
+                        })
+                .addOnSuccessListener(
+                        new OnSuccessListener<Void>() {
+                            @Override
+                            public void onSuccess(Void ignored) {
+                                onDownloaded(remoteModel);
+                            }
+                        })
+                .addOnFailureListener(
+                        new OnFailureListener() {
+                            @Override
+                            public void onFailure(@NonNull Exception e) {
+                                fail(e);
+                            }
+                        });
+    }
+
+    private void onDownloaded(FirebaseCustomRemoteModel remoteModel) {
+        List<FirebaseModelInterpreter> built = new ArrayList<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                built.add(FirebaseModelInterpreter.getInstance(
+                        new FirebaseModelInterpreterOptions.Builder(remoteModel).build()));
+            }
+        } catch (FirebaseMLException e) {
+            Log.e(TAG, "Failed to build FirebaseModelInterpreter. ", e);
+            closeAll(built);
+            fail(e);
+            return;
+        }
+        synchronized (this) {
+            if (state != State.DOWNLOADING) {
+                // Closed while downloading.
+                closeAll(built);
+                return;
+            }
+            interpreters.addAll(built);
+            free.addAll(built);
+            state = State.READY;
+        }
+        Log.d(TAG, "Model " + remoteModelName + " ready with " + size + " interpreters.");
+        ready.trySetResult(null);
+    }
+
+    private void fail(Exception e) {
+        synchronized (this) {
+            if (state != State.DOWNLOADING) {
+                return;
+            }
+            state = State.FAILED;
+        }
+        Log.e(TAG, "Model " + remoteModelName + " is unavailable.", e);
+        ready.trySetException(e);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Completes when the pool becomes ready, or fails with the download or build error.
+     */
+    public Task<Void> whenReady() {
+        return ready.getTask();
+    }
+
+    /**
+     * Leases a free interpreter, or returns null if the pool is not ready or all interpreters are
+     * in use.
+     */
+    @Nullable
+    public synchronized Lease tryAcquire() {
+        FirebaseModelInterpreter interpreter = state == State.READY ? free.poll() : null;
+        if (interpreter == null) {
+            unavailable++;
+            return null;
+        }
+        acquired++;
+        return new Lease(interpreter);
+    }
+
+    /**
+     * Closes all interpreters and moves the pool to {@link State#FAILED}.
+     */
+    public void close() {
+        List<FirebaseModelInterpreter> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(interpreters);
+            interpreters.clear();
+            free.clear();
+            // A closed pool can no longer serve anyone.
+            state = State.FAILED;
+        }
+        // whenReady() is left pending; closing is not a failure to report.
+        closeAll(toClose);
+    }
+
+    private static void closeAll(List<FirebaseModelInterpreter> toClose) {
+        for (FirebaseModelInterpreter interpreter : toClose) {
+            interpreter.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %s, %d/%d free, acquired=%d unavailable=%d",
+                remoteModelName, state, free.size(), size, acquired, unavailable);
+    }
+}
@@ -0,0 +1,148 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.custommodel;
+
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+/**
+ * Picks the quantized or the float classifier variant from benchmarks run on the device.
+ *
+ * <p>A benchmark is a number of rounds, each classifying the same frame with both variants one
+ * after the other, recording both latencies and whether their top labels agree. The first round
+ * of every benchmark only warms the interpreters up. The faster variant is chosen if the variants
+ * agreed on at least {@code minAgreement} of the rounds; otherwise the float variant, taken as
+ * the reference, is kept. The choice is re-evaluated every {@code reevaluateIntervalMs}, since
+ * thermal throttling can change which variant is faster.
+ */
+public class ModelVariantSelector {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "ModelVariantSelector";
+
+    private static final int WARM_UP_ROUNDS = 1;
+
+    /**
+     * The model variants to choose from.
+     */
+    public enum Variant {
+        QUANTIZED,
+        FLOAT
+    }
+
+    private final int roundsPerBenchmark;
+    private final float minAgreement;
+    private final long reevaluateIntervalMs;
+
+    @GuardedBy("this")
+    private int rounds;
+
+    @GuardedBy("this")
+    private long quantizedTotalMs;
+
+    @GuardedBy("this")
+    private long floatTotalMs;
+
+    @GuardedBy("this")
+    private int agreements;
+
+    @GuardedBy("this")
+    @Nullable
+    private Variant decision;
+
+    @GuardedBy("this")
+    private long decidedAtMs;
+
+    @GuardedBy("this")
+    private String lastBenchmark = "none";
+
+    /**
+     * @param roundsPerBenchmark measured rounds per benchmark, not counting the warm-up round
+     * @param minAgreement fraction of rounds whose top labels must agree to pick the faster variant
+     * @param reevaluateIntervalMs time between the end of one benchmark and the start of the next
+     */
+    public ModelVariantSelector(
+            int roundsPerBenchmark, float minAgreement, long reevaluateIntervalMs) {
+        this.roundsPerBenchmark = roundsPerBenchmark;
+        this.minAgreement = minAgreement;
+        this.reevaluateIntervalMs = reevaluateIntervalMs;
+    }
+
+    /**
+     * Returns true while there is no decision or the last one is due for re-evaluation.
+     */
+    public synchronized boolean needsBenchmark() {
+        return decision == null
+                || SystemClock.elapsedRealtime() - decidedAtMs > reevaluateIntervalMs;
+    }
+
+    /**
+     * Records one benchmark round. The decision is updated once enough rounds are recorded.
+     */
+    public synchronized void recordRound(long quantizedMs, long floatMs, boolean topLabelsAgree) {
+        rounds++;
+        if (rounds <= WARM_UP_ROUNDS) {
+            return;
+        }
+        quantizedTotalMs += quantizedMs;
+        floatTotalMs += floatMs;
+        if (topLabelsAgree) {
+            agreements++;
+        }
+        if (rounds - WARM_UP_ROUNDS < roundsPerBenchmark) {
+            return;
+        }
+        float agreement = (float) agreements / roundsPerBenchmark;
+        Variant faster = quantizedTotalMs <= floatTotalMs ? Variant.QUANTIZED : Variant.FLOAT;
+        decision = agreement >= minAgreement ? faster : Variant.FLOAT;
+        decidedAtMs = SystemClock.elapsedRealtime();
+        lastBenchmark = String.format("quantized=%.1fms float=%.1fms agreement=%.2f",
+                (float) quantizedTotalMs / roundsPerBenchmark,
+                (float) floatTotalMs / roundsPerBenchmark,
+                agreement);
+        Log.i(TAG, "Selected " + decision + " (" + lastBenchmark + ")");
+        rounds = 0;
+        quantizedTotalMs = 0;
+        floatTotalMs = 0;
+        agreements = 0;
+    }
+
+    /**
+     * Returns the selected variant, or null until the first benchmark has completed.
+     */
+    @Nullable
+    public synchronized Variant getDecision() {
+        return decision;
+    }
+
+    /**
+     * Number of rounds recorded in the benchmark in progress, warm-up included.
+     */
+    public synchronized int getBenchmarkProgress() {
+        return rounds;
+    }
+
+    public int getRoundsPerBenchmark() {
+        return roundsPerBenchmark + WARM_UP_ROUNDS;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "decision=" + decision + " last benchmark: " + lastBenchmark;
+    }
+}
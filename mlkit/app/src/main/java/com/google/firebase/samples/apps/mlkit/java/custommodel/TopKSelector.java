@@ -0,0 +1,97 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.custommodel;
+
+/**
+ * Selects the highest scores of a classifier output without boxing or allocating.
+ *
+ * <p>The selection keeps the best {@code k} candidates in a small sorted array and only touches it
+ * when a score beats the current k-th best, so a pass over ~1000 scores is a single scan for the
+ * small k used to show results. The selector itself is stateless; each thread brings its own
+ * {@link Result}.
+ */
+public final class TopKSelector {
+
+    /** The selected label indices and scores, highest score first. Reusable across calls. */
+    public static final class Result {
+        private final int[] indices;
+        private final float[] scores;
+        private int size;
+
+        public Result(int k) {
+            indices = new int[k];
+            scores = new float[k];
+        }
+
+        /** Number of selected entries; less than k only if the output was shorter. */
+        public int size() {
+            return size;
+        }
+
+        public int getIndex(int rank) {
+            return indices[rank];
+        }
+
+        public float getScore(int rank) {
+            return scores[rank];
+        }
+    }
+
+    private TopKSelector() {}
+
+    /** Selects the top scores of a float output. */
+    public static void select(float[] scores, Result result) {
+        int k = result.indices.length;
+        result.size = 0;
+        for (int i = 0; i < scores.length; i++) {
+            float score = scores[i];
+            if (result.size < k || score > result.scores[result.size - 1]) {
+                insert(result, i, score, k);
+            }
+        }
+    }
+
+    /**
+     * Selects the top scores of a quantized output. Scores are compared as unsigned bytes and
+     * reported scaled to [0, 1].
+     */
+    public static void select(byte[] scores, Result result) {
+        int k = result.indices.length;
+        result.size = 0;
+        // Unsigned value of the current k-th best, or -1 while fewer than k are selected.
+        int threshold = -1;
+        for (int i = 0; i < scores.length; i++) {
+            int score = scores[i] & 0xff;
+            if (score > threshold) {
+                insert(result, i, score / 255.0f, k);
+                if (result.size == k) {
+                    threshold = Math.round(result.scores[k - 1] * 255.0f);
+                }
+            }
+        }
+    }
+
+    /** Inserts a candidate into the sorted selection, dropping the lowest one if it is full. */
+    private static void insert(Result result, int index, float score, int k) {
+        int position = result.size < k ? result.size++ : k - 1;
+        // Ties keep the earlier index ahead.
+        while (position > 0 && result.scores[position - 1] < score) {
+            result.indices[position] = result.indices[position - 1];
+            result.scores[position] = result.scores[position - 1];
+            position--;
+        }
+        result.indices[position] = index;
+        result.scores[position] = score;
+    }
+}
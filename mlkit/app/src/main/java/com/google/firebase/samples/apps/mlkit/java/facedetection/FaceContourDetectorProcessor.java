@@ -14,6 +14,7 @@ import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetectorOptions;
 import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
 import com.google.firebase.samples.apps.mlkit.java.VisionProcessorBase;
 
 import java.io.IOException;
@@ -27,6 +28,8 @@ public class FaceContourDetectorProcessor extends VisionProcessorBase<List<Fireb
     private static final String TAG = "FaceContourDetectorProc";
 
     private final FirebaseVisionFaceDetector detector;
+    private final GraphicPool<FaceContourGraphic> faceGraphics =
+            new GraphicPool<>(8, FaceContourGraphic.FACTORY);
 
     public FaceContourDetectorProcessor() {
         FirebaseVisionFaceDetectorOptions options =
@@ -40,6 +43,7 @@ public class FaceContourDetectorProcessor extends VisionProcessorBase<List<Fireb
 
     @Override
     public void stop() {
+        Log.i(TAG, "Face graphics: " + faceGraphics);
         try {
             detector.close();
         } catch (IOException e) {
@@ -58,17 +62,15 @@ public class FaceContourDetectorProcessor extends VisionProcessorBase<List<Fireb
             @NonNull List<FirebaseVisionFace> faces,
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
+        GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
         if (originalCameraImage != null) {
             CameraImageGraphic imageGraphic = new CameraImageGraphic(graphicOverlay, originalCameraImage);
-            graphicOverlay.add(imageGraphic);
+            scene.add(imageGraphic);
         }
         for (int i = 0; i < faces.size(); ++i) {
-            FirebaseVisionFace face = faces.get(i);
-            FaceContourGraphic faceGraphic = new FaceContourGraphic(graphicOverlay, face);
-            graphicOverlay.add(faceGraphic);
+            scene.add(faceGraphics.obtain(graphicOverlay).bind(faces.get(i)));
         }
-        graphicOverlay.postInvalidate();
+        graphicOverlay.publish(scene);
     }
 
     @Override
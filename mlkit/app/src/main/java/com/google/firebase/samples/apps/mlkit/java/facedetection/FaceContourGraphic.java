@@ -2,14 +2,29 @@ package com.google.firebase.samples.apps.mlkit.java.facedetection;
 
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.PointF;
+import android.graphics.RectF;
+import androidx.annotation.Nullable;
+import com.google.firebase.ml.vision.common.FirebaseVisionPoint;
 import com.google.firebase.ml.vision.face.FirebaseVisionFace;
 import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
 import com.google.firebase.ml.vision.face.FirebaseVisionFaceLandmark;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay.Graphic;
-
-/** Graphic instance for rendering face contours graphic overlay view. */
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
+import com.google.firebase.samples.apps.mlkit.common.TextLayoutCache;
+import java.util.List;
+
+/**
+ * Graphic instance for rendering face contours graphic overlay view. Instances are pooled and
+ * rebound to each new result.
+ *
+ * <p>All points of a face, i.e. its center, the contour points and the landmarks, are collected
+ * in preview coordinates when bound, mapped to view coordinates in one {@link Matrix#mapPoints}
+ * call per draw and drawn as round points with one {@link Canvas#drawPoints} call.
+ */
 public class FaceContourGraphic extends Graphic {
 
   private static final float FACE_POSITION_RADIUS = 4.0f;
@@ -18,116 +33,190 @@ public class FaceContourGraphic extends Graphic {
   private static final float ID_X_OFFSET = -70.0f;
   private static final float BOX_STROKE_WIDTH = 5.0f;
 
-  private final Paint facePositionPaint;
-  private final Paint idPaint;
-  private final Paint boxPaint;
-
-  private volatile FirebaseVisionFace firebaseVisionFace;
+  /** Landmarks drawn as points besides the contour. */
+  private static final int[] LANDMARKS = {
+    FirebaseVisionFaceLandmark.LEFT_EYE,
+    FirebaseVisionFaceLandmark.RIGHT_EYE,
+    FirebaseVisionFaceLandmark.LEFT_CHEEK,
+    FirebaseVisionFaceLandmark.RIGHT_CHEEK
+  };
+
+  // Round points as wide as the circles they replace.
+  private static final Paint FACE_POSITION_PAINT =
+      strokePaint(Color.WHITE, 2 * FACE_POSITION_RADIUS);
+  private static final Paint ID_PAINT = textPaint(Color.WHITE, ID_TEXT_SIZE);
+  private static final Paint BOX_PAINT = strokePaint(Color.WHITE, BOX_STROKE_WIDTH);
+
+  static {
+    FACE_POSITION_PAINT.setStrokeCap(Paint.Cap.ROUND);
+  }
 
-  public FaceContourGraphic(GraphicOverlay overlay, FirebaseVisionFace face) {
+  // Tracking ids and probabilities rounded to hundredths; labels repeat while faces stay in view.
+  private static final TextLayoutCache LABEL_LAYOUTS = new TextLayoutCache(ID_PAINT, 512);
+
+  static final GraphicPool.Factory<FaceContourGraphic> FACTORY =
+      new GraphicPool.Factory<FaceContourGraphic>() {
+        @Override
+        public FaceContourGraphic create(GraphicOverlay overlay) {
+          return new FaceContourGraphic(overlay);
+        }
+      };
+
+  // Points as (x, y) pairs, the face center first. Both arrays only grow, and are reused across
+  // results and draws.
+  private float[] previewPoints = new float[0];
+  private float[] viewPoints = new float[0];
+  private int pointCount;
+  private final RectF previewPointBounds = new RectF();
+  private final RectF previewBox = new RectF();
+  private final RectF viewBox = new RectF();
+  // Used by getBounds(), which runs on the publishing thread while draw() may run.
+  private final RectF boundsBox = new RectF();
+  private int trackingId = FirebaseVisionFace.INVALID_ID;
+
+  // The labels are formatted and measured once per result, not on every draw.
+  @Nullable private TextLayoutCache.TextLayout idLabel;
+  @Nullable private TextLayoutCache.TextLayout happinessLabel;
+  @Nullable private TextLayoutCache.TextLayout rightEyeLabel;
+  @Nullable private TextLayoutCache.TextLayout leftEyeLabel;
+
+  private FaceContourGraphic(GraphicOverlay overlay) {
     super(overlay);
+  }
 
-    this.firebaseVisionFace = face;
-    final int selectedColor = Color.WHITE;
+  FaceContourGraphic bind(FirebaseVisionFace face) {
+    trackingId = face.getTrackingId();
+    previewBox.set(face.getBoundingBox());
+    List<FirebaseVisionPoint> contour =
+        face.getContour(FirebaseVisionFaceContour.ALL_POINTS).getPoints();
+    int capacity = 2 * (1 + contour.size() + LANDMARKS.length);
+    if (previewPoints.length < capacity) {
+      previewPoints = new float[capacity];
+      viewPoints = new float[capacity];
+    }
+    pointCount = 0;
+    addPoint(previewBox.centerX(), previewBox.centerY());
+    for (int i = 0; i < contour.size(); i++) {
+      addPoint(contour.get(i).getX(), contour.get(i).getY());
+    }
+    for (int landmark : LANDMARKS) {
+      FirebaseVisionFaceLandmark position = face.getLandmark(landmark);
+      if (position != null && position.getPosition() != null) {
+        addPoint(position.getPosition().getX(), position.getPosition().getY());
+      }
+    }
 
-    facePositionPaint = new Paint();
-    facePositionPaint.setColor(selectedColor);
+    idLabel = LABEL_LAYOUTS.get("id: " + face.getTrackingId());
+    happinessLabel = probabilityLabel("happiness: ", face.getSmilingProbability());
+    rightEyeLabel = probabilityLabel("right eye: ", face.getRightEyeOpenProbability());
+    leftEyeLabel = probabilityLabel("left eye: ", face.getLeftEyeOpenProbability());
+    return this;
+  }
 
-    idPaint = new Paint();
-    idPaint.setColor(selectedColor);
-    idPaint.setTextSize(ID_TEXT_SIZE);
+  private void addPoint(float x, float y) {
+    if (pointCount == 0) {
+      previewPointBounds.set(x, y, x, y);
+    } else {
+      previewPointBounds.union(x, y);
+    }
+    previewPoints[2 * pointCount] = x;
+    previewPoints[2 * pointCount + 1] = y;
+    pointCount++;
+  }
 
-    boxPaint = new Paint();
-    boxPaint.setColor(selectedColor);
-    boxPaint.setStyle(Paint.Style.STROKE);
-    boxPaint.setStrokeWidth(BOX_STROKE_WIDTH);
+  /** Returns the label of a probability, or null if it was not computed. */
+  @Nullable
+  private static TextLayoutCache.TextLayout probabilityLabel(String name, float probability) {
+    if (probability < 0) {
+      return null;
+    }
+    return LABEL_LAYOUTS.get(name + String.format("%.2f", probability));
   }
 
   /** Draws the face annotations for position on the supplied canvas. */
   @Override
   public void draw(Canvas canvas) {
-    FirebaseVisionFace face = firebaseVisionFace;
-    if (face == null) {
+    if (idLabel == null) {
       return;
     }
-
-    // Draws a circle at the position of the detected face, with the face's track id below.
-    float x = translateX(face.getBoundingBox().centerX());
-    float y = translateY(face.getBoundingBox().centerY());
-    canvas.drawCircle(x, y, FACE_POSITION_RADIUS, facePositionPaint);
-    canvas.drawText("id: " + face.getTrackingId(), x + ID_X_OFFSET, y + ID_Y_OFFSET, idPaint);
-
-    // Draws a bounding box around the face.
-    float xOffset = scaleX(face.getBoundingBox().width() / 2.0f);
-    float yOffset = scaleY(face.getBoundingBox().height() / 2.0f);
-    float left = x - xOffset;
-    float top = y - yOffset;
-    float right = x + xOffset;
-    float bottom = y + yOffset;
-    canvas.drawRect(left, top, right, bottom, boxPaint);
-
-    FirebaseVisionFaceContour contour = face.getContour(FirebaseVisionFaceContour.ALL_POINTS);
-    for (com.google.firebase.ml.vision.common.FirebaseVisionPoint point : contour.getPoints()) {
-      float px = translateX(point.getX());
-      float py = translateY(point.getY());
-      canvas.drawCircle(px, py, FACE_POSITION_RADIUS, facePositionPaint);
+    Matrix transform = getTransform();
+    transform.mapPoints(viewPoints, 0, previewPoints, 0, pointCount);
+    transform.mapRect(viewBox, previewBox);
+
+    // Draws the points, the face center among them, and a bounding box around the face.
+    canvas.drawPoints(viewPoints, 0, 2 * pointCount, FACE_POSITION_PAINT);
+    canvas.drawRect(viewBox, BOX_PAINT);
+
+    // Draws the track id below the face center, and the probabilities around it.
+    float x = viewPoints[0];
+    float y = viewPoints[1];
+    idLabel.draw(canvas, x + ID_X_OFFSET, y + ID_Y_OFFSET);
+    if (happinessLabel != null) {
+      happinessLabel.draw(canvas, x + ID_X_OFFSET * 3, y - ID_Y_OFFSET);
     }
 
-    if (face.getSmilingProbability() >= 0) {
-      canvas.drawText(
-          "happiness: " + String.format("%.2f", face.getSmilingProbability()),
-          x + ID_X_OFFSET * 3,
-          y - ID_Y_OFFSET,
-          idPaint);
+    if (rightEyeLabel != null) {
+      rightEyeLabel.draw(canvas, x - ID_X_OFFSET, y);
+    }
+    if (leftEyeLabel != null) {
+      leftEyeLabel.draw(canvas, x + ID_X_OFFSET * 6, y);
     }
+  }
 
-    if (face.getRightEyeOpenProbability() >= 0) {
-      canvas.drawText(
-          "right eye: " + String.format("%.2f", face.getRightEyeOpenProbability()),
-          x - ID_X_OFFSET,
-          y,
-          idPaint);
+  /**
+   * Covers the box, the points and the labels. {@link #getTransform()} is only valid while
+   * drawing, so the preview coordinates are mapped with {@link #translateX} and {@link
+   * #translateY}, which give the same result.
+   */
+  @Override
+  public boolean getBounds(RectF bounds) {
+    if (idLabel == null) {
+      return true;
     }
-    if (face.getLeftEyeOpenProbability() >= 0) {
-      canvas.drawText(
-          "left eye: " + String.format("%.2f", face.getLeftEyeOpenProbability()),
-          x + ID_X_OFFSET * 6,
-          y,
-          idPaint);
+    toView(previewBox, boundsBox);
+    unionStroke(bounds, boundsBox, BOX_PAINT);
+    toView(previewPointBounds, boundsBox);
+    unionStroke(bounds, boundsBox, FACE_POSITION_PAINT);
+
+    // The labels are placed around the face center as in draw().
+    float x = translateX(previewBox.centerX());
+    float y = translateY(previewBox.centerY());
+    idLabel.union(bounds, x + ID_X_OFFSET, y + ID_Y_OFFSET);
+    if (happinessLabel != null) {
+      happinessLabel.union(bounds, x + ID_X_OFFSET * 3, y - ID_Y_OFFSET);
     }
-    FirebaseVisionFaceLandmark leftEye = face.getLandmark(FirebaseVisionFaceLandmark.LEFT_EYE);
-    if (leftEye != null && leftEye.getPosition() != null) {
-      canvas.drawCircle(
-          translateX(leftEye.getPosition().getX()),
-          translateY(leftEye.getPosition().getY()),
-          FACE_POSITION_RADIUS,
-          facePositionPaint);
+    if (rightEyeLabel != null) {
+      rightEyeLabel.union(bounds, x - ID_X_OFFSET, y);
     }
-    FirebaseVisionFaceLandmark rightEye = face.getLandmark(FirebaseVisionFaceLandmark.RIGHT_EYE);
-    if (rightEye != null && rightEye.getPosition() != null) {
-      canvas.drawCircle(
-          translateX(rightEye.getPosition().getX()),
-          translateY(rightEye.getPosition().getY()),
-          FACE_POSITION_RADIUS,
-          facePositionPaint);
+    if (leftEyeLabel != null) {
+      leftEyeLabel.union(bounds, x + ID_X_OFFSET * 6, y);
     }
+    return true;
+  }
 
-    FirebaseVisionFaceLandmark leftCheek = face.getLandmark(FirebaseVisionFaceLandmark.LEFT_CHEEK);
-    if (leftCheek != null && leftCheek.getPosition() != null) {
-      canvas.drawCircle(
-          translateX(leftCheek.getPosition().getX()),
-          translateY(leftCheek.getPosition().getY()),
-          FACE_POSITION_RADIUS,
-          facePositionPaint);
-    }
-    FirebaseVisionFaceLandmark rightCheek =
-        face.getLandmark(FirebaseVisionFaceLandmark.RIGHT_CHEEK);
-    if (rightCheek != null && rightCheek.getPosition() != null) {
-      canvas.drawCircle(
-          translateX(rightCheek.getPosition().getX()),
-          translateY(rightCheek.getPosition().getY()),
-          FACE_POSITION_RADIUS,
-          facePositionPaint);
-    }
+  private void toView(RectF preview, RectF view) {
+    view.set(
+        translateX(preview.left),
+        translateY(preview.top),
+        translateX(preview.right),
+        translateY(preview.bottom));
+  }
+
+  @Override
+  public long getTrackingKey() {
+    return trackingId == FirebaseVisionFace.INVALID_ID ? NO_TRACKING_KEY : trackingId;
+  }
+
+  /** The face center, which the labels are placed around. */
+  @Override
+  public void getAnchor(PointF anchor) {
+    anchor.set(translateX(previewBox.centerX()), translateY(previewBox.centerY()));
+  }
+
+  @Override
+  protected void onRecycle() {
+    trackingId = FirebaseVisionFace.INVALID_ID;
+    pointCount = 0;
+    idLabel = happinessLabel = rightEyeLabel = leftEyeLabel = null;
   }
 }
@@ -0,0 +1,184 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.ml.vision.common.FirebaseVisionImageMetadata;
+import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
+
+import java.util.ArrayDeque;
+
+/**
+ * Cuts a face out of an NV21 camera frame into a fixed-size, upright ARGB bitmap for the identity
+ * labeler, without converting the rest of the frame.
+ *
+ * <p>The face box (in upright image coordinates, as the detector reports it) is grown by a margin
+ * into a square, moved inside the frame and clipped where it still does not fit, then sampled
+ * straight from the sensor-oriented NV21 data. Output bitmaps come from a small pool; hand them
+ * back with {@link #release(Bitmap)} once the labeler is done with them.
+ */
+public class FaceCropExtractor {
+
+    private final int outputSize;
+    private final float margin;
+    private final int maxPooled;
+    // Pixels and luma of the crop being built, reused for every crop. Only touched by extract().
+    private final int[] argb;
+    private final int[] luma;
+
+    @GuardedBy("this")
+    private final ArrayDeque<Bitmap> pool = new ArrayDeque<>();
+
+    /**
+     * @param outputSize width and height of the crops
+     * @param margin extra context around the face box, as a fraction of its longer side
+     * @param maxPooled number of released bitmaps to keep for reuse
+     */
+    public FaceCropExtractor(int outputSize, float margin, int maxPooled) {
+        this.outputSize = outputSize;
+        this.margin = margin;
+        this.maxPooled = maxPooled;
+        argb = new int[outputSize * outputSize];
+        luma = new int[outputSize * outputSize];
+    }
+
+    /**
+     * Returns the luma (0-255) of the last extracted crop, row by row. The array is overwritten by
+     * the next {@link #extract}.
+     */
+    int[] getLastLuma() {
+        return luma;
+    }
+
+    /**
+     * Returns the face crop, or null if the box does not overlap the frame. Must be called from a
+     * single thread.
+     */
+    @Nullable
+    public Bitmap extract(byte[] nv21, FrameMetadata metadata, Rect faceBox) {
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        boolean swapped =
+                metadata.getRotation() == FirebaseVisionImageMetadata.ROTATION_90
+                        || metadata.getRotation() == FirebaseVisionImageMetadata.ROTATION_270;
+        int uprightWidth = swapped ? height : width;
+        int uprightHeight = swapped ? width : height;
+        if (faceBox.right <= 0 || faceBox.bottom <= 0
+                || faceBox.left >= uprightWidth || faceBox.top >= uprightHeight) {
+            return null;
+        }
+
+        int side = Math.round(Math.max(faceBox.width(), faceBox.height()) * (1 + 2 * margin));
+        side = Math.min(side, Math.min(uprightWidth, uprightHeight));
+        if (side <= 0) {
+            return null;
+        }
+        int left = clamp(faceBox.centerX() - side / 2, 0, uprightWidth - side);
+        int top = clamp(faceBox.centerY() - side / 2, 0, uprightHeight - side);
+
+        cropNv21ToArgb(
+                nv21, width, height, metadata.getRotation(), left, top, side, argb, luma,
+                outputSize);
+        Bitmap bitmap = acquire();
+        bitmap.setPixels(argb, 0, outputSize, 0, 0, outputSize, outputSize);
+        return bitmap;
+    }
+
+    /** Returns a crop to the pool. */
+    public synchronized void release(Bitmap bitmap) {
+        if (pool.size() < maxPooled && bitmap.getWidth() == outputSize) {
+            pool.addLast(bitmap);
+        }
+    }
+
+    private synchronized Bitmap acquire() {
+        Bitmap bitmap = pool.pollFirst();
+        return bitmap != null
+                ? bitmap
+                : Bitmap.createBitmap(outputSize, outputSize, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Samples a square of {@code side} pixels at ({@code left}, {@code top}) in upright
+     * coordinates from an NV21 frame of {@code width} x {@code height} sensor pixels, into {@code
+     * outSize} x {@code outSize} ARGB pixels, and their luma into {@code lumaOut}.
+     * Nearest-neighbour sampling; the labeler rescales its input anyway. Plain Java so it can be
+     * measured on a desktop JVM.
+     */
+    static void cropNv21ToArgb(
+            byte[] nv21,
+            int width,
+            int height,
+            int rotation,
+            int left,
+            int top,
+            int side,
+            int[] out,
+            int[] lumaOut,
+            int outSize) {
+        int frameSize = width * height;
+        int index = 0;
+        for (int oy = 0; oy < outSize; oy++) {
+            int v = top + (2 * oy + 1) * side / (2 * outSize);
+            for (int ox = 0; ox < outSize; ox++) {
+                int u = left + (2 * ox + 1) * side / (2 * outSize);
+                // Map the upright point back to the sensor image.
+                int x;
+                int y;
+                switch (rotation) {
+                    case FirebaseVisionImageMetadata.ROTATION_90:
+                        x = v;
+                        y = height - 1 - u;
+                        break;
+                    case FirebaseVisionImageMetadata.ROTATION_180:
+                        x = width - 1 - u;
+                        y = height - 1 - v;
+                        break;
+                    case FirebaseVisionImageMetadata.ROTATION_270:
+                        x = width - 1 - v;
+                        y = u;
+                        break;
+                    default:
+                        x = u;
+                        y = v;
+                        break;
+                }
+                int luma = nv21[y * width + x] & 0xff;
+                int uvIndex = frameSize + (y >> 1) * width + (x & ~1);
+                int cr = (nv21[uvIndex] & 0xff) - 128;
+                int cb = (nv21[uvIndex + 1] & 0xff) - 128;
+                lumaOut[index] = luma;
+                out[index++] = yuvToArgb(luma, cb, cr);
+            }
+        }
+    }
+
+    /** BT.601 full-range conversion in 10-bit fixed point. */
+    private static int yuvToArgb(int luma, int cb, int cr) {
+        int y1024 = luma << 10;
+        int r = (y1024 + 1436 * cr) >> 10;
+        int g = (y1024 - 352 * cb - 731 * cr) >> 10;
+        int b = (y1024 + 1815 * cb) >> 10;
+        return 0xff000000 | (clamp(r, 0, 255) << 16) | (clamp(g, 0, 255) << 8) | clamp(b, 0, 255);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
@@ -13,10 +13,10 @@
 // limitations under the License.
 package com.google.firebase.samples.apps.mlkit.java.facedetection;
 
-import android.content.res.Resources;
+import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.hardware.Camera;
+import android.os.SystemClock;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.util.Log;
@@ -24,57 +24,204 @@ import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.ml.common.FirebaseMLException;
 import com.google.firebase.ml.vision.FirebaseVision;
-import com.google.firebase.ml.vision.automl.FirebaseAutoMLLocalModel;
 import com.google.firebase.ml.vision.common.FirebaseVisionImage;
 import com.google.firebase.ml.vision.face.FirebaseVisionFace;
 import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetector;
 import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetectorOptions;
-import com.google.firebase.ml.vision.label.FirebaseVisionImageLabel;
 import com.google.firebase.ml.vision.label.FirebaseVisionImageLabeler;
-import com.google.firebase.ml.vision.label.FirebaseVisionOnDeviceAutoMLImageLabelerOptions;
-import com.google.firebase.samples.apps.mlkit.R;
-import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
+import com.google.firebase.samples.apps.mlkit.common.CostProfile;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
-import com.google.firebase.samples.apps.mlkit.common.VisionImageProcessor;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
+import com.google.firebase.samples.apps.mlkit.common.ModelRegistry;
+import com.google.firebase.samples.apps.mlkit.common.preference.PipelineConfig;
 import com.google.firebase.samples.apps.mlkit.java.VisionProcessorBase;
 import com.google.firebase.samples.apps.mlkit.java.automl.AutoMLImageLabelerProcessor;
 import com.google.firebase.samples.apps.mlkit.java.labeldetector.LabelGraphic;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
-
-import static java.lang.Math.abs;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * Face Detector Demo.
+ * Face Detector Demo. The detector is built from the options of the active {@link CostProfile}
+ * and rebuilt when the profile changes. Faces only get an identity label when the profile
+ * provides tracking ids.
+ *
+ * <p>People enrolled with {@link #requestEnrollment(String)} are recognized from the on-device
+ * {@link FaceGallery}; everyone else falls back to the AutoML identity labeler.
  */
 public class FaceDetectionProcessor extends VisionProcessorBase<List<FirebaseVisionFace>> {
 
     private static final String TAG = "FaceDetectionProcessor";
 
-    private final FirebaseVisionFaceDetector detector;
+    // Identity cache bounds: a handful of people are in view at once, a label is re-checked every
+    // few minutes, and a track missing for about a second at 30 fps is assumed gone.
+    private static final int IDENTITY_CACHE_CAPACITY = 32;
+    private static final long IDENTITY_TTL_MS = 5 * 60 * 1000;
+    private static final int IDENTITY_MAX_MISSED_FRAMES = 30;
+
+    // How long a track waits before its crop is sent to the labeler again after a failure.
+    private static final long RECOGNITION_RETRY_INTERVAL_MS = 1000;
+    // How often a known face is re-verified; its label stays on screen meanwhile.
+    private static final long REVERIFY_INTERVAL_MS = 30 * 1000;
+
+    // Recognition worker: crops per labeler batch, crops waiting at most, and how long a batch may
+    // take before the next one is sent anyway.
+    private static final int RECOGNITION_BATCH_SIZE = 2;
+    private static final int RECOGNITION_MAX_QUEUED = 8;
+    private static final long RECOGNITION_BATCH_TIMEOUT_MS = 2000;
+
+    // Face crops: embedding model input size, context around the face box, and pooled crop
+    // bitmaps.
+    private static final int FACE_CROP_SIZE = FaceEmbedder.INPUT_SIZE;
+    private static final float FACE_CROP_MARGIN = 0.15f;
+    private static final int FACE_CROP_POOL_SIZE = RECOGNITION_MAX_QUEUED + RECOGNITION_BATCH_SIZE;
+
+    // Quality gate: lowest crop score sent for recognition, and how long the best crop of a track
+    // is kept before a newer one replaces it regardless of score.
+    private static final float MIN_FACE_QUALITY = 0.5f;
+    private static final long FACE_CANDIDATE_MAX_AGE_MS = 3000;
+
+    // Base name of the enrolled face gallery files in the app's files directory.
+    private static final String FACE_GALLERY_NAME = "face_gallery";
+
+    private final FaceCropExtractor cropExtractor =
+            new FaceCropExtractor(FACE_CROP_SIZE, FACE_CROP_MARGIN, FACE_CROP_POOL_SIZE);
+
+    private final FaceQualityGate qualityGate = new FaceQualityGate(
+            cropExtractor, FACE_CROP_SIZE, MIN_FACE_QUALITY, FACE_CANDIDATE_MAX_AGE_MS);
+
+    // Copy of the frame being detected, for cutting out face crops once the faces are known.
+    @Nullable
+    private byte[] frameCopy;
+
+    private final IdentityCache identityCache =
+            new IdentityCache(IDENTITY_CACHE_CAPACITY, IDENTITY_TTL_MS, IDENTITY_MAX_MISSED_FRAMES);
+
+    private final GraphicPool<LabelGraphic> labelGraphics =
+            new GraphicPool<>(2 * IDENTITY_CACHE_CAPACITY, LabelGraphic.FACTORY);
+
+    private final PipelineConfig config;
+
+    @Nullable
+    private final FaceEmbedder embedder;
+
+    // AutoML labeler shared with the labeling demo, for faces missing from the gallery.
+    @Nullable
+    private final ModelRegistry.Handle<FirebaseVisionImageLabeler> identityLabeler;
+
+    private final FaceGallery gallery;
+
+    // Enrollments rewrite the gallery files, so they are stored off the main thread.
+    private final ExecutorService galleryExecutor = Executors.newSingleThreadExecutor();
+
+    @Nullable
+    private final FaceRecognizer faceRecognizer;
+
+    @Nullable
+    private final RecognitionWorker recognitionWorker;
 
-    private final Bitmap overlayBitmap;
+    // Name to enroll from the next frame with a face, and who is waiting for the outcome.
+    @GuardedBy("this")
+    @Nullable
+    private String enrollmentName;
 
-    public FaceDetectionProcessor(Resources resources) {
-        FirebaseVisionFaceDetectorOptions options =
-                new FirebaseVisionFaceDetectorOptions.Builder()
-                        .setClassificationMode(FirebaseVisionFaceDetectorOptions.ALL_CLASSIFICATIONS)
-                        .setLandmarkMode(FirebaseVisionFaceDetectorOptions.ALL_LANDMARKS)
-                        .enableTracking()
-                        .build();
+    @GuardedBy("this")
+    @Nullable
+    private TaskCompletionSource<String> enrollmentResult;
 
-        detector = FirebaseVision.getInstance().getVisionFaceDetector(options);
+    private volatile FirebaseVisionFaceDetector detector;
 
-        overlayBitmap = BitmapFactory.decodeResource(resources, R.drawable.clown_nose);
+    public FaceDetectionProcessor(Context context, PipelineConfig config) {
+        super(config.getFaceCostProfile());
+        this.config = config;
+        detector = FirebaseVision.getInstance().getVisionFaceDetector(
+                config.getFaceDetectorOptions(config.getFaceCostProfile()));
+
+        FaceEmbedder faceEmbedder = null;
+        try {
+            faceEmbedder = new FaceEmbedder();
+        } catch (FirebaseMLException e) {
+            Log.e(TAG, "Failed to initialize the face embedder", e);
+        }
+        embedder = faceEmbedder;
+        ModelRegistry.Handle<FirebaseVisionImageLabeler> labeler = null;
+        try {
+            labeler = ModelRegistry.getInstance(context).acquire(
+                    AutoMLImageLabelerProcessor.LOCAL_MODEL_MANIFEST,
+                    ModelRegistry.autoMLLabeler(AutoMLImageLabelerProcessor.LOCAL_MODEL_MANIFEST));
+        } catch (IOException | FirebaseMLException e) {
+            Log.e(TAG, "Failed to load the identity labeler", e);
+        }
+        identityLabeler = labeler;
+        gallery = new FaceGallery(
+                context.getFilesDir(), FACE_GALLERY_NAME, FaceEmbedder.EMBEDDING_SIZE);
+        faceRecognizer = identityLabeler == null ? null
+                : new FaceRecognizer(identityLabeler.get(), embedder, gallery, identityCache,
+                        RECOGNITION_RETRY_INTERVAL_MS);
+        recognitionWorker = faceRecognizer == null ? null
+                : new RecognitionWorker(faceRecognizer, cropExtractor, RECOGNITION_BATCH_SIZE,
+                        RECOGNITION_MAX_QUEUED, RECOGNITION_BATCH_TIMEOUT_MS);
+    }
+
+    /**
+     * Enrolls the largest face of the next frame in the gallery under {@code name}. The returned
+     * task fails if no face is found or the embedding model is not ready. A newer request
+     * replaces one that has not been served yet.
+     */
+    public synchronized Task<String> requestEnrollment(String name) {
+        if (embedder == null || !embedder.isReady()) {
+            return Tasks.forException(
+                    new IllegalStateException("The face embedding model is not ready yet"));
+        }
+        if (enrollmentResult != null) {
+            enrollmentResult.trySetException(
+                    new IllegalStateException("Replaced by the enrollment of " + name));
+        }
+        enrollmentName = name;
+        enrollmentResult = new TaskCompletionSource<>();
+        return enrollmentResult.getTask();
+    }
+
+    @Override
+    protected void onCostProfileChanged(CostProfile profile) {
+        FirebaseVisionFaceDetector previous = detector;
+        detector = FirebaseVision.getInstance().getVisionFaceDetector(
+                config.getFaceDetectorOptions(profile));
+        close(previous);
     }
 
     @Override
     public void stop() {
+        Log.i(TAG, "Identity cache: " + identityCache + ", gallery size: " + gallery.size()
+                + ", label graphics: " + labelGraphics);
+        if (faceRecognizer != null) {
+            Log.i(TAG, "Face recognizer: " + faceRecognizer + ", worker: " + recognitionWorker
+                    + ", quality gate: " + qualityGate);
+            recognitionWorker.shutdown();
+            qualityGate.clear();
+        }
+        if (identityLabeler != null) {
+            identityLabeler.release();
+        }
+        if (embedder != null) {
+            embedder.close();
+        }
+        // Enrollments already handed over are still stored; later ones fail.
+        galleryExecutor.shutdown();
+        close(detector);
+    }
+
+    private static void close(FirebaseVisionFaceDetector detector) {
         try {
             detector.close();
         } catch (IOException e) {
@@ -82,6 +229,20 @@ public class FaceDetectionProcessor extends VisionProcessorBase<List<FirebaseVis
         }
     }
 
+    @Override
+    protected void onFrameCaptured(ByteBuffer data, FrameMetadata frameMetadata) {
+        if (recognitionWorker == null && embedder == null) {
+            return;
+        }
+        // One frame is detected at a time, so a single copy is never read and written at once.
+        data.rewind();
+        if (frameCopy == null || frameCopy.length != data.remaining()) {
+            frameCopy = new byte[data.remaining()];
+        }
+        data.get(frameCopy);
+        data.rewind();
+    }
+
     @Override
     protected Task<List<FirebaseVisionFace>> detectInImage(FirebaseVisionImage image) {
         return detector.detectInImage(image);
@@ -93,14 +254,26 @@ public class FaceDetectionProcessor extends VisionProcessorBase<List<FirebaseVis
             @NonNull List<FirebaseVisionFace> faces,
             @NonNull FrameMetadata frameMetadata,
             @NonNull final GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
-        if (originalCameraImage != null) {
-            CameraImageGraphic imageGraphic = new CameraImageGraphic(graphicOverlay, originalCameraImage);
-            //graphicOverlay.add(imageGraphic);// here for removing the overlay
+        GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
+        // The camera image is never drawn here, so the overlay stays see-through on the glasses.
+        List<Integer> trackingIds = new ArrayList<>(faces.size());
+        for (int i = 0; i < faces.size(); ++i) {
+            trackingIds.add(faces.get(i).getTrackingId());
+        }
+        identityCache.onFrame(trackingIds);
+        enrollFromFrame(faces, frameMetadata);
+        if (recognitionWorker != null) {
+            faceRecognizer.retainTracks(trackingIds);
+            recognitionWorker.onFrame(trackingIds);
+            qualityGate.retainTracks(trackingIds);
         }
         for (int i = 0; i < faces.size(); ++i) {
             FirebaseVisionFace face = faces.get(i);
             final int faceId = face.getTrackingId();
+            if (faceId == FirebaseVisionFace.INVALID_ID) {
+                // Without tracking there is nothing to remember a label by.
+                continue;
+            }
             float x = (face.getBoundingBox().centerX());
             float y = face.getBoundingBox().centerY();
             float xOffset = face.getBoundingBox().width() / 2.0f;
@@ -109,88 +282,110 @@ public class FaceDetectionProcessor extends VisionProcessorBase<List<FirebaseVis
             final float top = y - yOffset;
             final float right = x + xOffset;
             float bottom = y + yOffset;
-            if (faceLabelMap.containsKey(faceId))
+            IdentityCache.Identity identity = identityCache.get(faceId);
+            if (identity != null)
             {
-                String label = faceLabelMap.get(faceId);
-                Log.d("kajal",String.valueOf(faceId) + " " + label);
-                LabelGraphic labelGraphic = new LabelGraphic(graphicOverlay, label, 0, (right - left)/2, 50);
-                graphicOverlay.add(labelGraphic);
+                LabelGraphic labelGraphic = labelGraphics.obtain(graphicOverlay).bind(
+                        identity.getLabel(), identity.getConfidence(), (right - left)/2, 50,
+                        faceId);
+                scene.add(labelGraphic);
             }
-            else {
-                try {
-                    Bitmap faceBitmap = Bitmap.createBitmap(originalCameraImage, (int) left, (int) top, (int) (right - left), (int) (bottom - top));
-                    float ratio = abs((right - left)/(bottom - top));
-                    // scale bitmap a bit
-                    faceBitmap = Bitmap.createScaledBitmap(faceBitmap, (int) (50*ratio), 50, true);
-                    FirebaseVisionImage img = FirebaseVisionImage.fromBitmap(faceBitmap);
-                    detectorLabel.processImage(img)
-                            .addOnSuccessListener(new OnSuccessListener<List<FirebaseVisionImageLabel>>() {
-                                @Override
-                                public void onSuccess(List<FirebaseVisionImageLabel> labels) {
-                                    float minConf = 0;
-                                    String text = "";
-                                    for (FirebaseVisionImageLabel label : labels) {
-                                        if (minConf <= label.getConfidence()) {
-                                            minConf = label.getConfidence();
-                                            text = label.getText();
-                                        }
-                                    }
-                                    Log.d("kajal","putting: " + String.valueOf(faceId) + " " + text);
-                                    faceLabelMap.put(faceId, text);
-                                    LabelGraphic labelGraphic = new LabelGraphic(graphicOverlay, text, minConf, (right - left)/2, 50);
-                                    graphicOverlay.add(labelGraphic);
-                                }
-                            })
-                            .addOnFailureListener(new OnFailureListener() {
-                                @Override
-                                public void onFailure(@NonNull Exception e) {
-                                    Log.d("Kajal", "Label detection failed in autoML");
-                                }
-                            });
+            long lastIdentifiedMs = identity == null ? -1 : identity.getRecognizedAtMs();
+            boolean needsRecognition = identity == null
+                    || SystemClock.elapsedRealtime() - lastIdentifiedMs > REVERIFY_INTERVAL_MS;
+            if (needsRecognition && faceRecognizer != null
+                    && faceRecognizer.attach(faceId) == null) {
+                // Crops are scored on every frame, also while the track waits to be retried, so
+                // the recognizer gets the best one once it is ready.
+                Bitmap candidate = frameCopy == null ? null
+                        : cropExtractor.extract(frameCopy, frameMetadata, face.getBoundingBox());
+                if (candidate != null) {
+                    qualityGate.offer(faceId, face, candidate);
                 }
-                catch (Exception e)
-                {
-                    Log.d("kajal", e.toString());
+                Bitmap crop = faceRecognizer.canStart(faceId) ? qualityGate.take(faceId) : null;
+                if (crop != null) {
+                    // The recognizer stores the result; later frames draw it from the cache.
+                    float faceAreaFraction = (right - left) * (bottom - top)
+                            / (frameMetadata.getWidth() * frameMetadata.getHeight());
+                    recognitionWorker.submit(faceId, crop, faceAreaFraction, lastIdentifiedMs);
                 }
             }
-//            int cameraFacing =
-//                    frameMetadata != null ? frameMetadata.getCameraFacing() :
-//                            Camera.CameraInfo.CAMERA_FACING_BACK;
-//            FaceGraphic faceGraphic = new FaceGraphic(graphicOverlay, face, cameraFacing, overlayBitmap, originalCameraImage);
-//            graphicOverlay.add(faceGraphic);
         }
-        graphicOverlay.postInvalidate();
+        graphicOverlay.publish(scene);
     }
 
-    @Override
-    protected void onFailure(@NonNull Exception e) {
-        Log.e(TAG, "Face detection failed " + e);
+    /** Serves a pending enrollment request with the largest face in the frame. */
+    private void enrollFromFrame(List<FirebaseVisionFace> faces, FrameMetadata frameMetadata) {
+        final String name;
+        final TaskCompletionSource<String> result;
+        synchronized (this) {
+            if (enrollmentResult == null) {
+                return;
+            }
+            name = enrollmentName;
+            result = enrollmentResult;
+            enrollmentName = null;
+            enrollmentResult = null;
+        }
+        FirebaseVisionFace largest = null;
+        for (FirebaseVisionFace face : faces) {
+            if (largest == null || area(face) > area(largest)) {
+                largest = face;
+            }
+        }
+        Bitmap crop = largest == null || frameCopy == null ? null
+                : cropExtractor.extract(frameCopy, frameMetadata, largest.getBoundingBox());
+        if (crop == null) {
+            result.trySetException(new IllegalStateException("No face to enroll"));
+            return;
+        }
+        final int trackingId = largest.getTrackingId();
+        // The embedder copies the pixels before returning, so the crop can go back right away.
+        Task<float[]> embedding = embedder.embed(crop);
+        cropExtractor.release(crop);
+        embedding
+                .addOnSuccessListener(
+                        new OnSuccessListener<float[]>() {
+                            @Override
+                            public void onSuccess(final float[] values) {
+                                try {
+                                    galleryExecutor.execute(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            enroll(name, values, trackingId, result);
+                                        }
+                                    });
+                                } catch (RejectedExecutionException e) {
+                                    result.trySetException(e);
+                                }
+                            }
+                        })
+                .addOnFailureListener(
+                        new OnFailureListener() {
+                            @Override
+                            public void onFailure(@NonNull Exception e) {
+                                result.trySetException(e);
+                            }
+                        });
     }
 
-    private VisionImageProcessor frameProcessor;
-
-    {
-        try {
-            frameProcessor = new AutoMLImageLabelerProcessor(null, AutoMLImageLabelerProcessor.Mode.LIVE_PREVIEW);
-        } catch (FirebaseMLException e) {
-            Log.e("Kajal", "Failed to initialize automl" + e);
-            e.printStackTrace();
+    /** Stores an enrollment. Runs on the gallery executor. */
+    private void enroll(String name, float[] embedding, int trackingId,
+            TaskCompletionSource<String> result) {
+        gallery.enroll(name, embedding);
+        if (trackingId != FirebaseVisionFace.INVALID_ID) {
+            identityCache.put(trackingId, name, 1f);
         }
-    };
-
-    FirebaseAutoMLLocalModel localModel = new FirebaseAutoMLLocalModel.Builder().setAssetFilePath("automl/manifest.json").build();
+        Log.i(TAG, "Enrolled " + name + ", gallery size: " + gallery.size());
+        result.trySetResult(name);
+    }
 
-    {
-        try {
-            detectorLabel = FirebaseVision.getInstance().getOnDeviceAutoMLImageLabeler(
-                                new FirebaseVisionOnDeviceAutoMLImageLabelerOptions.Builder(localModel)
-                                        .setConfidenceThreshold(0)
-                                        .build());
-        } catch (FirebaseMLException e) {
-            e.printStackTrace();
-        }
+    private static int area(FirebaseVisionFace face) {
+        return face.getBoundingBox().width() * face.getBoundingBox().height();
     }
 
-    private FirebaseVisionImageLabeler detectorLabel;
-    HashMap<Integer, String> faceLabelMap = new HashMap();
+    @Override
+    protected void onFailure(@NonNull Exception e) {
+        Log.e(TAG, "Face detection failed " + e);
+    }
 }
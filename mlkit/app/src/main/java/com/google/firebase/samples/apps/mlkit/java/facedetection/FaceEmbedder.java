@@ -0,0 +1,174 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.ml.common.FirebaseMLException;
+import com.google.firebase.ml.common.modeldownload.FirebaseModelDownloadConditions;
+import com.google.firebase.ml.common.modeldownload.FirebaseModelManager;
+import com.google.firebase.ml.custom.FirebaseCustomRemoteModel;
+import com.google.firebase.ml.custom.FirebaseModelDataType;
+import com.google.firebase.ml.custom.FirebaseModelInputOutputOptions;
+import com.google.firebase.ml.custom.FirebaseModelInputs;
+import com.google.firebase.ml.custom.FirebaseModelInterpreter;
+import com.google.firebase.ml.custom.FirebaseModelInterpreterOptions;
+import com.google.firebase.ml.custom.FirebaseModelOutputs;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Turns a face crop into an embedding with a custom TFLite model run by {@code
+ * FirebaseModelInterpreter}. The model takes a {@link #INPUT_SIZE} square RGB image scaled to
+ * [-1, 1] and outputs {@link #EMBEDDING_SIZE} floats.
+ */
+public class FaceEmbedder {
+
+    private static final String TAG = "FaceEmbedder";
+
+    /** Name of the embedding model uploaded to the Firebase console. */
+    private static final String REMOTE_MODEL_NAME = "face_embedding";
+
+    public static final int INPUT_SIZE = 112;
+    public static final int EMBEDDING_SIZE = 128;
+
+    private final FirebaseModelInputOutputOptions dataOptions;
+    private final int[] pixels = new int[INPUT_SIZE * INPUT_SIZE];
+
+    private volatile FirebaseModelInterpreter interpreter;
+    // Set by close(); an interpreter loaded afterwards is closed right away.
+    private volatile boolean closed;
+
+    public FaceEmbedder() throws FirebaseMLException {
+        dataOptions =
+                new FirebaseModelInputOutputOptions.Builder()
+                        .setInputFormat(
+                                0,
+                                FirebaseModelDataType.FLOAT32,
+                                new int[] {1, INPUT_SIZE, INPUT_SIZE, 3})
+                        .setOutputFormat(
+                                0, FirebaseModelDataType.FLOAT32, new int[] {1, EMBEDDING_SIZE})
+                        .build();
+
+        final FirebaseCustomRemoteModel remoteModel =
+                new FirebaseCustomRemoteModel.Builder(REMOTE_MODEL_NAME).build();
+        FirebaseModelManager.getInstance()
+                .download(remoteModel, new FirebaseModelDownloadConditions.Builder().build())
+                .addOnSuccessListener(
+                        new OnSuccessListener<Void>() {
+                            @Override
+                            public void onSuccess(Void ignored) {
+                                if (closed) {
+                                    return;
+                                }
+                                FirebaseModelInterpreter loaded;
+                                try {
+                                    loaded =
+                                            FirebaseModelInterpreter.getInstance(
+                                                    new FirebaseModelInterpreterOptions.Builder(
+                                                            remoteModel)
+                                                            .build());
+                                } catch (FirebaseMLException e) {
+                                    Log.e(TAG, "Failed to build FirebaseModelInterpreter. ", e);
+                                    return;
+                                }
+                                synchronized (FaceEmbedder.this) {
+                                    if (!closed) {
+                                        interpreter = loaded;
+                                        return;
+                                    }
+                                }
+                                // Closed while loading; nobody else would close this one.
+                                loaded.close();
+                            }
+                        })
+                .addOnFailureListener(
+                        new OnFailureListener() {
+                            @Override
+                            public void onFailure(@NonNull Exception e) {
+                                Log.w(TAG, "Face embedding model download failed", e);
+                            }
+                        });
+    }
+
+    /** Returns true once the model has been downloaded and loaded. */
+    public boolean isReady() {
+        return interpreter != null;
+    }
+
+    /** Computes the embedding of a face crop. Fails if the model is not ready yet. */
+    public Task<float[]> embed(Bitmap crop) {
+        FirebaseModelInterpreter current = interpreter;
+        if (current == null) {
+            return Tasks.forException(
+                    new IllegalStateException("Face embedding model is not ready"));
+        }
+        FirebaseModelInputs inputs;
+        try {
+            inputs = new FirebaseModelInputs.Builder().add(toInput(crop)).build();
+            return current.run(inputs, dataOptions)
+                    .continueWith(
+                            new Continuation<FirebaseModelOutputs, float[]>() {
+                                @Override
+                                public float[] then(@NonNull Task<FirebaseModelOutputs> task) {
+                                    return task.getResult().<float[][]>getOutput(0)[0];
+                                }
+                            });
+        } catch (FirebaseMLException e) {
+            return Tasks.forException(e);
+        }
+    }
+
+    /**
+     * Packs a crop into a new input tensor. The interpreter may read it after {@code run} returns,
+     * so the buffer is not reused; embeddings are only computed for a few crops per second.
+     */
+    private synchronized ByteBuffer toInput(Bitmap crop) {
+        Bitmap scaled =
+                crop.getWidth() == INPUT_SIZE && crop.getHeight() == INPUT_SIZE
+                        ? crop
+                        : Bitmap.createScaledBitmap(crop, INPUT_SIZE, INPUT_SIZE, true);
+        scaled.getPixels(pixels, 0, INPUT_SIZE, 0, 0, INPUT_SIZE, INPUT_SIZE);
+        ByteBuffer input = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3 * 4);
+        input.order(ByteOrder.nativeOrder());
+        for (int pixel : pixels) {
+            input.putFloat((((pixel >> 16) & 0xff) - 127.5f) / 127.5f);
+            input.putFloat((((pixel >> 8) & 0xff) - 127.5f) / 127.5f);
+            input.putFloat(((pixel & 0xff) - 127.5f) / 127.5f);
+        }
+        input.rewind();
+        return input;
+    }
+
+    public void close() {
+        FirebaseModelInterpreter current;
+        synchronized (this) {
+            closed = true;
+            current = interpreter;
+            interpreter = null;
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+}
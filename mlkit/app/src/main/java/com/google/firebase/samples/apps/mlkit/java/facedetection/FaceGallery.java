@@ -0,0 +1,285 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Enrolled face embeddings and the names they belong to, with nearest-neighbour lookup.
+ *
+ * <p>Embeddings are L2-normalized and kept back to back in one {@code float[]}, so a lookup is a
+ * brute-force scan of dot products over contiguous memory. A few thousand 128-d embeddings take
+ * well under a millisecond, growing linearly, and there is no index to rebuild on enrollment. A
+ * person may be enrolled several times; each embedding keeps its own row.
+ *
+ * <p>The gallery is persisted in two files: {@code <name>.bin}, a memory-mapped header plus the
+ * embedding rows that enrollment appends to in place, and {@code <name>.names}, one name per row.
+ */
+public class FaceGallery {
+
+    private static final String TAG = "FaceGallery";
+
+    private static final int MAGIC = 0x4647414c; // "FGAL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 * 4;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The closest enrolled identity and its cosine similarity to the query. */
+    public static final class Match {
+        public final String name;
+        public final float similarity;
+
+        Match(String name, float similarity) {
+            this.name = name;
+            this.similarity = similarity;
+        }
+    }
+
+    private final int dimension;
+    private final File embeddingFile;
+    private final File namesFile;
+
+    @GuardedBy("this")
+    private float[] embeddings;
+
+    @GuardedBy("this")
+    private final List<String> names = new ArrayList<>();
+
+    @GuardedBy("this")
+    @Nullable
+    private MappedByteBuffer mapped;
+
+    @GuardedBy("this")
+    private int mappedCapacity;
+
+    /**
+     * Opens the gallery stored under {@code directory/baseName}, creating it if needed. A stored
+     * gallery with a different dimension is discarded.
+     */
+    public FaceGallery(File directory, String baseName, int dimension) {
+        this.dimension = dimension;
+        embeddingFile = new File(directory, baseName + ".bin");
+        namesFile = new File(directory, baseName + ".names");
+        embeddings = new float[INITIAL_CAPACITY * dimension];
+        try {
+            load();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load face gallery, starting empty", e);
+            synchronized (this) {
+                names.clear();
+                mapped = null;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return names.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return names.isEmpty();
+    }
+
+    /** Adds an embedding for {@code name} and persists it. */
+    public synchronized void enroll(String name, float[] embedding) {
+        if (embedding.length != dimension) {
+            throw new IllegalArgumentException(
+                    "Expected a " + dimension + "-d embedding, got " + embedding.length);
+        }
+        int row = names.size();
+        ensureCapacity(row + 1);
+        int offset = row * dimension;
+        System.arraycopy(embedding, 0, embeddings, offset, dimension);
+        normalize(embeddings, offset, dimension);
+        names.add(name);
+        try {
+            persist(row);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to persist enrollment of " + name, e);
+        }
+    }
+
+    /** Returns the nearest enrolled identity, or null if the gallery is empty. */
+    @Nullable
+    public synchronized Match findNearest(float[] embedding) {
+        int count = names.size();
+        if (count == 0) {
+            return null;
+        }
+        float[] query = Arrays.copyOf(embedding, dimension);
+        normalize(query, 0, dimension);
+        int bestRow = -1;
+        float bestScore = -Float.MAX_VALUE;
+        float[] rows = embeddings;
+        int unrolled = dimension & ~3;
+        for (int row = 0, offset = 0; row < count; row++, offset += dimension) {
+            // Four independent sums, so the multiply-adds do not wait on each other.
+            float s0 = 0;
+            float s1 = 0;
+            float s2 = 0;
+            float s3 = 0;
+            int i = 0;
+            for (; i < unrolled; i += 4) {
+                s0 += rows[offset + i] * query[i];
+                s1 += rows[offset + i + 1] * query[i + 1];
+                s2 += rows[offset + i + 2] * query[i + 2];
+                s3 += rows[offset + i + 3] * query[i + 3];
+            }
+            for (; i < dimension; i++) {
+                s0 += rows[offset + i] * query[i];
+            }
+            float score = (s0 + s1) + (s2 + s3);
+            if (score > bestScore) {
+                bestScore = score;
+                bestRow = row;
+            }
+        }
+        return new Match(names.get(bestRow), bestScore);
+    }
+
+    @GuardedBy("this")
+    private void ensureCapacity(int rows) {
+        if (rows * dimension > embeddings.length) {
+            embeddings = Arrays.copyOf(embeddings, Math.max(rows, 2 * names.size()) * dimension);
+        }
+    }
+
+    private static void normalize(float[] values, int offset, int length) {
+        float sumOfSquares = 0;
+        for (int i = offset; i < offset + length; i++) {
+            sumOfSquares += values[i] * values[i];
+        }
+        if (sumOfSquares == 0) {
+            return;
+        }
+        float scale = (float) (1 / Math.sqrt(sumOfSquares));
+        for (int i = offset; i < offset + length; i++) {
+            values[i] *= scale;
+        }
+    }
+
+    private synchronized void load() throws IOException {
+        List<String> storedNames = readNames();
+        if (!embeddingFile.exists() || storedNames.isEmpty()) {
+            map(INITIAL_CAPACITY);
+            writeHeader(0);
+            return;
+        }
+        map(Math.max(INITIAL_CAPACITY, storedNames.size()));
+        if (mapped.getInt(0) != MAGIC
+                || mapped.getInt(4) != VERSION
+                || mapped.getInt(8) != dimension) {
+            Log.w(TAG, "Discarding incompatible face gallery " + embeddingFile);
+            writeHeader(0);
+            writeNames(new ArrayList<String>());
+            return;
+        }
+        // The header count is written after the row, so it never claims a row that is missing.
+        int count = Math.min(mapped.getInt(12), storedNames.size());
+        ensureCapacity(count);
+        mapped.position(HEADER_BYTES);
+        mapped.asFloatBuffer().get(embeddings, 0, count * dimension);
+        names.addAll(storedNames.subList(0, count));
+        if (storedNames.size() > count) {
+            // Drop names whose rows never made it, so the next enrollment lines up again.
+            writeNames(names);
+        }
+        Log.i(TAG, "Loaded " + count + " face embeddings");
+    }
+
+    @GuardedBy("this")
+    private void persist(int row) throws IOException {
+        if (mapped == null || row + 1 > mappedCapacity) {
+            map(Math.max(2 * mappedCapacity, Math.max(INITIAL_CAPACITY, row + 1)));
+        }
+        mapped.position(HEADER_BYTES + row * dimension * 4);
+        mapped.asFloatBuffer().put(embeddings, row * dimension, dimension);
+        try (Writer writer =
+                     new OutputStreamWriter(new FileOutputStream(namesFile, true), UTF_8)) {
+            writer.write(names.get(row).replace('\n', ' '));
+            writer.write('\n');
+        }
+        writeHeader(row + 1);
+    }
+
+    /** (Re)maps the embedding file with room for {@code capacity} rows. */
+    @GuardedBy("this")
+    private void map(int capacity) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(embeddingFile, "rw");
+             FileChannel channel = file.getChannel()) {
+            // The mapping stays valid after the channel is closed.
+            mapped =
+                    channel.map(
+                            FileChannel.MapMode.READ_WRITE,
+                            0,
+                            HEADER_BYTES + (long) capacity * dimension * 4);
+        }
+        mapped.order(ByteOrder.nativeOrder());
+        mappedCapacity = capacity;
+    }
+
+    @GuardedBy("this")
+    private void writeHeader(int count) {
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, VERSION);
+        mapped.putInt(8, dimension);
+        mapped.putInt(12, count);
+    }
+
+    private List<String> readNames() throws IOException {
+        List<String> result = new ArrayList<>();
+        if (!namesFile.exists()) {
+            return result;
+        }
+        try (BufferedReader reader =
+                     new BufferedReader(
+                             new InputStreamReader(new FileInputStream(namesFile), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    private void writeNames(List<String> lines) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(namesFile), UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+    }
+}
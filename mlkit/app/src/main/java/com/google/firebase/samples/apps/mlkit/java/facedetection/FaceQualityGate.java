@@ -0,0 +1,232 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.SystemClock;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFace;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Scores face crops before they are sent for recognition and keeps the best crop of each track.
+ *
+ * <p>A crop is scored on four factors, each in [0, 1]: the size of the face box, the sharpness of
+ * the crop (variance of the Laplacian of its luma), the head pose (yaw and roll Euler angles) and
+ * the exposure (mean luma and clipped pixels). The score is their weighted geometric mean, so one
+ * bad factor is enough to sink it. Only crops scoring at least {@code minScore} are handed out.
+ *
+ * <p>The best crop seen for a track since its last recognition attempt is kept, so when the
+ * recognizer is ready for the track again, for instance after the retry interval that follows a
+ * weak result, it gets the best crop of that whole interval rather than whatever the current
+ * frame offers. A kept crop is replaced by a better one, or by any newer one once it is {@code
+ * maxCandidateAgeMs} old. The gate owns kept crops and returns them to the {@link
+ * FaceCropExtractor} when they are replaced or their track leaves.
+ *
+ * <p>Thread-safe: frames are offered on the main thread, while {@link #clear()} runs on whichever
+ * thread stops the processor. A crop is either kept or handed out, never both, so clear() cannot
+ * release a crop that {@link #take} has already given to the recognizer.
+ */
+public class FaceQualityGate {
+
+    // Geometric mean weights.
+    private static final float SIZE_WEIGHT = 0.3f;
+    private static final float SHARPNESS_WEIGHT = 0.3f;
+    private static final float POSE_WEIGHT = 0.25f;
+    private static final float EXPOSURE_WEIGHT = 0.15f;
+
+    /** A face box whose shorter side has this many pixels gets the full size score. */
+    private static final float FULL_SIZE_PX = 120;
+    /** Laplacian variance of a crop that counts as fully sharp. */
+    private static final float FULL_SHARPNESS_VARIANCE = 150;
+    /** Yaw and roll at which the pose score reaches zero. */
+    private static final float MAX_YAW_DEGREES = 45;
+    private static final float MAX_ROLL_DEGREES = 45;
+    /** Luma values at or beyond these count as clipped. */
+    private static final int DARK_LUMA = 16;
+    private static final int BRIGHT_LUMA = 239;
+    /** Keeps a zero factor from turning the logarithm into minus infinity. */
+    private static final float MIN_FACTOR = 0.01f;
+
+    private static final class Candidate {
+        final Bitmap crop;
+        final float score;
+        final long capturedAtMs;
+
+        Candidate(Bitmap crop, float score, long capturedAtMs) {
+            this.crop = crop;
+            this.score = score;
+            this.capturedAtMs = capturedAtMs;
+        }
+    }
+
+    private final FaceCropExtractor cropExtractor;
+    private final int cropSize;
+    private final float minScore;
+    private final long maxCandidateAgeMs;
+
+    @GuardedBy("this")
+    private final Map<Integer, Candidate> best = new HashMap<>();
+
+    @GuardedBy("this")
+    private long offered;
+
+    @GuardedBy("this")
+    private long belowThreshold;
+
+    @GuardedBy("this")
+    private long taken;
+
+    public FaceQualityGate(
+            FaceCropExtractor cropExtractor, int cropSize, float minScore, long maxCandidateAgeMs) {
+        this.cropExtractor = cropExtractor;
+        this.cropSize = cropSize;
+        this.minScore = minScore;
+        this.maxCandidateAgeMs = maxCandidateAgeMs;
+    }
+
+    /**
+     * Scores the crop that was just extracted for {@code face} and keeps it if it is the best of
+     * its track. Either way the gate takes ownership of {@code crop}. Returns the crop's score.
+     */
+    public synchronized float offer(int trackingId, FirebaseVisionFace face, Bitmap crop) {
+        offered++;
+        float score = score(face.getBoundingBox(), face, cropExtractor.getLastLuma());
+        if (score < minScore) {
+            belowThreshold++;
+        }
+        long nowMs = SystemClock.elapsedRealtime();
+        Candidate kept = best.get(trackingId);
+        if (kept == null
+                || score > kept.score
+                || nowMs - kept.capturedAtMs > maxCandidateAgeMs) {
+            best.put(trackingId, new Candidate(crop, score, nowMs));
+            if (kept != null) {
+                cropExtractor.release(kept.crop);
+            }
+        } else {
+            cropExtractor.release(crop);
+        }
+        return score;
+    }
+
+    /**
+     * Hands over the best crop kept for a track if it passes the gate, or returns null. The caller
+     * owns the returned crop, and the track starts collecting crops afresh.
+     */
+    @Nullable
+    public synchronized Bitmap take(int trackingId) {
+        Candidate kept = best.get(trackingId);
+        if (kept == null || kept.score < minScore) {
+            return null;
+        }
+        best.remove(trackingId);
+        taken++;
+        return kept.crop;
+    }
+
+    /** Releases the crops of tracks that are no longer in view. */
+    public synchronized void retainTracks(Collection<Integer> visibleTrackingIds) {
+        Iterator<Map.Entry<Integer, Candidate>> iterator = best.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Candidate> entry = iterator.next();
+            if (!visibleTrackingIds.contains(entry.getKey())) {
+                cropExtractor.release(entry.getValue().crop);
+                iterator.remove();
+            }
+        }
+    }
+
+    /** Releases all kept crops. */
+    public synchronized void clear() {
+        for (Candidate candidate : best.values()) {
+            cropExtractor.release(candidate.crop);
+        }
+        best.clear();
+    }
+
+    private float score(Rect box, FirebaseVisionFace face, int[] luma) {
+        float size = Math.min(box.width(), box.height()) / FULL_SIZE_PX;
+        float sharpness = laplacianVariance(luma, cropSize) / FULL_SHARPNESS_VARIANCE;
+        float pose =
+                Math.max(0, 1 - Math.abs(face.getHeadEulerAngleY()) / MAX_YAW_DEGREES)
+                        * Math.max(0, 1 - Math.abs(face.getHeadEulerAngleZ()) / MAX_ROLL_DEGREES);
+        float exposure = exposure(luma);
+        double logScore =
+                SIZE_WEIGHT * Math.log(factor(size))
+                        + SHARPNESS_WEIGHT * Math.log(factor(sharpness))
+                        + POSE_WEIGHT * Math.log(factor(pose))
+                        + EXPOSURE_WEIGHT * Math.log(factor(exposure));
+        return (float) Math.exp(logScore);
+    }
+
+    private static float factor(float value) {
+        return Math.max(MIN_FACTOR, Math.min(value, 1f));
+    }
+
+    /** Variance of the 4-neighbour Laplacian over the interior of a square luma image. */
+    static float laplacianVariance(int[] luma, int size) {
+        long sum = 0;
+        long sumOfSquares = 0;
+        int count = 0;
+        for (int y = 1; y < size - 1; y++) {
+            int row = y * size;
+            for (int x = 1; x < size - 1; x++) {
+                int i = row + x;
+                int laplacian =
+                        luma[i - size] + luma[i + size] + luma[i - 1] + luma[i + 1] - 4 * luma[i];
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        float mean = (float) sum / count;
+        return (float) sumOfSquares / count - mean * mean;
+    }
+
+    /**
+     * 1 for a mid-grey mean with no clipping, falling off as the mean moves towards black or white
+     * and as pixels clip.
+     */
+    static float exposure(int[] luma) {
+        long sum = 0;
+        int clipped = 0;
+        for (int value : luma) {
+            sum += value;
+            if (value <= DARK_LUMA || value >= BRIGHT_LUMA) {
+                clipped++;
+            }
+        }
+        float mean = (float) sum / luma.length;
+        float meanScore = 1 - Math.abs(mean - 128) / 128;
+        return meanScore * (1 - (float) clipped / luma.length);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("offered=%d belowThreshold=%d taken=%d kept=%d",
+                offered, belowThreshold, taken, best.size());
+    }
+}
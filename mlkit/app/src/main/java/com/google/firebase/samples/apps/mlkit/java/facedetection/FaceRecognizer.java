@@ -0,0 +1,325 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.ml.vision.common.FirebaseVisionImage;
+import com.google.firebase.ml.vision.label.FirebaseVisionImageLabel;
+import com.google.firebase.ml.vision.label.FirebaseVisionImageLabeler;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Identifies face crops, with at most one request in flight per track.
+ *
+ * <p>Once the {@link FaceEmbedder} model is loaded and someone has been enrolled, a crop is first
+ * looked up in the {@link FaceGallery}; the identity labeler is only run when no enrolled face is
+ * close enough, or when there is no gallery to search.
+ *
+ * <p>Frames that arrive while a track is being recognized attach to the pending request instead
+ * of starting another one, and a track whose recognition failed is not retried until {@code
+ * retryIntervalMs} has passed.
+ *
+ * <p>A single label is not trusted: each result is a vote in the track's {@link
+ * IdentityAccumulator}, and only a decided identity is stored in the {@link IdentityCache}.
+ */
+public class FaceRecognizer {
+
+    private static final String TAG = "FaceRecognizer";
+
+    // Voting: the last five usable results count, at least three are needed, labels under 0.3
+    // confidence are ignored and the winner needs 60% of the weight.
+    private static final int VOTE_WINDOW = 5;
+    private static final int VOTE_MIN_SAMPLES = 3;
+    private static final float VOTE_MIN_SAMPLE_CONFIDENCE = 0.3f;
+    private static final float VOTE_MIN_WINNER_SHARE = 0.6f;
+
+    /** Cosine similarity a gallery match needs to be used instead of the labeler. */
+    private static final float MIN_GALLERY_SIMILARITY = 0.5f;
+
+    /** The best label the labeler returned for a face crop. */
+    public static final class Recognition {
+        private final String label;
+        private final float confidence;
+
+        Recognition(String label, float confidence) {
+            this.label = label;
+            this.confidence = confidence;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public float getConfidence() {
+            return confidence;
+        }
+    }
+
+    private final FirebaseVisionImageLabeler labeler;
+    @Nullable private final FaceEmbedder embedder;
+    @Nullable private final FaceGallery gallery;
+    private final IdentityCache identityCache;
+    private final long retryIntervalMs;
+
+    @GuardedBy("this")
+    private final Map<Integer, Task<Recognition>> pending = new HashMap<>();
+
+    @GuardedBy("this")
+    private final Map<Integer, Long> failedAtMs = new HashMap<>();
+
+    @GuardedBy("this")
+    private final Map<Integer, IdentityAccumulator> accumulators = new HashMap<>();
+
+    @GuardedBy("this")
+    private long started;
+
+    @GuardedBy("this")
+    private long suppressed;
+
+    @GuardedBy("this")
+    private long failed;
+
+    @GuardedBy("this")
+    private long rejected;
+
+    @GuardedBy("this")
+    private long decided;
+
+    @GuardedBy("this")
+    private long galleryMatches;
+
+    public FaceRecognizer(
+            FirebaseVisionImageLabeler labeler, IdentityCache identityCache, long retryIntervalMs) {
+        this(labeler, null, null, identityCache, retryIntervalMs);
+    }
+
+    public FaceRecognizer(
+            FirebaseVisionImageLabeler labeler,
+            @Nullable FaceEmbedder embedder,
+            @Nullable FaceGallery gallery,
+            IdentityCache identityCache,
+            long retryIntervalMs) {
+        this.labeler = labeler;
+        this.embedder = embedder;
+        this.gallery = gallery;
+        this.identityCache = identityCache;
+        this.retryIntervalMs = retryIntervalMs;
+    }
+
+    /** Forgets the votes of tracks that are no longer in view. */
+    public synchronized void retainTracks(Collection<Integer> visibleTrackingIds) {
+        accumulators.keySet().retainAll(visibleTrackingIds);
+    }
+
+    /**
+     * Returns the request in flight for a track, or null if there is none. A non-null result
+     * counts as a suppressed duplicate.
+     */
+    @Nullable
+    public synchronized Task<Recognition> attach(int trackingId) {
+        Task<Recognition> task = pending.get(trackingId);
+        if (task != null) {
+            suppressed++;
+        }
+        return task;
+    }
+
+    /**
+     * Returns true if a new request may be started for a track: none is in flight and the track is
+     * not waiting out the retry interval after a failure. Call this before building the crop.
+     */
+    public synchronized boolean canStart(int trackingId) {
+        if (pending.containsKey(trackingId)) {
+            return false;
+        }
+        Long failedAt = failedAtMs.get(trackingId);
+        if (failedAt == null) {
+            return true;
+        }
+        if (SystemClock.elapsedRealtime() - failedAt < retryIntervalMs) {
+            return false;
+        }
+        failedAtMs.remove(trackingId);
+        return true;
+    }
+
+    /**
+     * Recognizes a face crop for a track. If a request for the track is already in flight, that
+     * request is returned and {@code crop} is ignored. The crop must stay untouched until the
+     * returned task completes.
+     */
+    public synchronized Task<Recognition> recognize(final int trackingId, final Bitmap crop) {
+        Task<Recognition> inFlight = pending.get(trackingId);
+        if (inFlight != null) {
+            suppressed++;
+            return inFlight;
+        }
+        started++;
+        pruneFailures();
+        final Task<Recognition> task =
+                useGallery()
+                        ? embedder.embed(crop)
+                                .continueWithTask(
+                                        new Continuation<float[], Task<Recognition>>() {
+                                            @Override
+                                            public Task<Recognition> then(
+                                                    @NonNull Task<float[]> task) {
+                                                return matchOrLabel(task, crop);
+                                            }
+                                        })
+                        : label(crop);
+        pending.put(trackingId, task);
+        task.addOnCompleteListener(
+                new OnCompleteListener<Recognition>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Recognition> completed) {
+                        onRecognitionComplete(trackingId, completed);
+                    }
+                });
+        return task;
+    }
+
+    private boolean useGallery() {
+        return embedder != null && gallery != null && embedder.isReady() && !gallery.isEmpty();
+    }
+
+    private Task<Recognition> matchOrLabel(Task<float[]> embedding, Bitmap crop) {
+        if (embedding.isSuccessful()) {
+            FaceGallery.Match match = gallery.findNearest(embedding.getResult());
+            if (match != null && match.similarity >= MIN_GALLERY_SIMILARITY) {
+                synchronized (this) {
+                    galleryMatches++;
+                }
+                return Tasks.forResult(new Recognition(match.name, match.similarity));
+            }
+        } else {
+            Log.d(TAG, "Face embedding failed, falling back to the labeler",
+                    embedding.getException());
+        }
+        return label(crop);
+    }
+
+    private Task<Recognition> label(Bitmap crop) {
+        return labeler.processImage(FirebaseVisionImage.fromBitmap(crop))
+                .continueWith(
+                        new Continuation<List<FirebaseVisionImageLabel>, Recognition>() {
+                            @Override
+                            public Recognition then(
+                                    @NonNull Task<List<FirebaseVisionImageLabel>> task) {
+                                return bestOf(task.getResult());
+                            }
+                        });
+    }
+
+    private synchronized void onRecognitionComplete(int trackingId, Task<Recognition> task) {
+        if (pending.get(trackingId) == task) {
+            pending.remove(trackingId);
+        }
+        if (!task.isSuccessful()) {
+            failed++;
+            failedAtMs.put(trackingId, SystemClock.elapsedRealtime());
+            Log.d(TAG, "Recognition failed for track " + trackingId, task.getException());
+            return;
+        }
+        Recognition recognition = task.getResult();
+        IdentityAccumulator accumulator = accumulators.get(trackingId);
+        if (accumulator == null) {
+            accumulator =
+                    new IdentityAccumulator(
+                            VOTE_WINDOW,
+                            VOTE_MIN_SAMPLES,
+                            VOTE_MIN_SAMPLE_CONFIDENCE,
+                            VOTE_MIN_WINNER_SHARE);
+            accumulators.put(trackingId, accumulator);
+        }
+        if (!accumulator.add(recognition.getLabel(), recognition.getConfidence())) {
+            // The crop was too poor to vote; a crop from the next few frames is likely no better.
+            rejected++;
+            failedAtMs.put(trackingId, SystemClock.elapsedRealtime());
+            return;
+        }
+        IdentityAccumulator.Decision decision = accumulator.decide();
+        if (decision != null) {
+            decided++;
+            identityCache.put(trackingId, decision.label, decision.confidence);
+            // Start over, so the next verification is judged on fresh evidence only.
+            accumulator.reset();
+        }
+    }
+
+    /** Forgets failures whose retry interval has passed, so tracks that left do not pile up. */
+    @GuardedBy("this")
+    private void pruneFailures() {
+        long nowMs = SystemClock.elapsedRealtime();
+        Iterator<Long> iterator = failedAtMs.values().iterator();
+        while (iterator.hasNext()) {
+            if (nowMs - iterator.next() >= retryIntervalMs) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static Recognition bestOf(List<FirebaseVisionImageLabel> labels) {
+        float bestConfidence = 0;
+        String bestLabel = "";
+        for (FirebaseVisionImageLabel label : labels) {
+            if (bestConfidence <= label.getConfidence()) {
+                bestConfidence = label.getConfidence();
+                bestLabel = label.getText();
+            }
+        }
+        return new Recognition(bestLabel, bestConfidence);
+    }
+
+    public synchronized long getStartedCount() {
+        return started;
+    }
+
+    /** Number of frames that found a request already in flight for their track. */
+    public synchronized long getSuppressedCount() {
+        return suppressed;
+    }
+
+    public synchronized long getFailedCount() {
+        return failed;
+    }
+
+    /** Number of results too weak to count as a vote. */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "started=%d suppressed=%d failed=%d rejected=%d decided=%d gallery=%d pending=%d",
+                started, suppressed, failed, rejected, decided, galleryMatches, pending.size());
+    }
+}
@@ -0,0 +1,116 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects the labels recognized for one face track over several frames and decides on an
+ * identity by confidence-weighted voting.
+ *
+ * <p>Samples below {@code minSampleConfidence} are ignored. A decision needs at least {@code
+ * minSamples} samples among the last {@code windowSize}, and the winning label must hold at least
+ * {@code minWinnerShare} of the total weight. Not thread-safe; {@link FaceRecognizer} guards it.
+ */
+class IdentityAccumulator {
+
+    /** The label a track was voted to be. */
+    static final class Decision {
+        final String label;
+        /** Mean confidence of the samples that voted for {@link #label}. */
+        final float confidence;
+
+        Decision(String label, float confidence) {
+            this.label = label;
+            this.confidence = confidence;
+        }
+    }
+
+    private static final class Sample {
+        final String label;
+        final float confidence;
+
+        Sample(String label, float confidence) {
+            this.label = label;
+            this.confidence = confidence;
+        }
+    }
+
+    private final int windowSize;
+    private final int minSamples;
+    private final float minSampleConfidence;
+    private final float minWinnerShare;
+    private final ArrayDeque<Sample> samples;
+
+    IdentityAccumulator(
+            int windowSize, int minSamples, float minSampleConfidence, float minWinnerShare) {
+        this.windowSize = windowSize;
+        this.minSamples = minSamples;
+        this.minSampleConfidence = minSampleConfidence;
+        this.minWinnerShare = minWinnerShare;
+        samples = new ArrayDeque<>(windowSize);
+    }
+
+    /** Adds a sample. Returns false if it was too weak to count. */
+    boolean add(String label, float confidence) {
+        if (label.isEmpty() || confidence < minSampleConfidence) {
+            return false;
+        }
+        if (samples.size() == windowSize) {
+            samples.removeFirst();
+        }
+        samples.addLast(new Sample(label, confidence));
+        return true;
+    }
+
+    /** Returns the voted identity, or null if there is not enough or no clear evidence yet. */
+    @Nullable
+    Decision decide() {
+        if (samples.size() < minSamples) {
+            return null;
+        }
+        Map<String, float[]> weightAndCount = new HashMap<>();
+        float totalWeight = 0;
+        for (Sample sample : samples) {
+            float[] entry = weightAndCount.get(sample.label);
+            if (entry == null) {
+                entry = new float[2];
+                weightAndCount.put(sample.label, entry);
+            }
+            entry[0] += sample.confidence;
+            entry[1]++;
+            totalWeight += sample.confidence;
+        }
+        String winner = null;
+        float[] winnerEntry = null;
+        for (Map.Entry<String, float[]> entry : weightAndCount.entrySet()) {
+            if (winnerEntry == null || entry.getValue()[0] > winnerEntry[0]) {
+                winner = entry.getKey();
+                winnerEntry = entry.getValue();
+            }
+        }
+        if (winnerEntry[0] < minWinnerShare * totalWeight) {
+            return null;
+        }
+        return new Decision(winner, winnerEntry[0] / winnerEntry[1]);
+    }
+
+    void reset() {
+        samples.clear();
+    }
+}
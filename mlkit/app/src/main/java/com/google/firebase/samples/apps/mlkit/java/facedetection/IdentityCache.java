@@ -0,0 +1,191 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import android.os.SystemClock;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers who each tracked face is, keyed by the detector's tracking id.
+ *
+ * <p>The cache is bounded three ways so it stays small over a long session: it holds at most
+ * {@code capacity} tracks and drops the least recently used one beyond that, an identity expires
+ * {@code ttlMs} after it was recognized, and a track that has not been in a frame for {@code
+ * maxMissedFrames} frames is dropped, because the detector recycles tracking ids.
+ *
+ * <p>All methods are safe to call from the detector callback and the recognizer callbacks.
+ */
+public class IdentityCache {
+
+    /** A recognized identity for one track. */
+    public static final class Identity {
+        private final String label;
+        private final float confidence;
+        private final long recognizedAtMs;
+        private volatile long lastSeenMs;
+        private long lastSeenFrame;
+
+        Identity(String label, float confidence, long nowMs, long frame) {
+            this.label = label;
+            this.confidence = confidence;
+            this.recognizedAtMs = nowMs;
+            this.lastSeenMs = nowMs;
+            this.lastSeenFrame = frame;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public float getConfidence() {
+            return confidence;
+        }
+
+        public long getRecognizedAtMs() {
+            return recognizedAtMs;
+        }
+
+        public long getLastSeenMs() {
+            return lastSeenMs;
+        }
+    }
+
+    private final int capacity;
+    private final long ttlMs;
+    private final int maxMissedFrames;
+
+    @GuardedBy("this")
+    private final LinkedHashMap<Integer, Identity> identities;
+
+    @GuardedBy("this")
+    private long frame;
+
+    @GuardedBy("this")
+    private long hits;
+
+    @GuardedBy("this")
+    private long misses;
+
+    @GuardedBy("this")
+    private long evictions;
+
+    public IdentityCache(int capacity, long ttlMs, int maxMissedFrames) {
+        this.capacity = capacity;
+        this.ttlMs = ttlMs;
+        this.maxMissedFrames = maxMissedFrames;
+        // Access order, so the eldest entry is the least recently used one.
+        identities =
+                new LinkedHashMap<Integer, Identity>(capacity, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, Identity> eldest) {
+                        if (size() > IdentityCache.this.capacity) {
+                            evictions++;
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+    }
+
+    /** Returns the identity of a track, or null if it is unknown or has expired. */
+    @Nullable
+    public synchronized Identity get(int trackingId) {
+        Identity identity = identities.get(trackingId);
+        if (identity != null && SystemClock.elapsedRealtime() - identity.recognizedAtMs > ttlMs) {
+            identities.remove(trackingId);
+            evictions++;
+            identity = null;
+        }
+        if (identity == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return identity;
+    }
+
+    /** Stores the identity of a track, replacing any previous one. */
+    public synchronized void put(int trackingId, String label, float confidence) {
+        identities.put(
+                trackingId, new Identity(label, confidence, SystemClock.elapsedRealtime(), frame));
+    }
+
+    public synchronized void remove(int trackingId) {
+        identities.remove(trackingId);
+    }
+
+    /**
+     * Advances the frame counter. Call once per detection result with the tracking ids it
+     * contains; tracks that have been missing for too long are evicted.
+     */
+    public synchronized void onFrame(Collection<Integer> visibleTrackingIds) {
+        frame++;
+        long nowMs = SystemClock.elapsedRealtime();
+        for (Integer trackingId : visibleTrackingIds) {
+            // A visible track counts as recently used, but not as a lookup.
+            Identity identity = identities.get(trackingId);
+            if (identity != null) {
+                identity.lastSeenMs = nowMs;
+                identity.lastSeenFrame = frame;
+            }
+        }
+        Iterator<Identity> iterator = identities.values().iterator();
+        while (iterator.hasNext()) {
+            if (frame - iterator.next().lastSeenFrame > maxMissedFrames) {
+                iterator.remove();
+                evictions++;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        identities.clear();
+    }
+
+    public synchronized int size() {
+        return identities.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /** Fraction of lookups that found a live identity, or 0 before the first lookup. */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "size=%d hits=%d misses=%d evictions=%d hitRate=%.2f",
+                identities.size(), hits, misses, evictions, getHitRate());
+    }
+}
@@ -0,0 +1,289 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Queues face crops for the {@link FaceRecognizer} and sends them in batches from a single
+ * background thread, most important face first.
+ *
+ * <p>A crop's priority grows with the size of the face, the time since its track was last
+ * identified and the age of the track. Each track has at most one crop queued; a newer crop
+ * replaces the older one. The next batch is only sent once the previous one has completed, so
+ * the labeler sees a steady load no matter how many faces are in view.
+ *
+ * <p>Crops are returned to their {@link FaceCropExtractor} once they have been labeled or
+ * dropped.
+ */
+public class RecognitionWorker {
+
+    private static final String TAG = "RecognitionWorker";
+
+    // Priority weights; each term is normalized to [0, 1] first.
+    private static final float SIZE_WEIGHT = 0.5f;
+    private static final float STALENESS_WEIGHT = 0.3f;
+    private static final float AGE_WEIGHT = 0.2f;
+
+    /** A face covering this fraction of the frame gets the full size term. */
+    private static final float FULL_SIZE_AREA_FRACTION = 0.25f;
+    /** An identity this old counts as fully stale. */
+    private static final long FULL_STALENESS_MS = 60 * 1000;
+    /** A track this old gets the full age term. */
+    private static final long FULL_AGE_MS = 5 * 1000;
+
+    private static final class Request {
+        final int trackingId;
+        final Bitmap crop;
+        final float priority;
+
+        Request(int trackingId, Bitmap crop, float priority) {
+            this.trackingId = trackingId;
+            this.crop = crop;
+            this.priority = priority;
+        }
+    }
+
+    private static final Comparator<Request> HIGHEST_PRIORITY_FIRST =
+            new Comparator<Request>() {
+                @Override
+                public int compare(Request a, Request b) {
+                    return Float.compare(b.priority, a.priority);
+                }
+            };
+
+    private final FaceRecognizer recognizer;
+    private final FaceCropExtractor cropExtractor;
+    private final int batchSize;
+    private final int maxQueued;
+    private final long batchTimeoutMs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Runnable drainRunnable =
+            new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            };
+
+    @GuardedBy("this")
+    private final PriorityQueue<Request> queue = new PriorityQueue<>(11, HIGHEST_PRIORITY_FIRST);
+
+    @GuardedBy("this")
+    private final Map<Integer, Request> queuedByTrack = new HashMap<>();
+
+    @GuardedBy("this")
+    private final Map<Integer, Long> trackFirstSeenMs = new HashMap<>();
+
+    @GuardedBy("this")
+    private boolean draining;
+
+    @GuardedBy("this")
+    private boolean shutdown;
+
+    @GuardedBy("this")
+    private long batches;
+
+    @GuardedBy("this")
+    private long replaced;
+
+    @GuardedBy("this")
+    private long dropped;
+
+    public RecognitionWorker(
+            FaceRecognizer recognizer,
+            FaceCropExtractor cropExtractor,
+            int batchSize,
+            int maxQueued,
+            long batchTimeoutMs) {
+        this.recognizer = recognizer;
+        this.cropExtractor = cropExtractor;
+        this.batchSize = batchSize;
+        this.maxQueued = maxQueued;
+        this.batchTimeoutMs = batchTimeoutMs;
+    }
+
+    /**
+     * Records which tracks are in the current frame. Tracks that left are forgotten and their
+     * queued crops dropped.
+     */
+    public synchronized void onFrame(Collection<Integer> visibleTrackingIds) {
+        long nowMs = SystemClock.elapsedRealtime();
+        Set<Integer> visible = new HashSet<>(visibleTrackingIds);
+        for (Integer trackingId : visible) {
+            if (!trackFirstSeenMs.containsKey(trackingId)) {
+                trackFirstSeenMs.put(trackingId, nowMs);
+            }
+        }
+        trackFirstSeenMs.keySet().retainAll(visible);
+        Iterator<Map.Entry<Integer, Request>> iterator = queuedByTrack.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Request> entry = iterator.next();
+            if (!visible.contains(entry.getKey())) {
+                queue.remove(entry.getValue());
+                cropExtractor.release(entry.getValue().crop);
+                iterator.remove();
+                dropped++;
+            }
+        }
+    }
+
+    /**
+     * Queues a crop for recognition.
+     *
+     * @param faceAreaFraction area of the face box divided by the area of the frame
+     * @param lastIdentifiedMs when the track was last identified, or a negative value if never
+     */
+    public synchronized void submit(
+            int trackingId,
+            Bitmap crop,
+            float faceAreaFraction,
+            long lastIdentifiedMs) {
+        if (shutdown) {
+            cropExtractor.release(crop);
+            return;
+        }
+        Request previous = queuedByTrack.remove(trackingId);
+        if (previous != null) {
+            queue.remove(previous);
+            cropExtractor.release(previous.crop);
+            replaced++;
+        }
+        float priority = priorityOf(trackingId, faceAreaFraction, lastIdentifiedMs);
+        Request request = new Request(trackingId, crop, priority);
+        queue.add(request);
+        queuedByTrack.put(trackingId, request);
+        if (queue.size() > maxQueued) {
+            Request lowest = lowestPriority();
+            queue.remove(lowest);
+            queuedByTrack.remove(lowest.trackingId);
+            cropExtractor.release(lowest.crop);
+            dropped++;
+        }
+        if (!draining) {
+            draining = true;
+            executor.execute(drainRunnable);
+        }
+    }
+
+    /** Stops the worker thread. Queued crops are discarded. */
+    public synchronized void shutdown() {
+        shutdown = true;
+        for (Request request : queue) {
+            cropExtractor.release(request.crop);
+        }
+        queue.clear();
+        queuedByTrack.clear();
+        executor.shutdownNow();
+    }
+
+    @GuardedBy("this")
+    private float priorityOf(int trackingId, float faceAreaFraction, long lastIdentifiedMs) {
+        long nowMs = SystemClock.elapsedRealtime();
+        float size = Math.min(faceAreaFraction / FULL_SIZE_AREA_FRACTION, 1f);
+        float staleness =
+                lastIdentifiedMs < 0
+                        ? 1f
+                        : Math.min((nowMs - lastIdentifiedMs) / (float) FULL_STALENESS_MS, 1f);
+        Long firstSeenMs = trackFirstSeenMs.get(trackingId);
+        float age =
+                firstSeenMs == null
+                        ? 0f
+                        : Math.min((nowMs - firstSeenMs) / (float) FULL_AGE_MS, 1f);
+        return SIZE_WEIGHT * size + STALENESS_WEIGHT * staleness + AGE_WEIGHT * age;
+    }
+
+    @GuardedBy("this")
+    private Request lowestPriority() {
+        Request lowest = null;
+        for (Request request : queue) {
+            if (lowest == null || request.priority < lowest.priority) {
+                lowest = request;
+            }
+        }
+        return lowest;
+    }
+
+    private void drain() {
+        while (true) {
+            List<Request> batch = new ArrayList<>(batchSize);
+            synchronized (this) {
+                while (batch.size() < batchSize && !queue.isEmpty()) {
+                    Request request = queue.poll();
+                    queuedByTrack.remove(request.trackingId);
+                    batch.add(request);
+                }
+                if (batch.isEmpty() || shutdown) {
+                    draining = false;
+                    return;
+                }
+                batches++;
+            }
+
+            List<Task<FaceRecognizer.Recognition>> tasks = new ArrayList<>(batch.size());
+            for (Request request : batch) {
+                tasks.add(recognizer.recognize(request.trackingId, request.crop));
+            }
+            try {
+                // Results are published by the recognizer; this only paces the batches.
+                Tasks.await(Tasks.whenAllComplete(tasks), batchTimeoutMs, TimeUnit.MILLISECONDS);
+                for (Request request : batch) {
+                    cropExtractor.release(request.crop);
+                }
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Recognition batch failed", e);
+            } catch (TimeoutException e) {
+                // The labeler may still be reading the crops, so they are not reused.
+                Log.w(TAG, "Recognition batch timed out after " + batchTimeoutMs + "ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                synchronized (this) {
+                    draining = false;
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "batches=%d queued=%d replaced=%d dropped=%d",
+                batches, queue.size(), replaced, dropped);
+    }
+}
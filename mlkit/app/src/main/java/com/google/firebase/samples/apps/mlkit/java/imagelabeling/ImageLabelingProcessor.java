@@ -14,11 +14,14 @@
 package com.google.firebase.samples.apps.mlkit.java.imagelabeling;
 
 import android.graphics.Bitmap;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.util.Log;
 
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.ml.vision.FirebaseVision;
 import com.google.firebase.ml.vision.common.FirebaseVisionImage;
 import com.google.firebase.ml.vision.label.FirebaseVisionImageLabel;
@@ -26,26 +29,49 @@ import com.google.firebase.ml.vision.label.FirebaseVisionImageLabeler;
 import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
+import com.google.firebase.samples.apps.mlkit.common.PerceptualHashCache;
 import com.google.firebase.samples.apps.mlkit.java.VisionProcessorBase;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
- * Custom Image Classifier Demo.
+ * Custom Image Classifier Demo. Labels of camera frames that look like one labeled moments ago
+ * are taken from a {@link PerceptualHashCache} instead of running the labeler again.
  */
 public class ImageLabelingProcessor extends VisionProcessorBase<List<FirebaseVisionImageLabel>> {
 
     private static final String TAG = "ImageLabelingProcessor";
 
+    // Result cache bounds: frames kept, differing hash bits still counted as the same view, and
+    // how long labels are reused before the labeler runs again.
+    private static final int RESULT_CACHE_CAPACITY = 16;
+    private static final int RESULT_CACHE_MAX_DISTANCE = 4;
+    private static final long RESULT_CACHE_MAX_AGE_MS = 2000;
+
     private final FirebaseVisionImageLabeler detector;
 
+    // One label graphic per frame; the spare one is drawn while the next scene is built.
+    private final GraphicPool<LabelGraphic> labelGraphics =
+            new GraphicPool<>(2, LabelGraphic.FACTORY);
+
+    private final PerceptualHashCache<List<FirebaseVisionImageLabel>> resultCache =
+            new PerceptualHashCache<>(
+                    RESULT_CACHE_CAPACITY, RESULT_CACHE_MAX_DISTANCE, RESULT_CACHE_MAX_AGE_MS);
+
+    // Hash of the camera frame about to be detected. Still images have none and bypass the cache.
+    private long frameHash;
+    private boolean hasFrameHash;
+
     public ImageLabelingProcessor() {
         detector = FirebaseVision.getInstance().getOnDeviceImageLabeler();
     }
 
     @Override
     public void stop() {
+        Log.i(TAG, "Result cache: " + resultCache + "; label graphics: " + labelGraphics);
         try {
             detector.close();
         } catch (IOException e) {
@@ -53,9 +79,34 @@ public class ImageLabelingProcessor extends VisionProcessorBase<List<FirebaseVis
         }
     }
 
+    @Override
+    protected void onFrameCaptured(ByteBuffer data, FrameMetadata frameMetadata) {
+        frameHash = PerceptualHashCache.dHash(
+                data.array(), frameMetadata.getWidth(), frameMetadata.getHeight());
+        hasFrameHash = true;
+    }
+
     @Override
     protected Task<List<FirebaseVisionImageLabel>> detectInImage(FirebaseVisionImage image) {
-        return detector.processImage(image);
+        if (!hasFrameHash) {
+            return detector.processImage(image);
+        }
+        hasFrameHash = false;
+        final long hash = frameHash;
+        List<FirebaseVisionImageLabel> cached = resultCache.get(hash);
+        if (cached != null) {
+            return Tasks.forResult(cached);
+        }
+        final long startMs = SystemClock.elapsedRealtime();
+        return detector.processImage(image)
+                .addOnSuccessListener(
+                        new OnSuccessListener<List<FirebaseVisionImageLabel>>() {
+                            @Override
+                            public void onSuccess(List<FirebaseVisionImageLabel> labels) {
+                                resultCache.put(
+                                        hash, labels, SystemClock.elapsedRealtime() - startMs);
+                            }
+                        });
     }
 
     @Override
@@ -64,14 +115,13 @@ public class ImageLabelingProcessor extends VisionProcessorBase<List<FirebaseVis
             @NonNull List<FirebaseVisionImageLabel> labels,
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
+        GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
         if (originalCameraImage != null) {
             CameraImageGraphic imageGraphic = new CameraImageGraphic(graphicOverlay, originalCameraImage);
-            graphicOverlay.add(imageGraphic);
+            scene.add(imageGraphic);
         }
-        LabelGraphic labelGraphic = new LabelGraphic(graphicOverlay, labels);
-        graphicOverlay.add(labelGraphic);
-        graphicOverlay.postInvalidate();
+        scene.add(labelGraphics.obtain(graphicOverlay).bind(labels));
+        graphicOverlay.publish(scene);
     }
 
     @Override
@@ -16,38 +16,73 @@ package com.google.firebase.samples.apps.mlkit.java.imagelabeling;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.RectF;
 
 import com.google.firebase.ml.vision.label.FirebaseVisionImageLabel;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay.Graphic;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
+import com.google.firebase.samples.apps.mlkit.common.TextLayoutCache;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /** Graphic instance for rendering a label within an associated graphic overlay view. */
 public class LabelGraphic extends Graphic {
 
-  private final Paint textPaint;
+  private static final Paint TEXT_PAINT = textPaint(Color.WHITE, 60.0f);
+  private static final TextLayoutCache TEXT_LAYOUTS = new TextLayoutCache(TEXT_PAINT, 64);
+
+  static final GraphicPool.Factory<LabelGraphic> FACTORY =
+      new GraphicPool.Factory<LabelGraphic>() {
+        @Override
+        public LabelGraphic create(GraphicOverlay overlay) {
+          return new LabelGraphic(overlay);
+        }
+      };
+
   private final GraphicOverlay overlay;
 
-  private final List<FirebaseVisionImageLabel> labels;
+  private final List<TextLayoutCache.TextLayout> labels = new ArrayList<>();
 
-  LabelGraphic(GraphicOverlay overlay, List<FirebaseVisionImageLabel> labels) {
+  private LabelGraphic(GraphicOverlay overlay) {
     super(overlay);
     this.overlay = overlay;
-    this.labels = labels;
-    textPaint = new Paint();
-    textPaint.setColor(Color.WHITE);
-    textPaint.setTextSize(60.0f);
+  }
+
+  LabelGraphic bind(List<FirebaseVisionImageLabel> labels) {
+    this.labels.clear();
+    for (int i = 0; i < labels.size(); i++) {
+      this.labels.add(TEXT_LAYOUTS.get(labels.get(i).getText()));
+    }
+    return this;
+  }
+
+  @Override
+  public void draw(Canvas canvas) {
+    float x = overlay.getWidth() / 4.0f;
+    float y = overlay.getHeight() / 2.0f;
+
+    for (int i = 0; i < labels.size(); i++) {
+      labels.get(i).draw(canvas, x, y);
+      y = y - 62.0f;
+    }
   }
 
   @Override
-  public synchronized void draw(Canvas canvas) {
+  public boolean getBounds(RectF bounds) {
     float x = overlay.getWidth() / 4.0f;
     float y = overlay.getHeight() / 2.0f;
 
-    for (FirebaseVisionImageLabel label : labels) {
-      canvas.drawText(label.getText(), x, y, textPaint);
+    for (int i = 0; i < labels.size(); i++) {
+      labels.get(i).union(bounds, x, y);
       y = y - 62.0f;
     }
+    return true;
+  }
+
+  @Override
+  protected void onRecycle() {
+    labels.clear();
   }
 }
@@ -3,37 +3,77 @@ package com.google.firebase.samples.apps.mlkit.java.labeldetector;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.PointF;
+import android.graphics.RectF;
 import com.google.firebase.ml.vision.label.FirebaseVisionImageLabel;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
+import com.google.firebase.samples.apps.mlkit.common.TextLayoutCache;
 
 import java.util.List;
 
 /** Graphic instance for rendering a label within an associated graphic overlay view. */
 public class LabelGraphic extends GraphicOverlay.Graphic {
 
-  private final Paint textPaint;
-  private final GraphicOverlay overlay;
+  private static final Paint TEXT_PAINT = textPaint(Color.WHITE, 35.0f);
+  private static final TextLayoutCache TEXT_LAYOUTS = new TextLayoutCache(TEXT_PAINT, 64);
+  private static final TextLayoutCache.TextLayout EMPTY = TEXT_LAYOUTS.get("");
 
+  public static final GraphicPool.Factory<LabelGraphic> FACTORY =
+      new GraphicPool.Factory<LabelGraphic>() {
+        @Override
+        public LabelGraphic create(GraphicOverlay overlay) {
+          return new LabelGraphic(overlay);
+        }
+      };
 
-  public LabelGraphic(GraphicOverlay overlay, String labels, float conf, float x, float y) {
+  private LabelGraphic(GraphicOverlay overlay) {
     super(overlay);
-    this.overlay = overlay;
-    textPaint = new Paint();
-    textPaint.setColor(Color.WHITE);
-    textPaint.setTextSize(35.0f);
+  }
+
+  /**
+   * Binds labels drawn at ({@code x}, {@code y}). A {@code trackingKey} other than {@link
+   * #NO_TRACKING_KEY}, e.g. the tracking id of the labeled face, lets the overlay move the label
+   * smoothly from one result to the next.
+   */
+  public LabelGraphic bind(String labels, float conf, float x, float y, long trackingKey) {
     minConf = conf;
-    text = labels;
+    text = TEXT_LAYOUTS.get(labels);
     this.x = x;
     this.y = y;
-    postInvalidate();
+    this.trackingKey = trackingKey;
+    return this;
+  }
+
+  @Override
+  public void draw(Canvas canvas) {
+    text.draw(canvas, x, y);
+  }
+
+  @Override
+  public boolean getBounds(RectF bounds) {
+    text.union(bounds, x, y);
+    return true;
+  }
+
+  @Override
+  public long getTrackingKey() {
+    return trackingKey;
+  }
+
+  @Override
+  public void getAnchor(PointF anchor) {
+    anchor.set(x, y);
   }
 
   @Override
-  public synchronized void draw(Canvas canvas) {
-    canvas.drawText(text , x, y, textPaint);
+  protected void onRecycle() {
+    text = EMPTY;
+    trackingKey = NO_TRACKING_KEY;
   }
 
   float minConf = 0;
-  String text = "";
+  TextLayoutCache.TextLayout text = EMPTY;
   float x, y;
+  long trackingKey = NO_TRACKING_KEY;
 }
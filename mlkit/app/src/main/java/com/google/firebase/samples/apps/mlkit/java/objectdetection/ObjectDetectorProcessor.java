@@ -12,27 +12,67 @@ import com.google.firebase.ml.vision.objects.FirebaseVisionObject;
 import com.google.firebase.ml.vision.objects.FirebaseVisionObjectDetector;
 import com.google.firebase.ml.vision.objects.FirebaseVisionObjectDetectorOptions;
 import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
+import com.google.firebase.samples.apps.mlkit.common.CostProfile;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
+import com.google.firebase.samples.apps.mlkit.common.preference.PipelineConfig;
 import com.google.firebase.samples.apps.mlkit.java.VisionProcessorBase;
 
 import java.io.IOException;
 import java.util.List;
 
-/** A processor to run object detector. */
+/**
+ * A processor to run object detector. When created from a {@link PipelineConfig} the detector
+ * follows the active {@link CostProfile}; otherwise it keeps the options it was given.
+ */
 public class ObjectDetectorProcessor extends VisionProcessorBase<List<FirebaseVisionObject>> {
 
   private static final String TAG = "ObjectDetectorProcessor";
 
-  private final FirebaseVisionObjectDetector detector;
+  private static final int GRAPHIC_POOL_CAPACITY = 16;
+
+  @Nullable private final PipelineConfig config;
+
+  private final GraphicPool<ObjectGraphic> objectGraphics =
+      new GraphicPool<>(GRAPHIC_POOL_CAPACITY, ObjectGraphic.FACTORY);
+
+  private volatile FirebaseVisionObjectDetector detector;
 
   public ObjectDetectorProcessor(FirebaseVisionObjectDetectorOptions options) {
+    config = null;
     detector = FirebaseVision.getInstance().getOnDeviceObjectDetector(options);
   }
 
+  public ObjectDetectorProcessor(PipelineConfig config) {
+    super(config.getObjectCostProfile());
+    this.config = config;
+    detector =
+        FirebaseVision.getInstance()
+            .getOnDeviceObjectDetector(
+                config.getObjectDetectorOptions(config.getObjectCostProfile()));
+  }
+
+  @Override
+  protected void onCostProfileChanged(CostProfile profile) {
+    if (config == null) {
+      return;
+    }
+    FirebaseVisionObjectDetector previous = detector;
+    detector =
+        FirebaseVision.getInstance()
+            .getOnDeviceObjectDetector(config.getObjectDetectorOptions(profile));
+    close(previous);
+  }
+
   @Override
   public void stop() {
     super.stop();
+    Log.i(TAG, "Object graphics: " + objectGraphics);
+    close(detector);
+  }
+
+  private static void close(FirebaseVisionObjectDetector detector) {
     try {
       detector.close();
     } catch (IOException e) {
@@ -51,16 +91,15 @@ public class ObjectDetectorProcessor extends VisionProcessorBase<List<FirebaseVi
       @NonNull List<FirebaseVisionObject> results,
       @NonNull FrameMetadata frameMetadata,
       @NonNull GraphicOverlay graphicOverlay) {
-    graphicOverlay.clear();
+    GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
     if (originalCameraImage != null) {
       CameraImageGraphic imageGraphic = new CameraImageGraphic(graphicOverlay, originalCameraImage);
-      graphicOverlay.add(imageGraphic);
+      scene.add(imageGraphic);
     }
     for (FirebaseVisionObject object : results) {
-      ObjectGraphic objectGraphic = new ObjectGraphic(graphicOverlay, object);
-      graphicOverlay.add(objectGraphic);
+      scene.add(objectGraphics.obtain(graphicOverlay).bind(object));
     }
-    graphicOverlay.postInvalidate();
+    graphicOverlay.publish(scene);
   }
 
   @Override
@@ -3,12 +3,13 @@ package com.google.firebase.samples.apps.mlkit.java.objectdetection;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Paint.Style;
+import android.graphics.PointF;
 import android.graphics.RectF;
 
 import com.google.firebase.ml.vision.objects.FirebaseVisionObject;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay.Graphic;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
 
 /** Draw the detected object info in preview. */
 public class ObjectGraphic extends Graphic {
@@ -16,41 +17,77 @@ public class ObjectGraphic extends Graphic {
   private static final float TEXT_SIZE = 54.0f;
   private static final float STROKE_WIDTH = 4.0f;
 
-  private final FirebaseVisionObject object;
-  private final Paint boxPaint;
-  private final Paint textPaint;
+  private static final Paint BOX_PAINT = strokePaint(Color.WHITE, STROKE_WIDTH);
+  private static final Paint TEXT_PAINT = textPaint(Color.WHITE, TEXT_SIZE);
 
-  ObjectGraphic(GraphicOverlay overlay, FirebaseVisionObject object) {
-    super(overlay);
+  static final GraphicPool.Factory<ObjectGraphic> FACTORY =
+      new GraphicPool.Factory<ObjectGraphic>() {
+        @Override
+        public ObjectGraphic create(GraphicOverlay overlay) {
+          return new ObjectGraphic(overlay);
+        }
+      };
 
-    this.object = object;
+  private final RectF rect = new RectF();
+  private final RectF boundsRect = new RectF();
+  private FirebaseVisionObject object;
+  // Formatted once per result rather than on every draw.
+  private String categoryLabel;
+  private String trackingLabel;
+  private String confidenceLabel;
 
-    boxPaint = new Paint();
-    boxPaint.setColor(Color.WHITE);
-    boxPaint.setStyle(Style.STROKE);
-    boxPaint.setStrokeWidth(STROKE_WIDTH);
+  private ObjectGraphic(GraphicOverlay overlay) {
+    super(overlay);
+  }
 
-    textPaint = new Paint();
-    textPaint.setColor(Color.WHITE);
-    textPaint.setTextSize(TEXT_SIZE);
+  ObjectGraphic bind(FirebaseVisionObject object) {
+    this.object = object;
+    categoryLabel = getCategoryName(object.getClassificationCategory());
+    trackingLabel = "trackingId: " + object.getTrackingId();
+    confidenceLabel = "confidence: " + object.getClassificationConfidence();
+    return this;
   }
 
   @Override
   public void draw(Canvas canvas) {
     // Draws the bounding box.
-    RectF rect = new RectF(object.getBoundingBox());
-    rect.left = translateX(rect.left);
-    rect.top = translateY(rect.top);
-    rect.right = translateX(rect.right);
-    rect.bottom = translateY(rect.bottom);
-    canvas.drawRect(rect, boxPaint);
+    translateRect(object.getBoundingBox(), rect);
+    canvas.drawRect(rect, BOX_PAINT);
 
     // Draws other object info.
-    canvas.drawText(
-        getCategoryName(object.getClassificationCategory()), rect.left, rect.bottom, textPaint);
-    canvas.drawText("trackingId: " + object.getTrackingId(), rect.left, rect.top, textPaint);
-    canvas.drawText(
-        "confidence: " + object.getClassificationConfidence(), rect.right, rect.bottom, textPaint);
+    canvas.drawText(categoryLabel, rect.left, rect.bottom, TEXT_PAINT);
+    canvas.drawText(trackingLabel, rect.left, rect.top, TEXT_PAINT);
+    canvas.drawText(confidenceLabel, rect.right, rect.bottom, TEXT_PAINT);
+  }
+
+  @Override
+  public boolean getBounds(RectF bounds) {
+    translateRect(object.getBoundingBox(), boundsRect);
+    unionStroke(bounds, boundsRect, BOX_PAINT);
+    unionText(bounds, categoryLabel, boundsRect.left, boundsRect.bottom, TEXT_PAINT);
+    unionText(bounds, trackingLabel, boundsRect.left, boundsRect.top, TEXT_PAINT);
+    unionText(bounds, confidenceLabel, boundsRect.right, boundsRect.bottom, TEXT_PAINT);
+    return true;
+  }
+
+  @Override
+  public long getTrackingKey() {
+    Integer trackingId = object.getTrackingId();
+    return trackingId == null ? NO_TRACKING_KEY : trackingId;
+  }
+
+  @Override
+  public void getAnchor(PointF anchor) {
+    translateRect(object.getBoundingBox(), boundsRect);
+    anchor.set(boundsRect.centerX(), boundsRect.centerY());
+  }
+
+  @Override
+  protected void onRecycle() {
+    object = null;
+    categoryLabel = null;
+    trackingLabel = null;
+    confidenceLabel = null;
   }
 
   private static String getCategoryName(@FirebaseVisionObject.Category int category) {
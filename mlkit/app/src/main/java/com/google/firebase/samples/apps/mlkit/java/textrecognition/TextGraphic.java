@@ -16,15 +16,20 @@ package com.google.firebase.samples.apps.mlkit.java.textrecognition;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
 
+import androidx.annotation.Nullable;
+
 import com.google.firebase.ml.vision.text.FirebaseVisionText;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay.Graphic;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
+import com.google.firebase.samples.apps.mlkit.common.TextLayoutCache;
 
 /**
  * Graphic instance for rendering TextBlock position, size, and ID within an associated graphic
- * overlay view.
+ * overlay view. Instances are pooled and rebound to each new result.
  */
 public class TextGraphic extends Graphic {
 
@@ -32,41 +37,69 @@ public class TextGraphic extends Graphic {
   private static final float TEXT_SIZE = 54.0f;
   private static final float STROKE_WIDTH = 4.0f;
 
-  private final Paint rectPaint;
-  private final Paint textPaint;
-  private final FirebaseVisionText.Element text;
+  private static final Paint RECT_PAINT = strokePaint(TEXT_COLOR, STROKE_WIDTH);
+  private static final Paint TEXT_PAINT = textPaint(TEXT_COLOR, TEXT_SIZE);
 
-  TextGraphic(GraphicOverlay overlay, FirebaseVisionText.Element text) {
-    super(overlay);
+  // Recognized words recur from frame to frame, and a dense page has several hundred of them.
+  static final TextLayoutCache TEXT_LAYOUTS = new TextLayoutCache(TEXT_PAINT, 1024);
 
-    this.text = text;
+  static final GraphicPool.Factory<TextGraphic> FACTORY =
+      new GraphicPool.Factory<TextGraphic>() {
+        @Override
+        public TextGraphic create(GraphicOverlay overlay) {
+          return new TextGraphic(overlay);
+        }
+      };
 
-    rectPaint = new Paint();
-    rectPaint.setColor(TEXT_COLOR);
-    rectPaint.setStyle(Paint.Style.STROKE);
-    rectPaint.setStrokeWidth(STROKE_WIDTH);
+  private final RectF rect = new RectF();
+  private final RectF boundsRect = new RectF();
+  @Nullable private Rect boundingBox;
+  @Nullable private TextLayoutCache.TextLayout textLayout;
+
+  private TextGraphic(GraphicOverlay overlay) {
+    super(overlay);
+  }
+
+  TextGraphic bind(FirebaseVisionText.Element text) {
+    return bind(text.getBoundingBox(), text.getText());
+  }
 
-    textPaint = new Paint();
-    textPaint.setColor(TEXT_COLOR);
-    textPaint.setTextSize(TEXT_SIZE);
+  /** Draws an arbitrary piece of recognized text, e.g. a whole line. */
+  TextGraphic bind(@Nullable Rect boundingBox, @Nullable String text) {
+    this.boundingBox = boundingBox;
+    textLayout = text == null ? null : TEXT_LAYOUTS.get(text);
+    return this;
   }
 
   /** Draws the text block annotations for position, size, and raw value on the supplied canvas. */
   @Override
   public void draw(Canvas canvas) {
-    if (text == null) {
+    if (textLayout == null || boundingBox == null) {
       throw new IllegalStateException("Attempting to draw a null text.");
     }
 
     // Draws the bounding box around the TextBlock.
-    RectF rect = new RectF(text.getBoundingBox());
-    rect.left = translateX(rect.left);
-    rect.top = translateY(rect.top);
-    rect.right = translateX(rect.right);
-    rect.bottom = translateY(rect.bottom);
-    canvas.drawRect(rect, rectPaint);
+    translateRect(boundingBox, rect);
+    canvas.drawRect(rect, RECT_PAINT);
 
     // Renders the text at the bottom of the box.
-    canvas.drawText(text.getText(), rect.left, rect.bottom, textPaint);
+    textLayout.draw(canvas, rect.left, rect.bottom);
+  }
+
+  @Override
+  public boolean getBounds(RectF bounds) {
+    if (textLayout == null || boundingBox == null) {
+      return true;
+    }
+    translateRect(boundingBox, boundsRect);
+    unionStroke(bounds, boundsRect, RECT_PAINT);
+    textLayout.union(bounds, boundsRect.left, boundsRect.bottom);
+    return true;
+  }
+
+  @Override
+  protected void onRecycle() {
+    boundingBox = null;
+    textLayout = null;
   }
 }
@@ -24,8 +24,10 @@ import com.google.firebase.ml.vision.common.FirebaseVisionImage;
 import com.google.firebase.ml.vision.text.FirebaseVisionText;
 import com.google.firebase.ml.vision.text.FirebaseVisionTextRecognizer;
 import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
+import com.google.firebase.samples.apps.mlkit.common.CostProfile;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.GraphicPool;
 import com.google.firebase.samples.apps.mlkit.java.VisionProcessorBase;
 
 import java.io.IOException;
@@ -33,19 +35,35 @@ import java.util.List;
 
 /**
  * Processor for the text recognition demo.
+ *
+ * <p>The on-device recognizer has no options to trade for speed, so the {@link CostProfile} only
+ * decides how much is drawn: one graphic per line, or one per element for {@link
+ * CostProfile#FULL_ANALYSIS}.
  */
 public class TextRecognitionProcessor extends VisionProcessorBase<FirebaseVisionText> {
 
     private static final String TAG = "TextRecProc";
 
+    // Dense pages have a few hundred elements.
+    private static final int GRAPHIC_POOL_CAPACITY = 512;
+
     private final FirebaseVisionTextRecognizer detector;
 
+    private final GraphicPool<TextGraphic> textGraphics =
+            new GraphicPool<>(GRAPHIC_POOL_CAPACITY, TextGraphic.FACTORY);
+
     public TextRecognitionProcessor() {
+        this(CostProfile.FULL_ANALYSIS);
+    }
+
+    public TextRecognitionProcessor(CostProfile profile) {
+        super(profile);
         detector = FirebaseVision.getInstance().getOnDeviceTextRecognizer();
     }
 
     @Override
     public void stop() {
+        Log.i(TAG, "Text graphics: " + textGraphics + "; layouts: " + TextGraphic.TEXT_LAYOUTS);
         try {
             detector.close();
         } catch (IOException e) {
@@ -64,25 +82,30 @@ public class TextRecognitionProcessor extends VisionProcessorBase<FirebaseVision
             @NonNull FirebaseVisionText results,
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
+        GraphicOverlay.Scene scene = graphicOverlay.obtainScene();
         if (originalCameraImage != null) {
             CameraImageGraphic imageGraphic = new CameraImageGraphic(graphicOverlay,
                     originalCameraImage);
-            graphicOverlay.add(imageGraphic);
+            scene.add(imageGraphic);
         }
+        boolean drawElements = getCostProfile() == CostProfile.FULL_ANALYSIS;
         List<FirebaseVisionText.TextBlock> blocks = results.getTextBlocks();
         for (int i = 0; i < blocks.size(); i++) {
             List<FirebaseVisionText.Line> lines = blocks.get(i).getLines();
             for (int j = 0; j < lines.size(); j++) {
-                List<FirebaseVisionText.Element> elements = lines.get(j).getElements();
+                FirebaseVisionText.Line line = lines.get(j);
+                if (!drawElements) {
+                    scene.add(textGraphics.obtain(graphicOverlay)
+                            .bind(line.getBoundingBox(), line.getText()));
+                    continue;
+                }
+                List<FirebaseVisionText.Element> elements = line.getElements();
                 for (int k = 0; k < elements.size(); k++) {
-                    GraphicOverlay.Graphic textGraphic = new TextGraphic(graphicOverlay,
-                            elements.get(k));
-                    graphicOverlay.add(textGraphic);
+                    scene.add(textGraphics.obtain(graphicOverlay).bind(elements.get(k)));
                 }
             }
         }
-        graphicOverlay.postInvalidate();
+        graphicOverlay.publish(scene);
     }
 
     @Override
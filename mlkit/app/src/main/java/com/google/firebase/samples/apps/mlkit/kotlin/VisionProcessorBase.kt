@@ -80,7 +80,12 @@ abstract class VisionProcessorBase<T> : VisionImageProcessor {
             .setRotation(frameMetadata.rotation)
             .build()
 
-        val bitmap = BitmapUtils.getBitmap(data, frameMetadata)
+        // The camera image is only drawn when the preview does not show it already.
+        val bitmap = if (graphicOverlay.isCameraPreviewLive) {
+            null
+        } else {
+            BitmapUtils.getBitmap(data, frameMetadata)
+        }
         detectInVisionImage(
             bitmap, FirebaseVisionImage.fromByteBuffer(data, metadata), frameMetadata,
             graphicOverlay
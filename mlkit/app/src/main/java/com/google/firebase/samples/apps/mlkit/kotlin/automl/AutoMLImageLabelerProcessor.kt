@@ -111,17 +111,17 @@ constructor(private val context: Context, private val mode: Mode) :
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
+        val scene = graphicOverlay.obtainScene()
         if (originalCameraImage != null) {
             val imageGraphic = CameraImageGraphic(
                 graphicOverlay,
                 originalCameraImage
             )
-            graphicOverlay.add(imageGraphic)
+            scene.add(imageGraphic)
         }
         val labelGraphic = LabelGraphic(graphicOverlay, labels)
-        graphicOverlay.add(labelGraphic)
-        graphicOverlay.postInvalidate()
+        scene.add(labelGraphic)
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
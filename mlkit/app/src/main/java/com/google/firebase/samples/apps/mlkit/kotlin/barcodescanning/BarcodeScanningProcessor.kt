@@ -43,18 +43,18 @@ class BarcodeScanningProcessor : VisionProcessorBase<List<FirebaseVisionBarcode>
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
+        val scene = graphicOverlay.obtainScene()
 
         originalCameraImage?.let {
             val imageGraphic = CameraImageGraphic(graphicOverlay, it)
-            graphicOverlay.add(imageGraphic)
+            scene.add(imageGraphic)
         }
 
         barcodes.forEach {
             val barcodeGraphic = BarcodeGraphic(graphicOverlay, it)
-            graphicOverlay.add(barcodeGraphic)
+            scene.add(barcodeGraphic)
         }
-        graphicOverlay.postInvalidate()
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
@@ -32,7 +32,7 @@ class CloudImageLabelingProcessor : VisionProcessorBase<List<FirebaseVisionImage
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
+        val scene = graphicOverlay.obtainScene()
         Log.d(TAG, "cloud label size: ${results.size}")
         val labelsStr = ArrayList<String>()
 
@@ -44,8 +44,8 @@ class CloudImageLabelingProcessor : VisionProcessorBase<List<FirebaseVisionImage
         }
 
         val cloudLabelGraphic = CloudLabelGraphic(graphicOverlay, labelsStr)
-        graphicOverlay.add(cloudLabelGraphic)
-        graphicOverlay.postInvalidate()
+        scene.add(cloudLabelGraphic)
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
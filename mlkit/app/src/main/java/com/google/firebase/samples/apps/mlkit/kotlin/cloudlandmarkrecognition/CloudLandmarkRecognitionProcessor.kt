@@ -36,15 +36,15 @@ class CloudLandmarkRecognitionProcessor : VisionProcessorBase<List<FirebaseVisio
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
+        val scene = graphicOverlay.obtainScene()
         Log.d(TAG, "cloud landmark size: ${results.size}")
 
         results.forEach {
             Log.d(TAG, "cloud landmark: $it")
             val cloudLandmarkGraphic = CloudLandmarkGraphic(graphicOverlay, it)
-            graphicOverlay.add(cloudLandmarkGraphic)
+            scene.add(cloudLandmarkGraphic)
         }
-        graphicOverlay.postInvalidate()
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
@@ -27,7 +27,7 @@ class CloudDocumentTextRecognitionProcessor : VisionProcessorBase<FirebaseVision
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
+        val scene = graphicOverlay.obtainScene()
         Log.d(TAG, "detected text is: ${results.text}")
         val blocks = results.blocks
         for (i in blocks.indices) {
@@ -41,12 +41,12 @@ class CloudDocumentTextRecognitionProcessor : VisionProcessorBase<FirebaseVision
                             graphicOverlay,
                             symbols[m]
                         )
-                        graphicOverlay.add(cloudDocumentTextGraphic)
-                        graphicOverlay.postInvalidate()
+                        scene.add(cloudDocumentTextGraphic)
                     }
                 }
             }
         }
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
@@ -28,10 +28,11 @@ class CloudTextRecognitionProcessor : VisionProcessorBase<FirebaseVisionText>()
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
         if (results == null) {
+            graphicOverlay.clear()
             return // TODO: investigate why this is needed
         }
+        val scene = graphicOverlay.obtainScene()
         val blocks = results.textBlocks
         for (i in blocks.indices) {
             val lines = blocks[i].lines
@@ -42,11 +43,11 @@ class CloudTextRecognitionProcessor : VisionProcessorBase<FirebaseVisionText>()
                         graphicOverlay,
                         elements[l]
                     )
-                    graphicOverlay.add(cloudTextGraphic)
-                    graphicOverlay.postInvalidate()
+                    scene.add(cloudTextGraphic)
                 }
             }
         }
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
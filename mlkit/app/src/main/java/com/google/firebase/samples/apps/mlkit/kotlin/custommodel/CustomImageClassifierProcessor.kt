@@ -51,12 +51,13 @@ constructor(activity: Activity, useQuantizedModel: Boolean) : VisionImageProcess
                         graphicOverlay,
                         result
                     )
-                    val bitmap = BitmapUtils.getBitmap(data, frameMetadata)
-                    val imageGraphic = CameraImageGraphic(graphicOverlay, bitmap)
-                    graphicOverlay.clear()
-                    graphicOverlay.add(imageGraphic)
-                    graphicOverlay.add(labelGraphic)
-                    graphicOverlay.postInvalidate()
+                    val scene = graphicOverlay.obtainScene()
+                    if (!graphicOverlay.isCameraPreviewLive) {
+                        val bitmap = BitmapUtils.getBitmap(data, frameMetadata)
+                        scene.add(CameraImageGraphic(graphicOverlay, bitmap))
+                    }
+                    scene.add(labelGraphic)
+                    graphicOverlay.publish(scene)
                 }
                 .addOnFailureListener { e ->
                     Log.d(TAG, "Custom classifier failed: $e")
@@ -48,19 +48,19 @@ class FaceContourDetectorProcessor : VisionProcessorBase<List<FirebaseVisionFace
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
+        val scene = graphicOverlay.obtainScene()
 
         originalCameraImage?.let {
             val imageGraphic = CameraImageGraphic(graphicOverlay, it)
-            graphicOverlay.add(imageGraphic)
+            scene.add(imageGraphic)
         }
 
         results.forEach {
             val faceGraphic = FaceContourGraphic(graphicOverlay, it)
-            graphicOverlay.add(faceGraphic)
+            scene.add(faceGraphic)
         }
 
-        graphicOverlay.postInvalidate()
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
@@ -53,17 +53,19 @@ class FaceDetectionProcessor(res: Resources) : VisionProcessorBase<List<Firebase
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
-        val imageGraphic = CameraImageGraphic(graphicOverlay, originalCameraImage)
-        graphicOverlay.add(imageGraphic)
+        val scene = graphicOverlay.obtainScene()
+        originalCameraImage?.let {
+            val imageGraphic = CameraImageGraphic(graphicOverlay, it)
+            scene.add(imageGraphic)
+        }
         for (i in results.indices) {
             val face = results[i]
 
             val cameraFacing = frameMetadata.cameraFacing
             val faceGraphic = FaceGraphic(graphicOverlay, face, cameraFacing, overlayBitmap)
-            graphicOverlay.add(faceGraphic)
+            scene.add(faceGraphic)
         }
-        graphicOverlay.postInvalidate()
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
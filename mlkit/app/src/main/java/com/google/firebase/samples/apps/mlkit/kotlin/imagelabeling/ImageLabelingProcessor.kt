@@ -36,14 +36,14 @@ class ImageLabelingProcessor : VisionProcessorBase<List<FirebaseVisionImageLabel
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
-        originalCameraImage.let { image ->
+        val scene = graphicOverlay.obtainScene()
+        originalCameraImage?.let { image ->
             val imageGraphic = CameraImageGraphic(graphicOverlay, image)
-            graphicOverlay.add(imageGraphic)
+            scene.add(imageGraphic)
         }
         val labelGraphic = LabelGraphic(graphicOverlay, labels)
-        graphicOverlay.add(labelGraphic)
-        graphicOverlay.postInvalidate()
+        scene.add(labelGraphic)
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
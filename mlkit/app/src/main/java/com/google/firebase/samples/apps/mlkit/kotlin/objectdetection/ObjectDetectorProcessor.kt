@@ -45,16 +45,16 @@ class ObjectDetectorProcessor(options: FirebaseVisionObjectDetectorOptions) :
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
+        val scene = graphicOverlay.obtainScene()
         if (originalCameraImage != null) {
             val imageGraphic = CameraImageGraphic(graphicOverlay, originalCameraImage)
-            graphicOverlay.add(imageGraphic)
+            scene.add(imageGraphic)
         }
         for (visionObject in results) {
             val objectGraphic = ObjectGraphic(graphicOverlay, visionObject)
-            graphicOverlay.add(objectGraphic)
+            scene.add(objectGraphic)
         }
-        graphicOverlay.postInvalidate()
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
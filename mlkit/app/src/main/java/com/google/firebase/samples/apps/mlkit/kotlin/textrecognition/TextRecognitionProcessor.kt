@@ -36,10 +36,10 @@ class TextRecognitionProcessor : VisionProcessorBase<FirebaseVisionText>() {
         frameMetadata: FrameMetadata,
         graphicOverlay: GraphicOverlay
     ) {
-        graphicOverlay.clear()
-        originalCameraImage.let { image ->
+        val scene = graphicOverlay.obtainScene()
+        originalCameraImage?.let { image ->
             val imageGraphic = CameraImageGraphic(graphicOverlay, image)
-            graphicOverlay.add(imageGraphic)
+            scene.add(imageGraphic)
         }
         val blocks = results.textBlocks
         for (i in blocks.indices) {
@@ -48,11 +48,11 @@ class TextRecognitionProcessor : VisionProcessorBase<FirebaseVisionText>() {
                 val elements = lines[j].elements
                 for (k in elements.indices) {
                     val textGraphic = TextGraphic(graphicOverlay, elements[k])
-                    graphicOverlay.add(textGraphic)
+                    scene.add(textGraphic)
                 }
             }
         }
-        graphicOverlay.postInvalidate()
+        graphicOverlay.publish(scene)
     }
 
     override fun onFailure(e: Exception) {
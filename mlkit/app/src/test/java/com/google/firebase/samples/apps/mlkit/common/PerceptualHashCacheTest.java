@@ -0,0 +1,184 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks the dHash of {@link PerceptualHashCache} on synthetic 640x480 frames, and how lookups
+ * match hashes. The framework clock is a stub here, so entries never expire.
+ */
+public class PerceptualHashCacheTest {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  /** The distance limit the processors use. */
+  private static final int MAX_DISTANCE = 4;
+
+  @Test
+  public void lumaNoiseChangesNoBitsOfDistinctCells() {
+    byte[] frame = blocks(1);
+    long hash = PerceptualHashCache.dHash(frame, WIDTH, HEIGHT);
+    for (int seed = 0; seed < 10; seed++) {
+      long noisy = PerceptualHashCache.dHash(withNoise(frame, 10, seed), WIDTH, HEIGHT);
+      assertEquals("seed " + seed, 0, Long.bitCount(hash ^ noisy));
+    }
+  }
+
+  @Test
+  public void lumaNoiseStaysWithinTheMatchDistance() {
+    // Where neighbouring cells are almost equally bright, noise can flip their bit.
+    for (int sceneSeed = 1; sceneSeed < 40; sceneSeed++) {
+      byte[] frame = scene(sceneSeed);
+      long hash = PerceptualHashCache.dHash(frame, WIDTH, HEIGHT);
+      for (int seed = 0; seed < 10; seed++) {
+        long noisy = PerceptualHashCache.dHash(withNoise(frame, 10, seed), WIDTH, HEIGHT);
+        int distance = Long.bitCount(hash ^ noisy);
+        assertTrue("scene " + sceneSeed + ": " + distance, distance <= MAX_DISTANCE);
+      }
+    }
+  }
+
+  @Test
+  public void differentScenesDifferByAboutHalfTheBits() {
+    int total = 0;
+    int pairs = 0;
+    for (int seed = 1; seed < 10; seed++) {
+      long a = PerceptualHashCache.dHash(scene(seed), WIDTH, HEIGHT);
+      long b = PerceptualHashCache.dHash(scene(seed + 100), WIDTH, HEIGHT);
+      int distance = Long.bitCount(a ^ b);
+      assertTrue("seed " + seed + ": " + distance, distance > 4 * MAX_DISTANCE);
+      total += distance;
+      pairs++;
+    }
+    // Unrelated scenes agree on each bit by chance, so they differ in 32 bits on average.
+    float mean = (float) total / pairs;
+    assertTrue("mean distance " + mean, mean > 26 && mean < 38);
+  }
+
+  @Test
+  public void ignoresTheChromaPlane() {
+    byte[] frame = scene(3);
+    byte[] recolored = frame.clone();
+    for (int i = WIDTH * HEIGHT; i < recolored.length; i++) {
+      recolored[i] = (byte) (i * 31);
+    }
+    assertEquals(
+        PerceptualHashCache.dHash(frame, WIDTH, HEIGHT),
+        PerceptualHashCache.dHash(recolored, WIDTH, HEIGHT));
+  }
+
+  @Test
+  public void returnsTheClosestEntryWithinTheDistance() {
+    PerceptualHashCache<String> cache = new PerceptualHashCache<>(16, MAX_DISTANCE, 2000);
+    cache.put(0L, "zero", 30);
+    cache.put(0xffL, "eight bits", 30);
+    // Three bits from "zero" and five from "eight bits".
+    assertEquals("zero", cache.get(0x7L));
+    // Three bits from "eight bits" and five from "zero".
+    assertEquals("eight bits", cache.get(0x1fL));
+    assertEquals("zero", cache.get(0xfL << 40));
+    assertNull(cache.get(0x1fL << 40));
+    assertEquals(0.75f, cache.getHitRate(), 1e-6);
+    assertEquals(90, cache.getSavedMs());
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedEntry() {
+    PerceptualHashCache<String> cache = new PerceptualHashCache<>(2, 0, 2000);
+    cache.put(1L, "a", 10);
+    cache.put(2L, "b", 10);
+    assertEquals("a", cache.get(1L));
+    cache.put(4L, "c", 10);
+    assertNull(cache.get(2L));
+    assertEquals("a", cache.get(1L));
+    assertEquals("c", cache.get(4L));
+  }
+
+  /**
+   * A smooth NV21 frame: luma interpolated bilinearly between random values on a coarse grid, like
+   * the large structures of a real scene, over a random chroma plane.
+   */
+  private static byte[] scene(int seed) {
+    Random random = new Random(seed);
+    int gridWidth = 13;
+    int gridHeight = 10;
+    int[] grid = new int[gridWidth * gridHeight];
+    for (int i = 0; i < grid.length; i++) {
+      grid[i] = 24 + random.nextInt(208);
+    }
+    byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+    for (int y = 0; y < HEIGHT; y++) {
+      float gy = (float) y * (gridHeight - 1) / HEIGHT;
+      int y0 = (int) gy;
+      float fy = gy - y0;
+      for (int x = 0; x < WIDTH; x++) {
+        float gx = (float) x * (gridWidth - 1) / WIDTH;
+        int x0 = (int) gx;
+        float fx = gx - x0;
+        float top = grid[y0 * gridWidth + x0] * (1 - fx) + grid[y0 * gridWidth + x0 + 1] * fx;
+        float bottom =
+            grid[(y0 + 1) * gridWidth + x0] * (1 - fx) + grid[(y0 + 1) * gridWidth + x0 + 1] * fx;
+        nv21[y * WIDTH + x] = (byte) Math.round(top * (1 - fy) + bottom * fy);
+      }
+    }
+    for (int i = WIDTH * HEIGHT; i < nv21.length; i++) {
+      nv21[i] = (byte) random.nextInt(256);
+    }
+    return nv21;
+  }
+
+  /**
+   * An NV21 frame whose luma is constant over each cell of the hash grid and differs from the
+   * cell to its left by at least 16.
+   */
+  private static byte[] blocks(int seed) {
+    Random random = new Random(seed);
+    int cellWidth = WIDTH / 9;
+    int cellHeight = HEIGHT / 8;
+    byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+    for (int gy = 0; gy < 8; gy++) {
+      int previous = -1;
+      for (int gx = 0; gx <= WIDTH / cellWidth; gx++) {
+        int value;
+        do {
+          value = 24 + random.nextInt(208);
+        } while (Math.abs(value - previous) < 16);
+        previous = value;
+        for (int y = gy * cellHeight; y < Math.min(HEIGHT, (gy + 1) * cellHeight); y++) {
+          for (int x = gx * cellWidth; x < Math.min(WIDTH, (gx + 1) * cellWidth); x++) {
+            nv21[y * WIDTH + x] = (byte) value;
+          }
+        }
+      }
+    }
+    return nv21;
+  }
+
+  /** Adds uniform noise of up to {@code amplitude} to every luma value. */
+  private static byte[] withNoise(byte[] nv21, int amplitude, int seed) {
+    Random random = new Random(seed);
+    byte[] noisy = nv21.clone();
+    for (int i = 0; i < WIDTH * HEIGHT; i++) {
+      int value = (noisy[i] & 0xff) + random.nextInt(2 * amplitude + 1) - amplitude;
+      noisy[i] = (byte) Math.max(0, Math.min(255, value));
+    }
+    return noisy;
+  }
+}
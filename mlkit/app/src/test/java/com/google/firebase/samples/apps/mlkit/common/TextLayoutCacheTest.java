@@ -0,0 +1,161 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.graphics.Paint;
+import com.google.firebase.samples.apps.mlkit.common.TextLayoutCache.TextLayout;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Checks the eviction and accounting of {@link TextLayoutCache}. The framework paint is a stub
+ * here, so the layouts measure nothing; only the cache itself is exercised.
+ */
+public class TextLayoutCacheTest {
+
+  /** The capacity TextGraphic uses for OCR text. */
+  private static final int OCR_CAPACITY = 1024;
+
+  @Test
+  public void returnsTheCachedLayoutOnAHit() {
+    TextLayoutCache cache = new TextLayoutCache(new Paint(), 4);
+    TextLayout first = cache.get("hello");
+    assertSame(first, cache.get("hello"));
+    assertEquals("hello", first.getText());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedLayoutAtCapacity() {
+    TextLayoutCache cache = new TextLayoutCache(new Paint(), 3);
+    TextLayout a = cache.get("a");
+    TextLayout b = cache.get("b");
+    TextLayout c = cache.get("c");
+    // Using "a" again makes "b" the least recently used.
+    assertSame(a, cache.get("a"));
+    cache.get("d");
+    assertEquals(3, cache.size());
+
+    long misses = cache.getMissCount();
+    assertSame(a, cache.get("a"));
+    assertSame(c, cache.get("c"));
+    assertEquals(misses, cache.getMissCount());
+    assertNotSame(b, cache.get("b"));
+    assertEquals(misses + 1, cache.getMissCount());
+    assertEquals(3, cache.size());
+  }
+
+  @Test
+  public void countsHitsAndMisses() {
+    TextLayoutCache cache = new TextLayoutCache(new Paint(), 8);
+    String[] words = {"total", "12.99", "total", "tax", "12.99", "total"};
+    for (String word : words) {
+      cache.get(word);
+    }
+    assertEquals(3, cache.getHitCount());
+    assertEquals(3, cache.getMissCount());
+    assertEquals(3, cache.size());
+    assertTrue(cache.toString(), cache.toString().contains("hits=3 misses=3"));
+  }
+
+  @Test
+  public void rejectsCapacityBelowOne() {
+    try {
+      new TextLayoutCache(new Paint(), 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void denseSceneMeasuresEachStringOnce() {
+    TextLayoutCache cache = new TextLayoutCache(new Paint(), OCR_CAPACITY);
+    String[] scene = denseScene(300);
+    lookUp(cache, scene);
+    Set<String> distinct = new HashSet<>(Arrays.asList(scene));
+    // The words on the page are seen every frame and misreads only push out older misreads.
+    assertEquals(distinct.size(), cache.getMissCount());
+    assertEquals(scene.length - distinct.size(), cache.getHitCount());
+    assertEquals(OCR_CAPACITY, cache.size());
+  }
+
+  @Test
+  public void denseSceneLargerThanTheCacheNeverHits() {
+    // Strings used in a cycle longer than an LRU cache are always evicted before their next use.
+    TextLayoutCache cache = new TextLayoutCache(new Paint(), 256);
+    lookUp(cache, denseScene(50));
+    assertEquals(0, cache.getHitCount());
+  }
+
+  /**
+   * Times lookups in the dense scene and prints the mean time per lookup with the cache counts. The
+   * time a device spends measuring a miss is not included. Skipped by default; to run it, drop
+   * {@code @Ignore} and select it with {@code --tests '*TextLayoutCacheTest.benchmarkDenseScene'}.
+   */
+  @Ignore("Lookup timing, printed rather than checked")
+  @Test
+  public void benchmarkDenseScene() {
+    int frames = 300;
+    String[] scene = denseScene(frames);
+    long elapsedNanos = 0;
+    TextLayoutCache cache = null;
+    for (int round = 0; round < 5; round++) {
+      // The first rounds warm up the JIT; the last is reported.
+      cache = new TextLayoutCache(new Paint(), OCR_CAPACITY);
+      long start = System.nanoTime();
+      lookUp(cache, scene);
+      elapsedNanos = System.nanoTime() - start;
+    }
+    System.out.printf(
+        "TextLayoutCache dense scene: %d lookups in %d frames, %.1fns per lookup, %s%n",
+        scene.length, frames, (double) elapsedNanos / scene.length, cache);
+  }
+
+  /**
+   * Returns the text looked up in a dense OCR scene: 400 words per frame from a page that scrolls
+   * by one word every ten frames, with one word in twenty misread as a string not seen before.
+   */
+  private static String[] denseScene(int frames) {
+    int wordsPerFrame = 400;
+    Random random = new Random(7);
+    String[] scene = new String[frames * wordsPerFrame];
+    int misreads = 0;
+    for (int frame = 0; frame < frames; frame++) {
+      int scroll = frame / 10;
+      for (int i = 0; i < wordsPerFrame; i++) {
+        scene[frame * wordsPerFrame + i] =
+            random.nextInt(20) == 0 ? "misread " + misreads++ : "word " + (scroll + i);
+      }
+    }
+    return scene;
+  }
+
+  private static void lookUp(TextLayoutCache cache, String[] scene) {
+    for (String text : scene) {
+      cache.get(text);
+    }
+  }
+}
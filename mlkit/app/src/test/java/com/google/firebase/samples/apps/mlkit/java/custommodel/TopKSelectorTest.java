@@ -0,0 +1,257 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.custommodel;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Compares {@link TopKSelector} with the PriorityQueue selection CustomImageClassifier used before,
+ * which is kept here as the reference.
+ */
+public class TopKSelectorTest {
+
+    private static final int K = 3;
+    private static final int CLASSES = 1001;
+
+    @Test
+    public void floatSelectionMatchesPriorityQueue() {
+        Random random = new Random(1);
+        TopKSelector.Result result = new TopKSelector.Result(K);
+        for (int sample = 0; sample < 200; sample++) {
+            float[] scores = new float[CLASSES];
+            for (int i = 0; i < CLASSES; i++) {
+                scores[i] = random.nextFloat();
+            }
+            TopKSelector.select(scores, result);
+            assertSameSelection(legacyTopK(labels(CLASSES), boxed(scores)), result);
+        }
+    }
+
+    @Test
+    public void quantizedSelectionMatchesPriorityQueue() {
+        Random random = new Random(2);
+        TopKSelector.Result result = new TopKSelector.Result(K);
+        for (int sample = 0; sample < 200; sample++) {
+            byte[] scores = new byte[CLASSES];
+            random.nextBytes(scores);
+            // 1001 bytes tie at the top almost always, so only the scores are compared here;
+            // quantizedScoresAreUnsigned and the tie test cover the labels.
+            scores[random.nextInt(CLASSES)] = (byte) 0xff;
+            TopKSelector.select(scores, result);
+            List<Map.Entry<String, Float>> expected = legacyTopK(labels(CLASSES), boxed(scores));
+            assertSameScores(expected, result);
+            assertEquals(255, Math.round(result.getScore(0) * 255));
+        }
+    }
+
+    @Test
+    public void quantizedScoresAreUnsigned() {
+        // 0x80 and above are negative as Java bytes, but are the highest scores.
+        byte[] scores = {0x7f, (byte) 0x80, 0x00, (byte) 0xff, 0x10};
+        TopKSelector.Result result = new TopKSelector.Result(K);
+        TopKSelector.select(scores, result);
+        assertEquals(3, result.getIndex(0));
+        assertEquals(1, result.getIndex(1));
+        assertEquals(0, result.getIndex(2));
+        assertEquals(1f, result.getScore(0), 0);
+        assertEquals(128 / 255f, result.getScore(1), 1e-6);
+        assertSameSelection(legacyTopK(labels(scores.length), boxed(scores)), result);
+    }
+
+    @Test
+    public void shortOutputsSelectEverything() {
+        TopKSelector.Result result = new TopKSelector.Result(K);
+        float[] scores = {0.2f, 0.7f};
+        TopKSelector.select(scores, result);
+        assertEquals(2, result.size());
+        assertSameSelection(legacyTopK(labels(2), boxed(scores)), result);
+
+        TopKSelector.select(new float[0], result);
+        assertEquals(0, result.size());
+
+        TopKSelector.select(new byte[] {(byte) 200}, result);
+        assertEquals(1, result.size());
+        assertEquals(0, result.getIndex(0));
+    }
+
+    @Test
+    public void resultIsResetBetweenCalls() {
+        TopKSelector.Result result = new TopKSelector.Result(K);
+        TopKSelector.select(new float[] {0.9f, 0.8f, 0.7f, 0.6f}, result);
+        TopKSelector.select(new float[] {0.1f, 0.3f, 0.2f, 0.05f}, result);
+        assertEquals(K, result.size());
+        assertEquals(1, result.getIndex(0));
+        assertEquals(2, result.getIndex(1));
+        assertEquals(0, result.getIndex(2));
+    }
+
+    @Test
+    public void tiesKeepTheEarlierIndexAndTheSameScores() {
+        // The queue breaks ties in heap order, so only the scores are compared with it; the
+        // selector keeps the earlier index, also at the boundary of the top k.
+        float[] scores = {0.5f, 0.9f, 0.5f, 0.9f, 0.5f, 0.1f};
+        TopKSelector.Result result = new TopKSelector.Result(K);
+        TopKSelector.select(scores, result);
+        assertEquals(1, result.getIndex(0));
+        assertEquals(3, result.getIndex(1));
+        assertEquals(0, result.getIndex(2));
+        assertSameScores(legacyTopK(labels(scores.length), boxed(scores)), result);
+
+        byte[] quantized = {0x40, 0x40, 0x40, 0x40};
+        TopKSelector.select(quantized, result);
+        assertEquals(0, result.getIndex(0));
+        assertEquals(1, result.getIndex(1));
+        assertEquals(2, result.getIndex(2));
+        assertSameScores(legacyTopK(labels(quantized.length), boxed(quantized)), result);
+    }
+
+    /**
+     * Times both selections on 1001-class outputs, the size of the bundled models, and prints the
+     * mean time per output. The checksum keeps the JIT from dropping the work. Not part of the
+     * regular run: remove {@code @Ignore} and pass
+     * {@code --tests '*TopKSelectorTest.benchmark*'} to {@code ./gradlew :app:testDebugUnitTest}.
+     */
+    @Ignore("Benchmark of the old and new selection, run by hand")
+    @Test
+    public void benchmarkAgainstPriorityQueue() {
+        Random random = new Random(3);
+        int outputs = 64;
+        float[][] floatScores = new float[outputs][CLASSES];
+        byte[][] byteScores = new byte[outputs][CLASSES];
+        for (int i = 0; i < outputs; i++) {
+            for (int j = 0; j < CLASSES; j++) {
+                floatScores[i][j] = random.nextFloat();
+            }
+            random.nextBytes(byteScores[i]);
+        }
+        List<String> labels = labels(CLASSES);
+        TopKSelector.Result result = new TopKSelector.Result(K);
+        int iterations = 20000;
+        long checksum = 0;
+
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT; the second is reported.
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += legacyTopK(labels, boxed(floatScores[i % outputs])).size();
+            }
+            double legacyMicros = (System.nanoTime() - start) / 1e3 / iterations;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                TopKSelector.select(floatScores[i % outputs], result);
+                checksum += result.getIndex(0);
+            }
+            double floatMicros = (System.nanoTime() - start) / 1e3 / iterations;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                TopKSelector.select(byteScores[i % outputs], result);
+                checksum += result.getIndex(0);
+            }
+            double byteMicros = (System.nanoTime() - start) / 1e3 / iterations;
+
+            if (round == 1) {
+                System.out.printf(
+                        "top-%d of %d: PriorityQueue %.2fus, float %.2fus, quantized %.2fus"
+                                + " per output (checksum %d)%n",
+                        K, CLASSES, legacyMicros, floatMicros, byteMicros, checksum);
+            }
+        }
+    }
+
+    /** The selection CustomImageClassifier used before TopKSelector, lowest score first. */
+    private static List<Map.Entry<String, Float>> legacyTopK(List<String> labels, Float[] scores) {
+        PriorityQueue<Map.Entry<String, Float>> sortedLabels =
+                new PriorityQueue<>(
+                        K,
+                        new Comparator<Map.Entry<String, Float>>() {
+                            @Override
+                            public int compare(Map.Entry<String, Float> o1,
+                                               Map.Entry<String, Float> o2) {
+                                return (o1.getValue()).compareTo(o2.getValue());
+                            }
+                        });
+        for (int i = 0; i < labels.size(); ++i) {
+            sortedLabels.add(new AbstractMap.SimpleEntry<>(labels.get(i), scores[i]));
+            if (sortedLabels.size() > K) {
+                sortedLabels.poll();
+            }
+        }
+        List<Map.Entry<String, Float>> result = new ArrayList<>();
+        final int size = sortedLabels.size();
+        for (int i = 0; i < size; ++i) {
+            result.add(sortedLabels.poll());
+        }
+        return result;
+    }
+
+    private static void assertSameSelection(
+            List<Map.Entry<String, Float>> expected, TopKSelector.Result actual) {
+        assertSameScores(expected, actual);
+        for (int rank = 0; rank < actual.size(); rank++) {
+            // The reference lists the lowest score first.
+            assertEquals("rank " + rank, expected.get(expected.size() - 1 - rank).getKey(),
+                    label(actual.getIndex(rank)));
+        }
+    }
+
+    private static void assertSameScores(
+            List<Map.Entry<String, Float>> expected, TopKSelector.Result actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int rank = 0; rank < actual.size(); rank++) {
+            assertEquals("rank " + rank, expected.get(expected.size() - 1 - rank).getValue(),
+                    actual.getScore(rank), 0);
+        }
+    }
+
+    private static List<String> labels(int count) {
+        List<String> labels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            labels.add(label(i));
+        }
+        return labels;
+    }
+
+    private static String label(int index) {
+        return "label" + index;
+    }
+
+    private static Float[] boxed(float[] scores) {
+        Float[] boxed = new Float[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            boxed[i] = scores[i];
+        }
+        return boxed;
+    }
+
+    private static Float[] boxed(byte[] scores) {
+        Float[] boxed = new Float[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            boxed[i] = (scores[i] & 0xff) / 255.0f;
+        }
+        return boxed;
+    }
+}
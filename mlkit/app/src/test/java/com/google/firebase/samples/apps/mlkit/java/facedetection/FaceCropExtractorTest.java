@@ -0,0 +1,215 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.ml.vision.common.FirebaseVisionImageMetadata;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks {@link FaceCropExtractor#cropNv21ToArgb} against a straightforward reference: the sensor
+ * frame is rotated upright one quarter turn at a time, and the crop is read from the result.
+ */
+public class FaceCropExtractorTest {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 12;
+
+    private static final int[] ROTATIONS = {
+        FirebaseVisionImageMetadata.ROTATION_0,
+        FirebaseVisionImageMetadata.ROTATION_90,
+        FirebaseVisionImageMetadata.ROTATION_180,
+        FirebaseVisionImageMetadata.ROTATION_270
+    };
+
+    @Test
+    public void cropsLumaForEveryRotation() {
+        byte[] nv21 = pattern(WIDTH, HEIGHT);
+        for (int rotation : ROTATIONS) {
+            int[][] upright = uprightSensorIndices(WIDTH, HEIGHT, rotation);
+            int side = 6;
+            int left = 3;
+            int top = 2;
+            int[] argb = new int[side * side];
+            int[] luma = new int[side * side];
+            FaceCropExtractor.cropNv21ToArgb(
+                    nv21, WIDTH, HEIGHT, rotation, left, top, side, argb, luma, side);
+            for (int oy = 0; oy < side; oy++) {
+                for (int ox = 0; ox < side; ox++) {
+                    int sensorIndex = upright[top + oy][left + ox];
+                    assertEquals("rotation " + rotation + " at " + ox + "," + oy,
+                            nv21[sensorIndex] & 0xff, luma[oy * side + ox]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void convertsChromaOfTheCoveringBlock() {
+        byte[] nv21 = pattern(WIDTH, HEIGHT);
+        for (int rotation : ROTATIONS) {
+            int[][] upright = uprightSensorIndices(WIDTH, HEIGHT, rotation);
+            int side = Math.min(upright.length, upright[0].length);
+            int[] argb = new int[side * side];
+            int[] luma = new int[side * side];
+            FaceCropExtractor.cropNv21ToArgb(
+                    nv21, WIDTH, HEIGHT, rotation, 0, 0, side, argb, luma, side);
+            for (int oy = 0; oy < side; oy++) {
+                for (int ox = 0; ox < side; ox++) {
+                    int sensorIndex = upright[oy][ox];
+                    int expected = referenceArgb(nv21, WIDTH, HEIGHT, sensorIndex % WIDTH,
+                            sensorIndex / WIDTH);
+                    assertArgbClose("rotation " + rotation + " at " + ox + "," + oy,
+                            expected, argb[oy * side + ox]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void samplesTheCenterOfEachCellWhenDownscaling() {
+        byte[] nv21 = pattern(WIDTH, HEIGHT);
+        int outSize = 4;
+        int side = 8;
+        int[] argb = new int[outSize * outSize];
+        int[] luma = new int[outSize * outSize];
+        FaceCropExtractor.cropNv21ToArgb(nv21, WIDTH, HEIGHT,
+                FirebaseVisionImageMetadata.ROTATION_0, 2, 1, side, argb, luma, outSize);
+        for (int oy = 0; oy < outSize; oy++) {
+            for (int ox = 0; ox < outSize; ox++) {
+                // Cells are 2 pixels wide; the nearest neighbour of their center is the second.
+                int x = 2 + 2 * ox + 1;
+                int y = 1 + 2 * oy + 1;
+                assertEquals(nv21[y * WIDTH + x] & 0xff, luma[oy * outSize + ox]);
+            }
+        }
+    }
+
+    @Test
+    public void grayHasNoTint() {
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(nv21, (byte) 128);
+        int[] argb = new int[4];
+        FaceCropExtractor.cropNv21ToArgb(nv21, WIDTH, HEIGHT,
+                FirebaseVisionImageMetadata.ROTATION_0, 0, 0, 2, argb, new int[4], 2);
+        for (int pixel : argb) {
+            assertEquals(0xff808080, pixel);
+        }
+    }
+
+    /**
+     * Times crops of a face box in a 1280x720 frame to the embedder's input size, the live
+     * configuration, for every rotation, and prints the mean time per crop. Run it on its own with
+     * {@code ./gradlew :app:testDebugUnitTest --tests '*FaceCropExtractorTest.benchmarkCrop'} after
+     * removing {@code @Ignore}.
+     */
+    @Ignore("Benchmark; takes seconds and checks nothing")
+    @Test
+    public void benchmarkCrop() {
+        int width = 1280;
+        int height = 720;
+        int outSize = FaceEmbedder.INPUT_SIZE;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        new Random(42).nextBytes(nv21);
+        int[] argb = new int[outSize * outSize];
+        int[] luma = new int[outSize * outSize];
+        int warmup = 500;
+        int iterations = 1000;
+        for (int rotation : ROTATIONS) {
+            for (int i = 0; i < warmup; i++) {
+                FaceCropExtractor.cropNv21ToArgb(
+                        nv21, width, height, rotation, 200, 100, 300, argb, luma, outSize);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                FaceCropExtractor.cropNv21ToArgb(nv21, width, height, rotation,
+                        200 + (i & 7), 100 + (i & 3), 300, argb, luma, outSize);
+            }
+            double microsPerCrop = (System.nanoTime() - start) / 1e3 / iterations;
+            System.out.printf("cropNv21ToArgb rotation=%d: %.2fus per %dx%d crop%n",
+                    rotation, microsPerCrop, outSize, outSize);
+        }
+    }
+
+    /** A frame whose luma differs at every pixel and whose chroma differs per 2x2 block. */
+    private static byte[] pattern(int width, int height) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                nv21[y * width + x] = (byte) (y * width + x);
+            }
+        }
+        for (int i = width * height; i < nv21.length; i++) {
+            nv21[i] = (byte) (64 + 7 * i);
+        }
+        return nv21;
+    }
+
+    /**
+     * Returns, for each upright pixel, the index of the sensor pixel it shows: the sensor frame
+     * turned clockwise by {@code rotation} quarter turns.
+     */
+    private static int[][] uprightSensorIndices(int width, int height, int rotation) {
+        int[][] image = new int[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image[y][x] = y * width + x;
+            }
+        }
+        for (int turn = 0; turn < rotation; turn++) {
+            int rows = image.length;
+            int columns = image[0].length;
+            int[][] turned = new int[columns][rows];
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < columns; x++) {
+                    turned[x][rows - 1 - y] = image[y][x];
+                }
+            }
+            image = turned;
+        }
+        return image;
+    }
+
+    /** BT.601 full-range conversion in floating point. */
+    private static int referenceArgb(byte[] nv21, int width, int height, int x, int y) {
+        int uvIndex = width * height + (y / 2) * width + (x / 2) * 2;
+        double luma = nv21[y * width + x] & 0xff;
+        double cr = (nv21[uvIndex] & 0xff) - 128;
+        double cb = (nv21[uvIndex + 1] & 0xff) - 128;
+        int r = clamp(luma + 1.402 * cr);
+        int g = clamp(luma - 0.344136 * cb - 0.714136 * cr);
+        int b = clamp(luma + 1.772 * cb);
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.floor(value)));
+    }
+
+    /** Fixed-point rounding may differ from the reference by one step per channel. */
+    private static void assertArgbClose(String message, int expected, int actual) {
+        for (int shift = 0; shift <= 24; shift += 8) {
+            int difference = Math.abs(((expected >> shift) & 0xff) - ((actual >> shift) & 0xff));
+            assertTrue(message + String.format(": expected %08x, got %08x", expected, actual),
+                    difference <= 1);
+        }
+    }
+}